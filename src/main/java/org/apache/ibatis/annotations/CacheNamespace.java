@@ -35,16 +35,48 @@ import org.apache.ibatis.cache.impl.PerpetualCache;
 public @interface CacheNamespace {
   Class<? extends Cache> implementation() default PerpetualCache.class;
 
+  /**
+   * The eviction decorator. When the implementation is a {@link org.apache.ibatis.cache.ThreadSafeCache}, which bounds
+   * its own size, the default {@link LruCache} is not applied; any other eviction decorator that is not thread-safe
+   * makes the whole cache synchronized.
+   */
   Class<? extends Cache> eviction() default LruCache.class;
 
   long flushInterval() default 0;
 
+  /**
+   * Milliseconds after which each entry expires once put. Unlike {@link #flushInterval()}
+   * it does not clear the whole cache at once.
+   */
+  long expireAfterWrite() default 0;
+
+  /**
+   * Milliseconds after which each entry expires once last read.
+   */
+  long expireAfterAccess() default 0;
+
   int size() default 1024;
 
   boolean readWrite() default true;
 
   boolean blocking() default false;
 
+  /**
+   * Coalesce concurrent cache misses of the same key onto one database query.
+   * Takes precedence over {@link #blocking()}. The other threads wait for the query at most
+   * the <code>loadTimeout</code> property in milliseconds (10 seconds by default, 0 waits forever)
+   * before querying the database themselves.
+   */
+  boolean singleFlight() default false;
+
+  /**
+   * Invalidate only the entries tagged with the cache tags of a flushing statement,
+   * instead of clearing the whole cache.
+   *
+   * @see Options#cacheTags()
+   */
+  boolean tagInvalidation() default false;
+
   /**
    * Property values for a implementation object.
    * @since 3.4.2
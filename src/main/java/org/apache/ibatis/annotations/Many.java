@@ -33,4 +33,15 @@ public @interface Many {
 
   FetchType fetchType() default FetchType.DEFAULT;
 
+  /**
+   * The maximum number of keys loaded by one execution of the select, values greater than 1 enable batch fetching.
+   * The select then receives a list of keys (as {@code list} and {@code collection}) instead of a single one.
+   */
+  int batchFetchSize() default 0;
+
+  /**
+   * The property of the selected objects holding the key of their parent, used to hand them out when batch fetching.
+   */
+  String batchFetchKey() default "";
+
 }
@@ -63,4 +63,29 @@ public @interface Options {
   String keyColumn() default "";
 
   String resultSets() default "";
+
+  /**
+   * For selects with nested result maps whose rows are grouped by the id of the root object. Each root object is
+   * handed to the result handler or cursor as soon as a row of the next one is read, and the objects kept to merge
+   * its rows are released, so the memory used does not grow with the number of rows.
+   */
+  boolean resultOrdered() default false;
+
+  /**
+   * Comma separated tags of the cached data this statement reads or writes.
+   * When empty, the tags are inferred from the mapped types.
+   */
+  String cacheTags() default "";
+
+  /**
+   * When batch statements are grouped, rows of this statement are not batched together with rows
+   * of any statement added before it, so it keeps its order relative to them.
+   */
+  boolean batchBarrier() default false;
+
+  /**
+   * Number of pending batch rows of this statement at which the batch executor executes its pending
+   * batches. Overrides the <code>defaultBatchSize</code> setting when positive.
+   */
+  int batchSize() default -1;
 }
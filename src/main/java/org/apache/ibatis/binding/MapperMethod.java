@@ -23,10 +23,16 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 
 import org.apache.ibatis.annotations.Flush;
 import org.apache.ibatis.annotations.MapKey;
 import org.apache.ibatis.cursor.Cursor;
+import org.apache.ibatis.cursor.Publisher;
+import org.apache.ibatis.exceptions.TooManyResultsException;
+import org.apache.ibatis.executor.result.DefaultMapResultHandler;
+import org.apache.ibatis.executor.result.DefaultResultContext;
 import org.apache.ibatis.mapping.MappedStatement;
 import org.apache.ibatis.mapping.SqlCommandType;
 import org.apache.ibatis.mapping.StatementType;
@@ -62,6 +68,15 @@ public class MapperMethod {
   public MapperMethod(Class<?> mapperInterface, Method method, Configuration config) {
     this.command = new SqlCommand(config, mapperInterface, method);
     this.method = new MethodSignature(config, mapperInterface, method);
+    if (this.method.returnsFuture()
+        && (command.getType() != SqlCommandType.SELECT || this.method.returnsCursor() || this.method.hasResultHandler())) {
+      throw new BindingException("Mapper method '" + command.getName()
+          + "' returns a CompletableFuture, which is only supported by selects without cursor or ResultHandler.");
+    }
+    if (this.method.returnsPublisher() && (command.getType() != SqlCommandType.SELECT || this.method.hasResultHandler())) {
+      throw new BindingException("Mapper method '" + command.getName()
+          + "' returns a Publisher, which is only supported by selects without ResultHandler.");
+    }
   }
 
   /**
@@ -100,32 +115,15 @@ public class MapperMethod {
       }
       // 如果是查询语句
       case SELECT:
-        // 方法返回值为void，且有结果处理器
-        if (method.returnsVoid() && method.hasResultHandler()) {
-          // 使用结果处理器执行查询
-          executeWithResultHandler(sqlSession, args);
-          result = null;
-        }
-        // 多条结果查询
-        else if (method.returnsMany()) {
-          result = executeForMany(sqlSession, args);
+        // 返回CompletableFuture的方法在另一个线程中使用新的会话查询
+        if (method.returnsFuture()) {
+          result = executeAsync(sqlSession, args);
         }
-        // Map结果查询
-        else if (method.returnsMap()) {
-          result = executeForMap(sqlSession, args);
-        }
-        // 游标类型结果查询
-        else if (method.returnsCursor()) {
-          result = executeForCursor(sqlSession, args);
-        }
-        // 单条结果查询
-        else {
-          Object param = method.convertArgsToSqlCommandParam(args);
-          result = sqlSession.selectOne(command.getName(), param);
-          if (method.returnsOptional()
-              && (result == null || !method.getReturnType().equals(result.getClass()))) {
-            result = Optional.ofNullable(result);
-          }
+        // 返回Publisher的方法在订阅者请求数据时才执行查询
+        else if (method.returnsPublisher()) {
+          result = executeForPublisher(sqlSession, args);
+        } else {
+          result = executeSelect(sqlSession, args);
         }
         break;
       // 清空缓存语句
@@ -144,6 +142,78 @@ public class MapperMethod {
     return result;
   }
 
+  /**
+   * 执行查询语句
+   * @param sqlSession 执行查询的会话
+   * @param args 执行接口方法时传入的参数
+   * @return 查询结果
+   */
+  private Object executeSelect(SqlSession sqlSession, Object[] args) {
+    Object result;
+    // 方法返回值为void，且有结果处理器
+    if (method.returnsVoid() && method.hasResultHandler()) {
+      // 使用结果处理器执行查询
+      executeWithResultHandler(sqlSession, args);
+      result = null;
+    }
+    // 多条结果查询
+    else if (method.returnsMany()) {
+      result = executeForMany(sqlSession, args);
+    }
+    // Map结果查询
+    else if (method.returnsMap()) {
+      result = executeForMap(sqlSession, args);
+    }
+    // 游标类型结果查询
+    else if (method.returnsCursor()) {
+      result = executeForCursor(sqlSession, args);
+    }
+    // 单条结果查询
+    else {
+      Object param = method.convertArgsToSqlCommandParam(args);
+      result = sqlSession.selectOne(command.getName(), param);
+      if (method.returnsOptional()
+          && (result == null || !method.getReturnType().equals(result.getClass()))) {
+        result = Optional.ofNullable(result);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * 通过会话的selectListAsync异步查询，查询完成后将结果列表转换为方法声明的结果类型
+   * @param sqlSession 执行查询的会话
+   * @param args 执行接口方法时传入的参数
+   * @return 查询结果的CompletableFuture
+   */
+  private CompletableFuture<Object> executeAsync(SqlSession sqlSession, Object[] args) {
+    final Configuration configuration = sqlSession.getConfiguration();
+    Object param = method.convertArgsToSqlCommandParam(args);
+    CompletableFuture<List<Object>> future;
+    if (method.hasRowBounds() && (method.returnsMany() || method.returnsMap())) {
+      future = sqlSession.selectListAsync(command.getName(), param, method.extractRowBounds(args));
+    } else {
+      future = sqlSession.selectListAsync(command.getName(), param);
+    }
+    return future.thenApply(list -> {
+      if (method.returnsMany()) {
+        return convertToDeclaredType(configuration, list);
+      } else if (method.returnsMap()) {
+        return convertToMap(configuration, list);
+      }
+      // 与selectOne相同：没有结果时为null，多于一条时抛出异常
+      if (list.size() > 1) {
+        throw new TooManyResultsException("Expected one result (or null) to be returned by selectOne(), but found: " + list.size());
+      }
+      Object result = list.isEmpty() ? null : list.get(0);
+      if (method.returnsOptional()
+          && (result == null || !method.getReturnType().equals(result.getClass()))) {
+        result = Optional.ofNullable(result);
+      }
+      return result;
+    });
+  }
+
   private Object rowCountResult(int rowCount) {
     final Object result;
     if (method.returnsVoid()) {
@@ -199,15 +269,25 @@ public class MapperMethod {
       // command.name 记录的是 MappedStatement的ID，param 为 参数名称和参数值组成的map
       result = sqlSession.selectList(command.getName(), param);
     }
+    return convertToDeclaredType(sqlSession.getConfiguration(), result);
+  }
+
+  /**
+   * 将结果列表转换为方法声明的集合或数组类型
+   * @param config 配置信息
+   * @param list 结果列表
+   * @return 方法声明类型的结果
+   */
+  private <E> Object convertToDeclaredType(Configuration config, List<E> list) {
     // issue #510 Collections & arrays support
-    if (!method.getReturnType().isAssignableFrom(result.getClass())) {
+    if (!method.getReturnType().isAssignableFrom(list.getClass())) {
       if (method.getReturnType().isArray()) {
-        return convertToArray(result);
+        return convertToArray(list);
       } else {
-        return convertToDeclaredCollection(sqlSession.getConfiguration(), result);
+        return convertToDeclaredCollection(config, list);
       }
     }
-    return result;
+    return list;
   }
 
   private <T> Cursor<T> executeForCursor(SqlSession sqlSession, Object[] args) {
@@ -222,6 +302,18 @@ public class MapperMethod {
     return result;
   }
 
+  private <T> Publisher<T> executeForPublisher(SqlSession sqlSession, Object[] args) {
+    Publisher<T> result;
+    Object param = method.convertArgsToSqlCommandParam(args);
+    if (method.hasRowBounds()) {
+      RowBounds rowBounds = method.extractRowBounds(args);
+      result = sqlSession.selectPublisher(command.getName(), param, rowBounds);
+    } else {
+      result = sqlSession.selectPublisher(command.getName(), param);
+    }
+    return result;
+  }
+
   private <E> Object convertToDeclaredCollection(Configuration config, List<E> list) {
     Object collection = config.getObjectFactory().create(method.getReturnType());
     MetaObject metaObject = config.newMetaObject(collection);
@@ -255,6 +347,23 @@ public class MapperMethod {
     return result;
   }
 
+  /**
+   * 与selectMap相同，按照@MapKey指定的属性将结果列表转换为Map
+   * @param config 配置信息
+   * @param list 结果列表
+   * @return 结果Map
+   */
+  private <K, V> Map<K, V> convertToMap(Configuration config, List<V> list) {
+    final DefaultMapResultHandler<K, V> mapResultHandler = new DefaultMapResultHandler<>(method.getMapKey(),
+        config.getObjectFactory(), config.getObjectWrapperFactory(), config.getReflectorFactory());
+    final DefaultResultContext<V> context = new DefaultResultContext<>();
+    for (V o : list) {
+      context.nextResultObject(o);
+      mapResultHandler.handleResult(context);
+    }
+    return mapResultHandler.getMappedResults();
+  }
+
   /**
    * 当查询不存在的map下的key时抛出异常
    * @param <V>
@@ -372,8 +481,12 @@ public class MapperMethod {
     private final boolean returnsVoid;
     // 返回类型是否是cursor类型
     private final boolean returnsCursor;
+    // 返回类型是否是Publisher类型
+    private final boolean returnsPublisher;
     // 返回类型是否是optional类型
     private final boolean returnsOptional;
+    // 返回类型是否是CompletableFuture，此时其他的返回类型信息都针对CompletableFuture的结果类型
+    private final boolean returnsFuture;
     // 返回类型
     private final Class<?> returnType;
     // 如果返回为map,这里记录所有的map的key
@@ -396,21 +509,25 @@ public class MapperMethod {
       // 通过 接口和接口的方法获取，当前方法的返回值类型
       Type resolvedReturnType = TypeParameterResolver.resolveReturnType(method, mapperInterface);
       // TODO 为什么只判断这两种类型，ParameterizedType 是什么类型的数据
-      if (resolvedReturnType instanceof Class<?>) {
-        this.returnType = (Class<?>) resolvedReturnType;
-      } else if (resolvedReturnType instanceof ParameterizedType) {
-        this.returnType = (Class<?>) ((ParameterizedType) resolvedReturnType).getRawType();
+      Class<?> rawReturnType = toClass(resolvedReturnType, method.getReturnType());
+      // 返回CompletableFuture时，按照其结果类型处理查询结果
+      this.returnsFuture = CompletableFuture.class.equals(rawReturnType) || CompletionStage.class.equals(rawReturnType);
+      if (this.returnsFuture) {
+        Type futureType = resolvedReturnType instanceof ParameterizedType
+            ? ((ParameterizedType) resolvedReturnType).getActualTypeArguments()[0] : Object.class;
+        this.returnType = toClass(futureType, Object.class);
       } else {
-        this.returnType = method.getReturnType();
+        this.returnType = rawReturnType;
       }
       // 判断返回类型并进行设置对应的值
       this.returnsVoid = void.class.equals(this.returnType);
       this.returnsMany = configuration.getObjectFactory().isCollection(this.returnType) || this.returnType.isArray();
       this.returnsCursor = Cursor.class.equals(this.returnType);
+      this.returnsPublisher = Publisher.class.equals(this.returnType);
       this.returnsOptional = Optional.class.equals(this.returnType);
 
       // 获取方法上 MapKey 注解上的 value 值
-      this.mapKey = getMapKey(method);
+      this.mapKey = getMapKey(method, this.returnType);
       this.returnsMap = this.mapKey != null;
       // 获取第一个并且唯一的 RowBounds类型的入参类型数据下标
       this.rowBoundsIndex = getUniqueParamIndex(method, RowBounds.class);
@@ -479,6 +596,34 @@ public class MapperMethod {
       return returnsOptional;
     }
 
+    /**
+     * return whether return type is {@code org.apache.ibatis.cursor.Publisher}.
+     * @return return {@code true}, if return type is {@code Publisher}
+     */
+    public boolean returnsPublisher() {
+      return returnsPublisher;
+    }
+
+    /**
+     * return whether return type is {@code java.util.concurrent.CompletableFuture} (or {@code CompletionStage}),
+     * the other return type information then describes the result of the future.
+     * @return return {@code true}, if return type is {@code CompletableFuture}
+     */
+    public boolean returnsFuture() {
+      return returnsFuture;
+    }
+
+    // 将解析出的类型转化为类
+    private static Class<?> toClass(Type type, Class<?> defaultClass) {
+      if (type instanceof Class<?>) {
+        return (Class<?>) type;
+      } else if (type instanceof ParameterizedType) {
+        return (Class<?>) ((ParameterizedType) type).getRawType();
+      } else {
+        return defaultClass;
+      }
+    }
+
     // 返回指定参数的index
     private Integer getUniqueParamIndex(Method method, Class<?> paramType) {
       Integer index = null;
@@ -496,9 +641,9 @@ public class MapperMethod {
     }
 
 
-    private String getMapKey(Method method) {
+    private String getMapKey(Method method, Class<?> returnType) {
       String mapKey = null;
-      if (Map.class.isAssignableFrom(method.getReturnType())) {
+      if (Map.class.isAssignableFrom(returnType)) {
         final MapKey mapKeyAnnotation = method.getAnnotation(MapKey.class);
         if (mapKeyAnnotation != null) {
           mapKey = mapKeyAnnotation.value();
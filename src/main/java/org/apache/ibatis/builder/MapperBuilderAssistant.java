@@ -24,8 +24,11 @@ import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.function.Consumer;
 
 import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheStatistics;
+import org.apache.ibatis.cache.ThreadSafeCache;
 import org.apache.ibatis.cache.decorators.LruCache;
 import org.apache.ibatis.cache.impl.PerpetualCache;
 import org.apache.ibatis.executor.ErrorContext;
@@ -168,20 +171,65 @@ public class MapperBuilderAssistant extends BaseBuilder {
       boolean readWrite,
       boolean blocking,
       Properties props) {
-    Cache cache = new CacheBuilder(currentNamespace)
+    return useNewCache(typeClass, evictionClass, flushInterval, size, readWrite, blocking, props, null);
+  }
+
+  /**
+   * 创建一个新的缓存，基本设置以外的选项（如过期时间、标签失效）通过缓存建造者设置
+   * @param typeClass 缓存的实现类
+   * @param evictionClass 缓存的清理类，即使用哪种包装类来清理缓存
+   * @param flushInterval 缓存清理时间间隔
+   * @param size 缓存大小
+   * @param readWrite 缓存是否支持读写
+   * @param blocking 缓存是否支持阻塞
+   * @param props 缓存配置属性
+   * @param cacheOptions 在创建缓存前设置其他选项，可以为null
+   * @return 缓存
+   */
+  public Cache useNewCache(Class<? extends Cache> typeClass,
+      Class<? extends Cache> evictionClass,
+      Long flushInterval,
+      Integer size,
+      boolean readWrite,
+      boolean blocking,
+      Properties props,
+      Consumer<CacheBuilder> cacheOptions) {
+    // 如果启用了缓存统计，则为该命名空间的缓存创建统计信息
+    CacheStatistics statistics = configuration.isCacheStatisticsEnabled() ? new CacheStatistics(currentNamespace) : null;
+    CacheBuilder cacheBuilder = new CacheBuilder(currentNamespace)
         .implementation(valueOrDefault(typeClass, PerpetualCache.class))
-        .addDecorator(valueOrDefault(evictionClass, LruCache.class))
+        .addDecorator(defaultEviction(typeClass, evictionClass))
         .clearInterval(flushInterval)
         .size(size)
         .readWrite(readWrite)
         .blocking(blocking)
-        .properties(props)
-        .build();
+        .statistics(statistics)
+        .properties(props);
+    if (cacheOptions != null) {
+      cacheOptions.accept(cacheBuilder);
+    }
+    Cache cache = cacheBuilder.build();
     configuration.addCache(cache);
+    if (statistics != null) {
+      configuration.addCacheStatistics(statistics);
+    }
     currentCache = cache;
     return cache;
   }
 
+  /**
+   * 确定缓存的清理类。未指定时默认使用LRU，线程安全的缓存实现自己控制容量，不再默认添加清理装饰器
+   * @param typeClass 缓存的实现类
+   * @param evictionClass 缓存的清理类
+   * @return 缓存的清理类，为null表示不添加
+   */
+  private Class<? extends Cache> defaultEviction(Class<? extends Cache> typeClass, Class<? extends Cache> evictionClass) {
+    if (evictionClass != null || (typeClass != null && ThreadSafeCache.class.isAssignableFrom(typeClass))) {
+      return evictionClass;
+    }
+    return LruCache.class;
+  }
+
   public ParameterMap addParameterMap(String id, Class<?> parameterClass, List<ParameterMapping> parameterMappings) {
     id = applyCurrentNamespace(id, false);
     ParameterMap parameterMap = new ParameterMap.Builder(configuration, id, parameterClass, parameterMappings).build();
@@ -344,6 +392,39 @@ public class MapperBuilderAssistant extends BaseBuilder {
       String databaseId,
       LanguageDriver lang,
       String resultSets) {
+    return addMappedStatement(id, sqlSource, statementType, sqlCommandType, fetchSize, timeout,
+        parameterMap, parameterType, resultMap, resultType, resultSetType,
+        flushCache, useCache, resultOrdered, keyGenerator, keyProperty,
+        keyColumn, databaseId, lang, resultSets, null);
+  }
+
+  /**
+   * 创建MappedStatement对象并写入Configuration，基本设置以外的选项（如缓存标签、批量执行的设置）通过语句建造者设置
+   * @param statementOptions 在创建语句前设置其他选项，可以为null
+   * @return MappedStatement对象
+   */
+  public MappedStatement addMappedStatement(
+      String id,
+      SqlSource sqlSource,
+      StatementType statementType,
+      SqlCommandType sqlCommandType,
+      Integer fetchSize,
+      Integer timeout,
+      String parameterMap,
+      Class<?> parameterType,
+      String resultMap,
+      Class<?> resultType,
+      ResultSetType resultSetType,
+      boolean flushCache,
+      boolean useCache,
+      boolean resultOrdered,
+      KeyGenerator keyGenerator,
+      String keyProperty,
+      String keyColumn,
+      String databaseId,
+      LanguageDriver lang,
+      String resultSets,
+      Consumer<MappedStatement.Builder> statementOptions) {
 
     if (unresolvedCacheRef) {
       throw new IncompleteElementException("Cache-ref not yet resolved");
@@ -374,6 +455,9 @@ public class MapperBuilderAssistant extends BaseBuilder {
     if (statementParameterMap != null) {
       statementBuilder.parameterMap(statementParameterMap);
     }
+    if (statementOptions != null) {
+      statementOptions.accept(statementBuilder);
+    }
 
     MappedStatement statement = statementBuilder.build();
     configuration.addMappedStatement(statement);
@@ -450,6 +534,32 @@ public class MapperBuilderAssistant extends BaseBuilder {
       String resultSet,
       String foreignColumn,
       boolean lazy) {
+    return buildResultMapping(
+      resultType, property, column, javaType, jdbcType, nestedSelect,
+      nestedResultMap, notNullColumn, columnPrefix, typeHandler, flags, resultSet, foreignColumn, lazy, null);
+  }
+
+  /**
+   * 创建结果映射，基本设置以外的选项（如批量加载的设置）通过结果映射建造者设置
+   * @param mappingOptions 在创建结果映射前设置其他选项，可以为null
+   * @return 结果映射
+   */
+  public ResultMapping buildResultMapping(
+      Class<?> resultType,
+      String property,
+      String column,
+      Class<?> javaType,
+      JdbcType jdbcType,
+      String nestedSelect,
+      String nestedResultMap,
+      String notNullColumn,
+      String columnPrefix,
+      Class<? extends TypeHandler<?>> typeHandler,
+      List<ResultFlag> flags,
+      String resultSet,
+      String foreignColumn,
+      boolean lazy,
+      Consumer<ResultMapping.Builder> mappingOptions) {
     Class<?> javaTypeClass = resolveResultJavaType(resultType, property, javaType);
     TypeHandler<?> typeHandlerInstance = resolveTypeHandler(javaTypeClass, typeHandler);
     List<ResultMapping> composites;
@@ -458,7 +568,7 @@ public class MapperBuilderAssistant extends BaseBuilder {
     } else {
       composites = parseCompositeColumnName(column);
     }
-    return new ResultMapping.Builder(configuration, property, column, javaTypeClass)
+    ResultMapping.Builder mappingBuilder = new ResultMapping.Builder(configuration, property, column, javaTypeClass)
         .jdbcType(jdbcType)
         .nestedQueryId(applyCurrentNamespace(nestedSelect, true))
         .nestedResultMapId(applyCurrentNamespace(nestedResultMap, true))
@@ -469,8 +579,11 @@ public class MapperBuilderAssistant extends BaseBuilder {
         .notNullColumns(parseMultipleColumnNames(notNullColumn))
         .columnPrefix(columnPrefix)
         .foreignColumn(foreignColumn)
-        .lazy(lazy)
-        .build();
+        .lazy(lazy);
+    if (mappingOptions != null) {
+      mappingOptions.accept(mappingBuilder);
+    }
+    return mappingBuilder.build();
   }
 
   private Set<String> parseMultipleColumnNames(String columnName) {
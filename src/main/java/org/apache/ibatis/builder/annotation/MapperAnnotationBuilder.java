@@ -34,6 +34,8 @@ import java.util.Map;
 import java.util.Optional;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 
 import org.apache.ibatis.annotations.Arg;
 import org.apache.ibatis.annotations.CacheNamespace;
@@ -66,7 +68,11 @@ import org.apache.ibatis.builder.CacheRefResolver;
 import org.apache.ibatis.builder.IncompleteElementException;
 import org.apache.ibatis.builder.MapperBuilderAssistant;
 import org.apache.ibatis.builder.xml.XMLMapperBuilder;
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.ThreadSafeCache;
+import org.apache.ibatis.cache.decorators.LruCache;
 import org.apache.ibatis.cursor.Cursor;
+import org.apache.ibatis.cursor.Publisher;
 import org.apache.ibatis.executor.keygen.Jdbc3KeyGenerator;
 import org.apache.ibatis.executor.keygen.KeyGenerator;
 import org.apache.ibatis.executor.keygen.NoKeyGenerator;
@@ -204,8 +210,17 @@ public class MapperAnnotationBuilder {
     if (cacheDomain != null) {
       Integer size = cacheDomain.size() == 0 ? null : cacheDomain.size();
       Long flushInterval = cacheDomain.flushInterval() == 0 ? null : cacheDomain.flushInterval();
+      Long expireAfterWrite = cacheDomain.expireAfterWrite() == 0 ? null : cacheDomain.expireAfterWrite();
+      Long expireAfterAccess = cacheDomain.expireAfterAccess() == 0 ? null : cacheDomain.expireAfterAccess();
       Properties props = convertToProperties(cacheDomain.properties());
-      assistant.useNewCache(cacheDomain.implementation(), cacheDomain.eviction(), flushInterval, size, cacheDomain.readWrite(), cacheDomain.blocking(), props);
+      // 线程安全的缓存实现自己控制容量，未修改的默认清理类不再使用
+      Class<? extends Cache> eviction = ThreadSafeCache.class.isAssignableFrom(cacheDomain.implementation())
+          && LruCache.class.equals(cacheDomain.eviction()) ? null : cacheDomain.eviction();
+      assistant.useNewCache(cacheDomain.implementation(), eviction, flushInterval, size, cacheDomain.readWrite(), cacheDomain.blocking(), props, cacheBuilder -> cacheBuilder
+          .expireAfterWrite(expireAfterWrite)
+          .expireAfterAccess(expireAfterAccess)
+          .singleFlight(cacheDomain.singleFlight())
+          .tagInvalidation(cacheDomain.tagInvalidation()));
     }
   }
 
@@ -332,6 +347,7 @@ public class MapperAnnotationBuilder {
       StatementType statementType = StatementType.PREPARED;
       ResultSetType resultSetType = configuration.getDefaultResultSetType();
       SqlCommandType sqlCommandType = getSqlCommandType(method);
+      checkAsyncReturnType(method, mappedStatementId, sqlCommandType);
       boolean isSelect = sqlCommandType == SqlCommandType.SELECT;
       boolean flushCache = !isSelect;
       boolean useCache = isSelect;
@@ -399,8 +415,8 @@ public class MapperAnnotationBuilder {
           resultSetType,
           flushCache,
           useCache,
-          // TODO gcode issue #577
-          false,
+          // gcode issue #577
+          options != null && options.resultOrdered(),
           keyGenerator,
           keyProperty,
           keyColumn,
@@ -408,7 +424,11 @@ public class MapperAnnotationBuilder {
           null,
           languageDriver,
           // ResultSets
-          options != null ? nullOrEmpty(options.resultSets()) : null);
+          options != null ? nullOrEmpty(options.resultSets()) : null,
+          options == null ? null : statementBuilder -> statementBuilder
+              .cacheTags(nullOrEmpty(options.cacheTags()))
+              .batchBarrier(options.batchBarrier())
+              .batchSize(options.batchSize() > 0 ? options.batchSize() : null));
     }
   }
 
@@ -437,9 +457,63 @@ public class MapperAnnotationBuilder {
     return parameterType;
   }
 
+  /**
+   * 检查异步返回类型（CompletableFuture、Publisher）是否可以用于该语句，在构建时报告错误，而不是等到第一次调用。
+   * XML中定义的语句在构建接口时可能还未解析，仍由MapperMethod在第一次调用时检查
+   * @param method 接口方法
+   * @param mappedStatementId 语句id
+   * @param sqlCommandType 语句类型
+   */
+  private void checkAsyncReturnType(Method method, String mappedStatementId, SqlCommandType sqlCommandType) {
+    Class<?> rawReturnType = method.getReturnType();
+    if (CompletableFuture.class.equals(rawReturnType) || CompletionStage.class.equals(rawReturnType)) {
+      boolean futureOfCursor = false;
+      Type resolvedReturnType = TypeParameterResolver.resolveReturnType(method, type);
+      if (resolvedReturnType instanceof ParameterizedType) {
+        Type futureType = ((ParameterizedType) resolvedReturnType).getActualTypeArguments()[0];
+        Type rawFutureType = futureType instanceof ParameterizedType ? ((ParameterizedType) futureType).getRawType() : futureType;
+        futureOfCursor = rawFutureType instanceof Class && Cursor.class.isAssignableFrom((Class<?>) rawFutureType);
+      }
+      if (sqlCommandType != SqlCommandType.SELECT || futureOfCursor || hasResultHandler(method)) {
+        throw new BuilderException("Mapper method '" + mappedStatementId
+            + "' returns a CompletableFuture, which is only supported by selects without cursor or ResultHandler.");
+      }
+    }
+    if (Publisher.class.equals(rawReturnType) && (sqlCommandType != SqlCommandType.SELECT || hasResultHandler(method))) {
+      throw new BuilderException("Mapper method '" + mappedStatementId
+          + "' returns a Publisher, which is only supported by selects without ResultHandler.");
+    }
+  }
+
+  private boolean hasResultHandler(Method method) {
+    for (Class<?> parameterType : method.getParameterTypes()) {
+      if (ResultHandler.class.isAssignableFrom(parameterType)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
   private Class<?> getReturnType(Method method) {
-    Class<?> returnType = method.getReturnType();
     Type resolvedReturnType = TypeParameterResolver.resolveReturnType(method, type);
+    if (resolvedReturnType instanceof ParameterizedType) {
+      Class<?> rawType = (Class<?>) ((ParameterizedType) resolvedReturnType).getRawType();
+      if (CompletableFuture.class.equals(rawType) || CompletionStage.class.equals(rawType)) {
+        // 返回CompletableFuture的方法，按照其结果类型确定结果对象的类型
+        Type futureType = ((ParameterizedType) resolvedReturnType).getActualTypeArguments()[0];
+        Class<?> futureClass = Object.class;
+        if (futureType instanceof Class<?>) {
+          futureClass = (Class<?>) futureType;
+        } else if (futureType instanceof ParameterizedType) {
+          futureClass = (Class<?>) ((ParameterizedType) futureType).getRawType();
+        }
+        return getReturnType(method, futureType, futureClass);
+      }
+    }
+    return getReturnType(method, resolvedReturnType, method.getReturnType());
+  }
+
+  private Class<?> getReturnType(Method method, Type resolvedReturnType, Class<?> returnType) {
     if (resolvedReturnType instanceof Class) {
       returnType = (Class<?>) resolvedReturnType;
       if (returnType.isArray()) {
@@ -455,7 +529,8 @@ public class MapperAnnotationBuilder {
     } else if (resolvedReturnType instanceof ParameterizedType) {
       ParameterizedType parameterizedType = (ParameterizedType) resolvedReturnType;
       Class<?> rawType = (Class<?>) parameterizedType.getRawType();
-      if (Collection.class.isAssignableFrom(rawType) || Cursor.class.isAssignableFrom(rawType)) {
+      if (Collection.class.isAssignableFrom(rawType) || Cursor.class.isAssignableFrom(rawType)
+          || Publisher.class.isAssignableFrom(rawType)) {
         Type[] actualTypeArguments = parameterizedType.getActualTypeArguments();
         if (actualTypeArguments != null && actualTypeArguments.length == 1) {
           Type returnTypeParameter = actualTypeArguments[0];
@@ -614,7 +689,10 @@ public class MapperAnnotationBuilder {
           flags,
           null,
           null,
-          isLazy(result));
+          isLazy(result),
+          mappingBuilder -> mappingBuilder
+              .batchFetchSize(batchFetchSize(result))
+              .batchFetchKey(nullOrEmpty(result.one().select().length() > 0 ? result.one().batchFetchKey() : result.many().batchFetchKey())));
       resultMappings.add(resultMapping);
     }
   }
@@ -640,6 +718,10 @@ public class MapperAnnotationBuilder {
     return isLazy;
   }
 
+  private int batchFetchSize(Result result) {
+    return result.one().select().length() > 0 ? result.one().batchFetchSize() : result.many().batchFetchSize();
+  }
+
   private boolean hasNestedSelect(Result result) {
     if (result.one().select().length() > 0 && result.many().select().length() > 0) {
       throw new BuilderException("Cannot use both @One and @Many annotations in the same @Result");
@@ -248,14 +248,23 @@ public class XMLMapperBuilder extends BaseBuilder {
     if (context != null) {
       String type = context.getStringAttribute("type", "PERPETUAL");
       Class<? extends Cache> typeClass = typeAliasRegistry.resolveAlias(type);
-      String eviction = context.getStringAttribute("eviction", "LRU");
-      Class<? extends Cache> evictionClass = typeAliasRegistry.resolveAlias(eviction);
+      // 未指定时由builderAssistant决定默认的清理类
+      String eviction = context.getStringAttribute("eviction");
+      Class<? extends Cache> evictionClass = eviction == null ? null : typeAliasRegistry.resolveAlias(eviction);
       Long flushInterval = context.getLongAttribute("flushInterval");
+      Long expireAfterWrite = context.getLongAttribute("expireAfterWrite");
+      Long expireAfterAccess = context.getLongAttribute("expireAfterAccess");
       Integer size = context.getIntAttribute("size");
       boolean readWrite = !context.getBooleanAttribute("readOnly", false);
       boolean blocking = context.getBooleanAttribute("blocking", false);
+      boolean singleFlight = context.getBooleanAttribute("singleFlight", false);
+      boolean tagInvalidation = context.getBooleanAttribute("tagInvalidation", false);
       Properties props = context.getChildrenAsProperties();
-      builderAssistant.useNewCache(typeClass, evictionClass, flushInterval, size, readWrite, blocking, props);
+      builderAssistant.useNewCache(typeClass, evictionClass, flushInterval, size, readWrite, blocking, props, cacheBuilder -> cacheBuilder
+          .expireAfterWrite(expireAfterWrite)
+          .expireAfterAccess(expireAfterAccess)
+          .singleFlight(singleFlight)
+          .tagInvalidation(tagInvalidation));
     }
   }
 
@@ -433,10 +442,13 @@ public class XMLMapperBuilder extends BaseBuilder {
     String resultSet = context.getStringAttribute("resultSet");
     String foreignColumn = context.getStringAttribute("foreignColumn");
     boolean lazy = "lazy".equals(context.getStringAttribute("fetchType", configuration.isLazyLoadingEnabled() ? "lazy" : "eager"));
+    int batchFetchSize = context.getIntAttribute("batchFetchSize", 0);
+    String batchFetchKey = context.getStringAttribute("batchFetchKey");
     Class<?> javaTypeClass = resolveClass(javaType);
     Class<? extends TypeHandler<?>> typeHandlerClass = resolveClass(typeHandler);
     JdbcType jdbcTypeEnum = resolveJdbcType(jdbcType);
-    return builderAssistant.buildResultMapping(resultType, property, column, javaTypeClass, jdbcTypeEnum, nestedSelect, nestedResultMap, notNullColumn, columnPrefix, typeHandlerClass, flags, resultSet, foreignColumn, lazy);
+    return builderAssistant.buildResultMapping(resultType, property, column, javaTypeClass, jdbcTypeEnum, nestedSelect, nestedResultMap, notNullColumn, columnPrefix, typeHandlerClass, flags, resultSet, foreignColumn, lazy,
+        mappingBuilder -> mappingBuilder.batchFetchSize(batchFetchSize).batchFetchKey(batchFetchKey));
   }
 
   private String processNestedResultMappings(XNode context, List<ResultMapping> resultMappings, Class<?> enclosingType) throws Exception {
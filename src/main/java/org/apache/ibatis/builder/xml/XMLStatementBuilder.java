@@ -125,11 +125,15 @@ public class XMLStatementBuilder extends BaseBuilder {
     String keyProperty = context.getStringAttribute("keyProperty");
     String keyColumn = context.getStringAttribute("keyColumn");
     String resultSets = context.getStringAttribute("resultSets");
+    String cacheTags = context.getStringAttribute("cacheTags");
+    boolean batchBarrier = context.getBooleanAttribute("batchBarrier", false);
+    Integer batchSize = context.getIntAttribute("batchSize");
     // 在MapperBuilderAssistant的帮助下创建MappedStatement对象，并写入到Configuration中
     builderAssistant.addMappedStatement(id, sqlSource, statementType, sqlCommandType,
         fetchSize, timeout, parameterMap, parameterTypeClass, resultMap, resultTypeClass,
         resultSetTypeEnum, flushCache, useCache, resultOrdered,
-        keyGenerator, keyProperty, keyColumn, databaseId, langDriver, resultSets);
+        keyGenerator, keyProperty, keyColumn, databaseId, langDriver, resultSets,
+        statementBuilder -> statementBuilder.cacheTags(cacheTags).batchBarrier(batchBarrier).batchSize(batchSize));
   }
 
   private void processSelectKeyNodes(String id, Class<?> parameterTypeClass, LanguageDriver langDriver) {
@@ -15,6 +15,7 @@
  */
 package org.apache.ibatis.cache;
 
+import java.util.Map;
 import java.util.concurrent.locks.ReadWriteLock;
 
 /**
@@ -63,6 +64,25 @@ public interface Cache {
    */
   void putObject(Object key, Object value);
 
+  /**
+   * Puts several entries at once, as a transaction commit does.
+   * <p>
+   * Implementations that can store a batch cheaper than entry by entry (e.g. taking a lock only once)
+   * should override it. The map must not be retained after the call.
+   *
+   * @param entries The entries to put. Values may be null
+   */
+
+  /**
+   * 向缓存批量写入信息，默认逐条写入
+   * @param entries 要写入的信息，值可能为null
+   */
+  default void putAll(Map<Object, Object> entries) {
+    for (Map.Entry<Object, Object> entry : entries.entrySet()) {
+      putObject(entry.getKey(), entry.getValue());
+    }
+  }
+
   /**
    * @param key The key
    * @return The object stored in the cache.
@@ -118,6 +138,23 @@ public interface Cache {
    */
   int getSize();
 
+  /**
+   * Optional. This method is not called by the core, only by cache statistics.
+   * <p>
+   * Caches that drop entries on their own (size bounded or reference based caches) should count them,
+   * decorators should add the count of their delegate.
+   *
+   * @return The number of entries removed to make room or collected since the cache was created.
+   */
+
+  /**
+   * 读取缓存自行淘汰的信息数目，装饰器应累加被装饰对象的数目
+   * @return 淘汰的信息数目
+   */
+  default long getEvictionCount() {
+    return 0L;
+  }
+
   /**
    * Optional. As of 3.2.6 this method is no longer called by the core.
    * <p>
@@ -0,0 +1,41 @@
+/**
+ *    Copyright 2009-2019 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+/**
+ * SPI for the binary format used by caches that store their entries as bytes.
+ * <p>
+ * Implementations must be thread safe and have a public no-args constructor.
+ *
+ * @see org.apache.ibatis.cache.impl.OffHeapCache
+ */
+public interface CacheCodec {
+
+  /**
+   * 将缓存的值编码为字节数组
+   * @param value 缓存的值，不为null
+   * @return 编码后的字节数组
+   */
+  byte[] encode(Object value);
+
+  /**
+   * 将字节数组解码为缓存的值
+   * @param data 编码后的字节数组
+   * @return 缓存的值
+   */
+  Object decode(byte[] data);
+
+}
@@ -15,8 +15,14 @@
  */
 package org.apache.ibatis.cache;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
 import java.util.List;
 import java.util.StringJoiner;
 
@@ -29,36 +35,61 @@ public class CacheKey implements Cloneable, Serializable {
 
   private static final long serialVersionUID = 1146682552656046210L;
 
+  // 序列化的字段与之前的版本相同，更新历史仍然写为List，以便新旧版本互相读取。64位哈希值在读取时重新计算
+  private static final ObjectStreamField[] serialPersistentFields = {
+      new ObjectStreamField("multiplier", int.class),
+      new ObjectStreamField("hashcode", int.class),
+      new ObjectStreamField("checksum", long.class),
+      new ObjectStreamField("count", int.class),
+      new ObjectStreamField("updateList", List.class)
+  };
+
   public static final CacheKey NULL_CACHE_KEY = new NullCacheKey();
 
   private static final int DEFAULT_MULTIPLYER = 37;
   private static final int DEFAULT_HASHCODE = 17;
+  private static final int DEFAULT_CAPACITY = 8;
+  private static final long HASH64_MULTIPLIER = 0x9e3779b97f4a7c15L;
+  private static final long FNV64_OFFSET_BASIS = 0xcbf29ce484222325L;
+  private static final long FNV64_PRIME = 0x100000001b3L;
 
   // 乘数，用来计算hashcode时使用
-  private final int multiplier;
+  private int multiplier;
   // 哈希值，整个CacheKey的哈希值。如果两个CacheKey该值不同，则两个CacheKey一定不同
   private int hashcode;
   // 求和校验值，整个CacheKey的求和校验值。如果两个CacheKey该值不同，则两个CacheKey一定不同
   private long checksum;
+  // 64位哈希值，比较时首先使用。如果两个CacheKey该值不同，则两个CacheKey一定不同
+  private long hash64;
   // 更新次数，整个CacheKey的更新次数
   private int count;
-  // 更新历史
-  private List<Object> updateList;
+  // 更新历史。int和long类型的更新只记录类型标记，值保存在primitives中，避免装箱
+  private Object[] updateList;
+  // int和long类型的更新值，仅在有此类更新时创建
+  private long[] primitives;
 
   public CacheKey() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  /**
+   * CacheKey构造方法
+   * @param initialCapacity 预计的更新次数
+   */
+  public CacheKey(int initialCapacity) {
     this.hashcode = DEFAULT_HASHCODE;
     this.multiplier = DEFAULT_MULTIPLYER;
     this.count = 0;
-    this.updateList = new ArrayList<>();
+    this.updateList = new Object[Math.max(initialCapacity, 1)];
   }
 
   public CacheKey(Object[] objects) {
-    this();
+    this(objects.length);
     updateAll(objects);
   }
 
   public int getUpdateCount() {
-    return updateList.size();
+    return count;
   }
 
   /**
@@ -66,15 +97,23 @@ public class CacheKey implements Cloneable, Serializable {
    * @param object 此次更新的参数
    */
   public void update(Object object) {
-    int baseHashCode = object == null ? 1 : ArrayUtil.hashCode(object);
-
-    count++;
-    checksum += baseHashCode;
-    baseHashCode *= count;
+    appendObject(object);
+  }
 
-    hashcode = multiplier * hashcode + baseHashCode;
+  /**
+   * 使用int值更新CacheKey，与使用对应的Integer更新效果相同，但不需要装箱
+   * @param value 此次更新的参数
+   */
+  public void update(int value) {
+    appendInt(value);
+  }
 
-    updateList.add(object);
+  /**
+   * 使用long值更新CacheKey，与使用对应的Long更新效果相同，但不需要装箱
+   * @param value 此次更新的参数
+   */
+  public void update(long value) {
+    appendLong(value);
   }
 
   public void updateAll(Object[] objects) {
@@ -83,6 +122,54 @@ public class CacheKey implements Cloneable, Serializable {
     }
   }
 
+  private void appendObject(Object object) {
+    if (object instanceof Integer) {
+      appendInt((Integer) object);
+    } else if (object instanceof Long) {
+      appendLong((Long) object);
+    } else {
+      int baseHashCode = object == null ? 1 : ArrayUtil.hashCode(object);
+      append(object, baseHashCode, object == null ? 1L : hash64(object));
+    }
+  }
+
+  private void appendInt(int value) {
+    append(PrimitiveType.INT, value, value);
+    primitives[count - 1] = value;
+  }
+
+  private void appendLong(long value) {
+    append(PrimitiveType.LONG, Long.hashCode(value), value);
+    primitives[count - 1] = value;
+  }
+
+  /**
+   * 记录一次更新，并更新各个校验值
+   * @param object 此次更新的参数或基本类型标记
+   * @param baseHashCode 参数的哈希值
+   * @param hash64Source 用来计算64位哈希值的参数值
+   */
+  private void append(Object object, int baseHashCode, long hash64Source) {
+    if (count == updateList.length) {
+      updateList = Arrays.copyOf(updateList, count << 1);
+    }
+    if (object instanceof PrimitiveType) {
+      if (primitives == null) {
+        primitives = new long[updateList.length];
+      } else if (primitives.length < updateList.length) {
+        primitives = Arrays.copyOf(primitives, updateList.length);
+      }
+    }
+    updateList[count] = object;
+
+    count++;
+    checksum += baseHashCode;
+    baseHashCode *= count;
+
+    hashcode = multiplier * hashcode + baseHashCode;
+    hash64 = (hash64 + mix64(hash64Source)) * HASH64_MULTIPLIER;
+  }
+
   /**
    * 比较当前对象和入参对象（通常也是CacheKey对象）是否相等
    * @param object 入参对象
@@ -99,22 +186,29 @@ public class CacheKey implements Cloneable, Serializable {
       return false;
     }
     final CacheKey cacheKey = (CacheKey) object;
-    // 依次通过hashcode、checksum、count判断。必须完全一致才相等
-    if (hashcode != cacheKey.hashcode) {
+    // 依次通过hash64、count、hashcode、checksum判断。必须完全一致才相等
+    if (hash64 != cacheKey.hash64) {
       return false;
     }
-    if (checksum != cacheKey.checksum) {
+    if (count != cacheKey.count) {
       return false;
     }
-    if (count != cacheKey.count) {
+    if (hashcode != cacheKey.hashcode) {
+      return false;
+    }
+    if (checksum != cacheKey.checksum) {
       return false;
     }
 
     // 详细比较变更历史中的每次变更
-    for (int i = 0; i < updateList.size(); i++) {
-      Object thisObject = updateList.get(i);
-      Object thatObject = cacheKey.updateList.get(i);
-      if (!ArrayUtil.equals(thisObject, thatObject)) {
+    for (int i = 0; i < count; i++) {
+      Object thisObject = updateList[i];
+      Object thatObject = cacheKey.updateList[i];
+      if (thisObject instanceof PrimitiveType) {
+        if (thisObject != thatObject || primitives[i] != cacheKey.primitives[i]) {
+          return false;
+        }
+      } else if (!ArrayUtil.equals(thisObject, thatObject)) {
         return false;
       }
     }
@@ -131,15 +225,111 @@ public class CacheKey implements Cloneable, Serializable {
     StringJoiner returnValue = new StringJoiner(":");
     returnValue.add(String.valueOf(hashcode));
     returnValue.add(String.valueOf(checksum));
-    updateList.stream().map(ArrayUtil::toString).forEach(returnValue::add);
+    for (int i = 0; i < count; i++) {
+      Object object = updateList[i];
+      returnValue.add(object instanceof PrimitiveType ? String.valueOf(primitives[i]) : ArrayUtil.toString(object));
+    }
     return returnValue.toString();
   }
 
   @Override
   public CacheKey clone() throws CloneNotSupportedException {
     CacheKey clonedCacheKey = (CacheKey) super.clone();
-    clonedCacheKey.updateList = new ArrayList<>(updateList);
+    clonedCacheKey.updateList = updateList.clone();
+    if (primitives != null) {
+      clonedCacheKey.primitives = primitives.clone();
+    }
     return clonedCacheKey;
   }
 
+  /**
+   * 计算参数的64位哈希值，与ArrayUtil.equals判断相等的参数哈希值相同。字符串、浮点数、日期和数组根据全部内容计算，
+   * 其他对象只能使用32位的hashCode
+   * @param object 参数，不为null
+   * @return 64位哈希值
+   */
+  private static long hash64(Object object) {
+    if (object instanceof String) {
+      String string = (String) object;
+      long hash = FNV64_OFFSET_BASIS;
+      for (int i = 0; i < string.length(); i++) {
+        hash = (hash ^ string.charAt(i)) * FNV64_PRIME;
+      }
+      return hash;
+    } else if (object instanceof Double) {
+      return Double.doubleToLongBits((Double) object);
+    } else if (object instanceof Float) {
+      return Float.floatToIntBits((Float) object);
+    } else if (object instanceof Date) {
+      return ((Date) object).getTime();
+    } else if (object instanceof byte[]) {
+      long hash = FNV64_OFFSET_BASIS;
+      for (byte b : (byte[]) object) {
+        hash = (hash ^ (b & 0xff)) * FNV64_PRIME;
+      }
+      return hash;
+    } else if (object instanceof Object[]) {
+      long hash = FNV64_OFFSET_BASIS;
+      for (Object element : (Object[]) object) {
+        hash = (hash + (element == null ? 0L : mix64(hash64(element)))) * HASH64_MULTIPLIER;
+      }
+      return hash;
+    }
+    return ArrayUtil.hashCode(object);
+  }
+
+  private static long mix64(long value) {
+    value = (value ^ (value >>> 33)) * 0xff51afd7ed558ccdL;
+    value = (value ^ (value >>> 33)) * 0xc4ceb9fe1a85ec53L;
+    return value ^ (value >>> 33);
+  }
+
+  private void writeObject(ObjectOutputStream out) throws IOException {
+    List<Object> updates = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      Object object = updateList[i];
+      if (object == PrimitiveType.INT) {
+        updates.add((int) primitives[i]);
+      } else if (object == PrimitiveType.LONG) {
+        updates.add(primitives[i]);
+      } else {
+        updates.add(object);
+      }
+    }
+    ObjectOutputStream.PutField fields = out.putFields();
+    fields.put("multiplier", multiplier);
+    fields.put("hashcode", hashcode);
+    fields.put("checksum", checksum);
+    fields.put("count", count);
+    fields.put("updateList", updates);
+    out.writeFields();
+  }
+
+  /**
+   * 读取序列化的CacheKey，包括之前版本写出的。按照更新历史重新更新一遍，以得到当前版本的存储形式和64位哈希值
+   */
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    ObjectInputStream.GetField fields = in.readFields();
+    List<?> updates = (List<?>) fields.get("updateList", null);
+    multiplier = fields.get("multiplier", DEFAULT_MULTIPLYER);
+    hashcode = DEFAULT_HASHCODE;
+    checksum = 0;
+    hash64 = 0;
+    count = 0;
+    primitives = null;
+    updateList = new Object[updates == null ? 1 : Math.max(updates.size(), 1)];
+    if (updates != null) {
+      for (Object object : updates) {
+        appendObject(object);
+      }
+    }
+  }
+
+  /**
+   * 更新历史中基本类型更新的标记，序列化时替换为对应的Integer和Long
+   */
+  private enum PrimitiveType {
+    INT, LONG
+  }
+
 }
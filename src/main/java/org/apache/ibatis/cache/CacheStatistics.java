@@ -0,0 +1,329 @@
+/**
+ *    Copyright 2009-2019 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.LogFactory;
+
+/**
+ * Statistics of a second level cache.
+ * <p>
+ * All the counters are {@link LongAdder}s so concurrent sessions can update them without contention
+ * and without losing updates. Hits, misses, puts and removals are recorded by the
+ * {@link org.apache.ibatis.cache.decorators.StatisticsCache} decorator, load times by the caching
+ * executor, the entries flushed on commit or discarded on rollback by the
+ * {@link org.apache.ibatis.cache.decorators.TransactionalCache} of each session, while size and evictions
+ * are read from the decorated cache when asked for.
+ * <p>
+ * One instance is created per namespace cache and registered as an MBean named
+ * <code>org.apache.ibatis:type=CacheStatistics,configuration="name",id="namespace"</code>, where the
+ * configuration name tells the configurations of one JVM apart. The statistics MyBatis keeps for itself, like the
+ * local cache, are registered with <code>type=InternalCacheStatistics</code> so they never clash with a namespace.
+ * The MBeans are unregistered by {@link org.apache.ibatis.session.Configuration#shutdown()}.
+ */
+public class CacheStatistics implements CacheStatisticsMBean {
+
+  private static final Log log = LogFactory.getLog(CacheStatistics.class);
+
+  // 加载耗时直方图各个区间的上限，单位为毫秒
+  private static final long[] LOAD_TIME_BUCKETS = {1, 2, 5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000};
+
+  // 缓存id
+  private final String id;
+  // 是否为MyBatis内部使用的统计信息，如一级缓存和自动映射方案缓存，以不同的MBean类型注册
+  private final boolean internal;
+  // 注册时使用的MBean名称，未注册时为null
+  private volatile ObjectName objectName;
+  // 命中次数
+  private final LongAdder hits = new LongAdder();
+  // 未命中次数
+  private final LongAdder misses = new LongAdder();
+  // 写入的信息数目
+  private final LongAdder puts = new LongAdder();
+  // 删除次数
+  private final LongAdder removals = new LongAdder();
+  // 清空次数
+  private final LongAdder clears = new LongAdder();
+  // 记录的淘汰次数，用于没有固定缓存对象的统计
+  private final LongAdder evictions = new LongAdder();
+  // 事务提交时写入缓存的数据数目
+  private final LongAdder flushedEntries = new LongAdder();
+  // 事务回滚时丢弃的数据数目
+  private final LongAdder discardedEntries = new LongAdder();
+  // 加载次数
+  private final LongAdder loads = new LongAdder();
+  // 加载总耗时，单位为纳秒
+  private final LongAdder totalLoadTime = new LongAdder();
+  // 最大加载耗时，单位为纳秒
+  private final LongAccumulator maxLoadTime = new LongAccumulator(Math::max, 0L);
+  // 加载耗时直方图，最后一个区间没有上限
+  private final LongAdder[] loadTimeHistogram = new LongAdder[LOAD_TIME_BUCKETS.length + 1];
+  // 统计的缓存，用来读取信息数目和淘汰数目
+  private volatile Cache cache;
+  // 上次归零时缓存已经淘汰的数目
+  private volatile long evictionsAtReset;
+
+  public CacheStatistics(String id) {
+    this(id, false);
+  }
+
+  public CacheStatistics(String id, boolean internal) {
+    this.id = id;
+    this.internal = internal;
+    for (int i = 0; i < loadTimeHistogram.length; i++) {
+      loadTimeHistogram[i] = new LongAdder();
+    }
+  }
+
+  /**
+   * 设置被统计的缓存
+   * @param cache 被统计的缓存
+   */
+  public void setCache(Cache cache) {
+    this.cache = cache;
+    this.evictionsAtReset = cache.getEvictionCount();
+  }
+
+  public void recordHit() {
+    hits.increment();
+  }
+
+  public void recordMiss() {
+    misses.increment();
+  }
+
+  public void recordPuts(int count) {
+    puts.add(count);
+  }
+
+  public void recordRemoval() {
+    removals.increment();
+  }
+
+  public void recordClear() {
+    clears.increment();
+  }
+
+  public void recordEvictions(int count) {
+    evictions.add(count);
+  }
+
+  public void recordFlushedEntries(int count) {
+    flushedEntries.add(count);
+  }
+
+  public void recordDiscardedEntries(int count) {
+    discardedEntries.add(count);
+  }
+
+  /**
+   * 记录一次未命中后的加载
+   * @param nanos 加载耗时，单位为纳秒
+   */
+  public void recordLoad(long nanos) {
+    loads.increment();
+    totalLoadTime.add(nanos);
+    maxLoadTime.accumulate(nanos);
+    long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+    int bucket = 0;
+    while (bucket < LOAD_TIME_BUCKETS.length && millis >= LOAD_TIME_BUCKETS[bucket]) {
+      bucket++;
+    }
+    loadTimeHistogram[bucket].increment();
+  }
+
+  @Override
+  public String getId() {
+    return id;
+  }
+
+  @Override
+  public long getRequests() {
+    return hits.sum() + misses.sum();
+  }
+
+  @Override
+  public long getHits() {
+    return hits.sum();
+  }
+
+  @Override
+  public long getMisses() {
+    return misses.sum();
+  }
+
+  @Override
+  public double getHitRatio() {
+    long hitCount = hits.sum();
+    long requests = hitCount + misses.sum();
+    return requests == 0 ? 0.0 : (double) hitCount / (double) requests;
+  }
+
+  @Override
+  public long getPuts() {
+    return puts.sum();
+  }
+
+  @Override
+  public long getRemovals() {
+    return removals.sum();
+  }
+
+  @Override
+  public long getClears() {
+    return clears.sum();
+  }
+
+  @Override
+  public long getEvictions() {
+    Cache statisticsCache = cache;
+    long recorded = evictions.sum();
+    return statisticsCache == null ? recorded : recorded + statisticsCache.getEvictionCount() - evictionsAtReset;
+  }
+
+  @Override
+  public int getSize() {
+    Cache statisticsCache = cache;
+    return statisticsCache == null ? 0 : statisticsCache.getSize();
+  }
+
+  @Override
+  public long getFlushedEntries() {
+    return flushedEntries.sum();
+  }
+
+  @Override
+  public long getDiscardedEntries() {
+    return discardedEntries.sum();
+  }
+
+  @Override
+  public long getLoads() {
+    return loads.sum();
+  }
+
+  @Override
+  public double getAverageLoadTime() {
+    long count = loads.sum();
+    return count == 0 ? 0.0 : totalLoadTime.sum() / 1000000.0 / count;
+  }
+
+  @Override
+  public double getMaxLoadTime() {
+    return maxLoadTime.get() / 1000000.0;
+  }
+
+  @Override
+  public long[] getLoadTimeBuckets() {
+    return LOAD_TIME_BUCKETS.clone();
+  }
+
+  @Override
+  public long[] getLoadTimeHistogram() {
+    long[] histogram = new long[loadTimeHistogram.length];
+    for (int i = 0; i < histogram.length; i++) {
+      histogram[i] = loadTimeHistogram[i].sum();
+    }
+    return histogram;
+  }
+
+  @Override
+  public void reset() {
+    hits.reset();
+    misses.reset();
+    puts.reset();
+    removals.reset();
+    clears.reset();
+    evictions.reset();
+    flushedEntries.reset();
+    discardedEntries.reset();
+    loads.reset();
+    totalLoadTime.reset();
+    maxLoadTime.reset();
+    for (LongAdder bucket : loadTimeHistogram) {
+      bucket.reset();
+    }
+    Cache statisticsCache = cache;
+    if (statisticsCache != null) {
+      evictionsAtReset = statisticsCache.getEvictionCount();
+    }
+  }
+
+  /**
+   * 获取MBean的名称
+   * @param configurationName 所属配置的名称，用来区分同一JVM中的多个配置
+   * @return MBean的名称
+   * @throws JMException 缓存id无法组成合法的名称
+   */
+  public ObjectName getObjectName(String configurationName) throws JMException {
+    return new ObjectName("org.apache.ibatis:type=" + (internal ? "InternalCacheStatistics" : "CacheStatistics")
+        + ",configuration=" + ObjectName.quote(configurationName) + ",id=" + ObjectName.quote(id));
+  }
+
+  /**
+   * 注册到平台MBeanServer。同名的MBean已经存在时不会替换它，只记录警告
+   * @param configurationName 所属配置的名称
+   */
+  public void registerMBean(String configurationName) {
+    try {
+      ObjectName name = getObjectName(configurationName);
+      ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+      objectName = name;
+    } catch (InstanceAlreadyExistsException e) {
+      log.warn("Could not register the statistics MBean of the cache " + id + ", the name is already in use.");
+    } catch (JMException | SecurityException e) {
+      log.warn("Could not register the statistics MBean of the cache " + id + ". Cause: " + e);
+    }
+  }
+
+  /**
+   * 从平台MBeanServer注销，只注销本对象注册的MBean
+   */
+  public void unregisterMBean() {
+    ObjectName name = objectName;
+    if (name == null) {
+      return;
+    }
+    objectName = null;
+    try {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      if (server.isRegistered(name)) {
+        server.unregisterMBean(name);
+      }
+    } catch (JMException | SecurityException e) {
+      log.warn("Could not unregister the statistics MBean of the cache " + id + ". Cause: " + e);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "CacheStatistics[" + id + "] requests=" + getRequests() + ", hitRatio=" + getHitRatio()
+        + ", puts=" + getPuts() + ", evictions=" + getEvictions() + ", size=" + getSize()
+        + ", flushedEntries=" + getFlushedEntries() + ", discardedEntries=" + getDiscardedEntries()
+        + ", loads=" + getLoads() + ", averageLoadTime=" + getAverageLoadTime() + "ms";
+  }
+
+}
@@ -0,0 +1,133 @@
+/**
+ *    Copyright 2009-2019 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+/**
+ * Management interface of {@link CacheStatistics}, exposed through JMX for every namespace cache
+ * when the <code>cacheStatisticsEnabled</code> setting is on.
+ * <p>
+ * Load times are measured around the database query that follows a miss, in milliseconds.
+ */
+public interface CacheStatisticsMBean {
+
+  /**
+   * 获取缓存id
+   * @return 缓存id
+   */
+  String getId();
+
+  /**
+   * 获取读取缓存的次数
+   * @return 读取缓存的次数
+   */
+  long getRequests();
+
+  /**
+   * 获取命中缓存的次数
+   * @return 命中缓存的次数
+   */
+  long getHits();
+
+  /**
+   * 获取未命中缓存的次数
+   * @return 未命中缓存的次数
+   */
+  long getMisses();
+
+  /**
+   * 获取缓存命中率
+   * @return 缓存命中率，尚未读取过时为0
+   */
+  double getHitRatio();
+
+  /**
+   * 获取写入缓存的信息数目
+   * @return 写入的信息数目
+   */
+  long getPuts();
+
+  /**
+   * 获取从缓存中删除信息的次数
+   * @return 删除的次数
+   */
+  long getRemovals();
+
+  /**
+   * 获取清空缓存的次数
+   * @return 清空的次数
+   */
+  long getClears();
+
+  /**
+   * 获取缓存自行淘汰的信息数目
+   * @return 淘汰的信息数目
+   */
+  long getEvictions();
+
+  /**
+   * 获取缓存中信息的数目
+   * @return 信息的数目
+   */
+  int getSize();
+
+  /**
+   * 获取事务提交时写入缓存的数据数目
+   * @return 写入的数据数目
+   */
+  long getFlushedEntries();
+
+  /**
+   * 获取事务回滚时丢弃、未写入缓存的数据数目
+   * @return 丢弃的数据数目
+   */
+  long getDiscardedEntries();
+
+  /**
+   * 获取未命中后从数据库加载的次数
+   * @return 加载的次数
+   */
+  long getLoads();
+
+  /**
+   * 获取平均加载耗时
+   * @return 平均加载耗时，单位为毫秒
+   */
+  double getAverageLoadTime();
+
+  /**
+   * 获取最大加载耗时
+   * @return 最大加载耗时，单位为毫秒
+   */
+  double getMaxLoadTime();
+
+  /**
+   * 获取加载耗时直方图各个区间的上限
+   * @return 各个区间的上限，单位为毫秒，最后一个区间没有上限
+   */
+  long[] getLoadTimeBuckets();
+
+  /**
+   * 获取加载耗时直方图
+   * @return 落入各个区间的加载次数，比区间上限多一个元素
+   */
+  long[] getLoadTimeHistogram();
+
+  /**
+   * 将所有计数归零
+   */
+  void reset();
+
+}
@@ -0,0 +1,36 @@
+/**
+ *    Copyright 2009-2019 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+/**
+ * SPI for the weight of cache entries, used to bound a cache by memory instead of entry count.
+ * <p>
+ * Implementations must be thread safe and have a public no-args constructor. Weights should be
+ * cheap to compute, as they are computed on every put.
+ *
+ * @see org.apache.ibatis.cache.decorators.WeightedCache
+ */
+public interface CacheWeigher {
+
+  /**
+   * 计算一条缓存信息的权重
+   * @param key 信息的键
+   * @param value 信息的值，可能为null
+   * @return 信息的权重，不能为负数
+   */
+  long weigh(Object key, Object value);
+
+}
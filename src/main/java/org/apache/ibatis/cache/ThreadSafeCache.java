@@ -0,0 +1,30 @@
+/**
+ *    Copyright 2009-2019 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+/**
+ * Marker interface for caches and cache decorators that are safe for concurrent use.
+ * <p>
+ * When the base implementation of a namespace cache is a ThreadSafeCache,
+ * {@link org.apache.ibatis.mapping.CacheBuilder} does not wrap it with a
+ * {@link org.apache.ibatis.cache.decorators.SynchronizedCache}, as long as all of its
+ * decorators are ThreadSafeCaches themselves. A decorator that is not thread-safe is still
+ * applied, and the cache is then synchronized as a whole with a warning. No eviction decorator
+ * is added by default, since a ThreadSafeCache bounds its own size.
+ */
+public interface ThreadSafeCache extends Cache {
+
+}
@@ -17,6 +17,7 @@ package org.apache.ibatis.cache;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.function.Function;
 
 import org.apache.ibatis.cache.decorators.TransactionalCache;
 
@@ -27,6 +28,20 @@ public class TransactionalCacheManager {
 
   // 管理多个缓存的映射
   private final Map<Cache, TransactionalCache> transactionalCaches = new HashMap<>();
+  // 根据缓存查找其统计信息，为null时不记录统计
+  private final Function<Cache, CacheStatistics> statisticsLookup;
+
+  public TransactionalCacheManager() {
+    this(null);
+  }
+
+  /**
+   * TransactionalCacheManager构造方法
+   * @param statisticsLookup 根据缓存查找其统计信息，事务提交时写入和回滚时丢弃的数据数目会记录到统计信息中
+   */
+  public TransactionalCacheManager(Function<Cache, CacheStatistics> statisticsLookup) {
+    this.statisticsLookup = statisticsLookup;
+  }
 
   public void clear(Cache cache) {
     getTransactionalCache(cache).clear();
@@ -40,6 +55,14 @@ public class TransactionalCacheManager {
     getTransactionalCache(cache).putObject(key, value);
   }
 
+  public void putObject(Cache cache, CacheKey key, Object value, String[] tags) {
+    getTransactionalCache(cache).putObject(key, value, tags);
+  }
+
+  public void clearTags(Cache cache, String[] tags) {
+    getTransactionalCache(cache).clearTags(tags);
+  }
+
   /**
    * 事务提交
    */
@@ -58,8 +81,33 @@ public class TransactionalCacheManager {
     }
   }
 
+  /**
+   * 获取事务提交时写入各个缓存的数据总数
+   * @return 写入的数据总数
+   */
+  public long getFlushedEntryCount() {
+    long count = 0;
+    for (TransactionalCache txCache : transactionalCaches.values()) {
+      count += txCache.getFlushedEntryCount();
+    }
+    return count;
+  }
+
+  /**
+   * 获取事务回滚时丢弃的数据总数
+   * @return 丢弃的数据总数
+   */
+  public long getDiscardedEntryCount() {
+    long count = 0;
+    for (TransactionalCache txCache : transactionalCaches.values()) {
+      count += txCache.getDiscardedEntryCount();
+    }
+    return count;
+  }
+
   private TransactionalCache getTransactionalCache(Cache cache) {
-    return transactionalCaches.computeIfAbsent(cache, TransactionalCache::new);
+    return transactionalCaches.computeIfAbsent(cache,
+        key -> new TransactionalCache(key, statisticsLookup == null ? null : statisticsLookup.apply(key)));
   }
 
 }
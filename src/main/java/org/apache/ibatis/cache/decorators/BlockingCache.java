@@ -15,6 +15,7 @@
  */
 package org.apache.ibatis.cache.decorators;
 
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Lock;
@@ -57,6 +58,11 @@ public class BlockingCache implements Cache {
     return delegate.getSize();
   }
 
+  @Override
+  public long getEvictionCount() {
+    return delegate.getEvictionCount();
+  }
+
   /**
    * 向缓存写入一条信息
    * @param key 信息的键
@@ -73,6 +79,21 @@ public class BlockingCache implements Cache {
     }
   }
 
+  /**
+   * 向缓存批量写入信息，写入后释放这些键的锁
+   * @param entries 要写入的信息
+   */
+  @Override
+  public void putAll(Map<Object, Object> entries) {
+    try {
+      delegate.putAll(entries);
+    } finally {
+      for (Object key : entries.keySet()) {
+        releaseLock(key);
+      }
+    }
+  }
+
   /**
    * 从缓存中读取一条信息
    * @param key 信息的键
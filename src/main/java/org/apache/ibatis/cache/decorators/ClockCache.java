@@ -0,0 +1,219 @@
+/**
+ *    Copyright 2009-2019 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.decorators;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.cache.ThreadSafeCache;
+
+/**
+ * Clock (second chance) cache decorator, a concurrent approximation of {@link LruCache}.
+ * <p>
+ * Reads only set a flag on the node of the key and never change the structure, so they do not need
+ * a lock. When a put grows the cache over its size, keys are scanned in insertion order under a lock
+ * taken by writers only: keys read since the last scan get a second chance, the others are evicted.
+ * <p>
+ * The delegate must be thread safe. With the default <code>PERPETUAL</code> type and only thread safe
+ * decorators, {@link org.apache.ibatis.mapping.CacheBuilder} uses a concurrent map as the base cache
+ * and leaves out the synchronized decorator.
+ */
+public class ClockCache implements ThreadSafeCache {
+
+  // 被装饰对象
+  private final Cache delegate;
+  // 缓存数据的键对应的节点
+  private final ConcurrentHashMap<Object, Node> nodes = new ConcurrentHashMap<>();
+  // 按照写入顺序排列的节点，淘汰时从头部开始扫描
+  private final ConcurrentLinkedQueue<Node> clock = new ConcurrentLinkedQueue<>();
+  // 淘汰锁，只有需要淘汰数据的写入操作才会获取
+  private final ReentrantLock evictionLock = new ReentrantLock();
+  // 已经被删除但仍留在队列中的节点数
+  private final AtomicInteger deadNodes = new AtomicInteger();
+  // 因空间不足而清除的数据数目
+  private final LongAdder evictions = new LongAdder();
+  // 缓存空间的大小
+  private volatile int size = 1024;
+
+  public ClockCache(Cache delegate) {
+    this.delegate = delegate;
+  }
+
+  /**
+   * 设置缓存空间大小
+   * @param size 缓存空间大小
+   */
+  public void setSize(int size) {
+    if (size <= 0) {
+      throw new CacheException("Cache size must be positive for the cache " + getId() + ", but was " + size);
+    }
+    this.size = size;
+  }
+
+  @Override
+  public String getId() {
+    return delegate.getId();
+  }
+
+  @Override
+  public int getSize() {
+    return delegate.getSize();
+  }
+
+  @Override
+  public long getEvictionCount() {
+    return evictions.sum() + delegate.getEvictionCount();
+  }
+
+  @Override
+  public void putObject(Object key, Object value) {
+    delegate.putObject(key, value);
+    track(key);
+    evictIfNeeded();
+  }
+
+  @Override
+  public void putAll(Map<Object, Object> entries) {
+    delegate.putAll(entries);
+    for (Object key : entries.keySet()) {
+      track(key);
+    }
+    evictIfNeeded();
+  }
+
+  /**
+   * 从缓存中读取一条信息，只标记该键被访问过
+   * @param key 信息的键
+   * @return 信息的值
+   */
+  @Override
+  public Object getObject(Object key) {
+    Node node = nodes.get(key);
+    if (node != null && !node.referenced) {
+      // 只在标志变化时写入，避免读操作之间争用缓存行
+      node.referenced = true;
+    }
+    return delegate.getObject(key);
+  }
+
+  @Override
+  public Object removeObject(Object key) {
+    if (nodes.remove(key) != null && deadNodes.incrementAndGet() > size) {
+      purgeDeadNodes();
+    }
+    return delegate.removeObject(key);
+  }
+
+  @Override
+  public void clear() {
+    evictionLock.lock();
+    try {
+      // 先清除键再清除数据，并发写入的数据最多留下一个空节点，不会留下无法淘汰的数据
+      nodes.clear();
+      clock.clear();
+      deadNodes.set(0);
+      delegate.clear();
+    } finally {
+      evictionLock.unlock();
+    }
+  }
+
+  @Override
+  public int hashCode() {
+    return delegate.hashCode();
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    return delegate.equals(obj);
+  }
+
+  private void track(Object key) {
+    Node node = new Node(key);
+    if (nodes.putIfAbsent(key, node) == null) {
+      clock.offer(node);
+    }
+  }
+
+  /**
+   * 淘汰数据，直到缓存不再超出空间大小
+   */
+  private void evictIfNeeded() {
+    if (nodes.size() <= size) {
+      return;
+    }
+    evictionLock.lock();
+    try {
+      // 最多给予的二次机会次数，防止读操作不断设置访问标志导致无法结束
+      int chances = size;
+      while (nodes.size() > size) {
+        Node node = clock.poll();
+        if (node == null) {
+          break;
+        }
+        if (nodes.get(node.key) != node) {
+          // 节点已经被删除
+          deadNodes.decrementAndGet();
+          continue;
+        }
+        if (node.referenced && chances-- > 0) {
+          // 上次扫描后被读取过，给予二次机会
+          node.referenced = false;
+          clock.offer(node);
+          continue;
+        }
+        if (nodes.remove(node.key, node)) {
+          delegate.removeObject(node.key);
+          evictions.increment();
+        }
+      }
+    } finally {
+      evictionLock.unlock();
+    }
+  }
+
+  /**
+   * 清理队列中已经被删除的节点，其他线程正在清理时直接返回
+   */
+  private void purgeDeadNodes() {
+    if (evictionLock.tryLock()) {
+      try {
+        clock.removeIf(node -> nodes.get(node.key) != node);
+        deadNodes.set(0);
+      } finally {
+        evictionLock.unlock();
+      }
+    }
+  }
+
+  private static final class Node {
+    // 缓存数据的键
+    private final Object key;
+    // 上次扫描后是否被读取过
+    private volatile boolean referenced;
+
+    Node(Object key) {
+      this.key = key;
+    }
+  }
+
+}
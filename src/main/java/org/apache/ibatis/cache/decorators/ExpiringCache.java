@@ -0,0 +1,237 @@
+/**
+ *    Copyright 2009-2019 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.decorators;
+
+import java.io.Serializable;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.cache.ThreadSafeCache;
+
+/**
+ * Per entry expiration decorator.
+ * <p>
+ * Unlike {@link ScheduledCache}, which clears the whole cache once its interval elapses, every entry
+ * expires on its own: <code>expireAfterWrite</code> milliseconds after it was put and/or
+ * <code>expireAfterAccess</code> milliseconds after it was last read. Expired entries are removed
+ * when they are read.
+ * <p>
+ * <code>expiryJitter</code> (0 to 1) shortens the write expiration of each entry by a random fraction
+ * of up to that value, so entries loaded together do not expire together. <code>refreshAhead</code>
+ * (0 to 1) is the fraction of the write expiration after which an entry is refreshed: the first reader
+ * afterwards is answered with a miss and reloads the entry from the database, while the other readers
+ * keep being served the cached value until the new one is put. Refreshing is done by a reader because
+ * a cache cannot run a statement on its own, outside of a session and its transaction.
+ * <p>
+ * Access renewal and refresh claims are kept on the stored entry, so they need a cache that returns
+ * the stored instance. With a cache that returns copies, like the off heap one, only the write
+ * expiration applies.
+ */
+public class ExpiringCache implements ThreadSafeCache {
+
+  // 被装饰对象
+  private final Cache delegate;
+  // 写入后的过期时间，单位为毫秒，0表示不过期
+  private long expireAfterWrite;
+  // 最后一次读取后的过期时间，单位为毫秒，0表示不过期
+  private long expireAfterAccess;
+  // 写入后过期时间随机缩短的最大比例
+  private double expiryJitter;
+  // 写入后过期时间中经过多大比例后提前刷新，0表示不提前刷新
+  private double refreshAhead;
+  // 因过期而删除的数据数目
+  private final LongAdder expirations = new LongAdder();
+
+  public ExpiringCache(Cache delegate) {
+    this.delegate = delegate;
+  }
+
+  public void setExpireAfterWrite(long expireAfterWrite) {
+    if (expireAfterWrite < 0) {
+      throw new CacheException("expireAfterWrite must not be negative for the cache " + getId() + ", but was " + expireAfterWrite);
+    }
+    this.expireAfterWrite = expireAfterWrite;
+  }
+
+  public void setExpireAfterAccess(long expireAfterAccess) {
+    if (expireAfterAccess < 0) {
+      throw new CacheException("expireAfterAccess must not be negative for the cache " + getId() + ", but was " + expireAfterAccess);
+    }
+    this.expireAfterAccess = expireAfterAccess;
+  }
+
+  public void setExpiryJitter(double expiryJitter) {
+    if (expiryJitter < 0 || expiryJitter >= 1) {
+      throw new CacheException("expiryJitter must be between 0 and 1 for the cache " + getId() + ", but was " + expiryJitter);
+    }
+    this.expiryJitter = expiryJitter;
+  }
+
+  public void setRefreshAhead(double refreshAhead) {
+    if (refreshAhead < 0 || refreshAhead >= 1) {
+      throw new CacheException("refreshAhead must be between 0 and 1 for the cache " + getId() + ", but was " + refreshAhead);
+    }
+    this.refreshAhead = refreshAhead;
+  }
+
+  @Override
+  public String getId() {
+    return delegate.getId();
+  }
+
+  @Override
+  public int getSize() {
+    return delegate.getSize();
+  }
+
+  @Override
+  public long getEvictionCount() {
+    return expirations.sum() + delegate.getEvictionCount();
+  }
+
+  @Override
+  public void putObject(Object key, Object value) {
+    delegate.putObject(key, wrap(value, System.currentTimeMillis()));
+  }
+
+  @Override
+  public void putAll(Map<Object, Object> entries) {
+    long now = System.currentTimeMillis();
+    Map<Object, Object> wrapped = new LinkedHashMap<>((int) (entries.size() / 0.75f) + 1);
+    for (Map.Entry<Object, Object> entry : entries.entrySet()) {
+      wrapped.put(entry.getKey(), wrap(entry.getValue(), now));
+    }
+    delegate.putAll(wrapped);
+  }
+
+  /**
+   * 从缓存中读取一条信息，过期的信息被删除，需要提前刷新的信息对第一个读取者返回未命中
+   * @param key 信息的键
+   * @return 信息的值
+   */
+  @Override
+  public Object getObject(Object key) {
+    Object stored = delegate.getObject(key);
+    if (!(stored instanceof ExpiringEntry)) {
+      return stored;
+    }
+    ExpiringEntry entry = (ExpiringEntry) stored;
+    long now = System.currentTimeMillis();
+    if (entry.isExpired(now)) {
+      delegate.removeObject(key);
+      expirations.increment();
+      return null;
+    }
+    if (entry.claimRefresh(now)) {
+      // 由当前读取者重新加载，其他读取者继续使用旧值
+      return null;
+    }
+    if (expireAfterAccess > 0) {
+      entry.accessDeadline = now + expireAfterAccess;
+    }
+    return entry.value;
+  }
+
+  @Override
+  public Object removeObject(Object key) {
+    Object stored = delegate.removeObject(key);
+    return stored instanceof ExpiringEntry ? ((ExpiringEntry) stored).value : stored;
+  }
+
+  @Override
+  public void clear() {
+    delegate.clear();
+  }
+
+  @Override
+  public int hashCode() {
+    return delegate.hashCode();
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    return delegate.equals(obj);
+  }
+
+  /**
+   * 为要写入的值计算过期时间
+   * @param value 要写入的值
+   * @param now 当前时刻
+   * @return 包装后的值，null值不包装
+   */
+  private Object wrap(Object value, long now) {
+    if (value == null) {
+      return null;
+    }
+    long writeDeadline = Long.MAX_VALUE;
+    long refreshAt = Long.MAX_VALUE;
+    if (expireAfterWrite > 0) {
+      long ttl = expireAfterWrite;
+      if (expiryJitter > 0) {
+        ttl -= (long) (ttl * expiryJitter * ThreadLocalRandom.current().nextDouble());
+      }
+      writeDeadline = now + ttl;
+      if (refreshAhead > 0) {
+        refreshAt = now + (long) (ttl * refreshAhead);
+      }
+    }
+    long accessDeadline = expireAfterAccess > 0 ? now + expireAfterAccess : Long.MAX_VALUE;
+    return new ExpiringEntry(value, writeDeadline, accessDeadline, refreshAt);
+  }
+
+  private static class ExpiringEntry implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private static final AtomicLongFieldUpdater<ExpiringEntry> REFRESH_AT =
+        AtomicLongFieldUpdater.newUpdater(ExpiringEntry.class, "refreshAt");
+
+    // 缓存的值
+    private final Object value;
+    // 写入后的过期时刻
+    private final long writeDeadline;
+    // 读取后的过期时刻，每次读取时延后
+    private volatile long accessDeadline;
+    // 提前刷新的时刻
+    private volatile long refreshAt;
+
+    ExpiringEntry(Object value, long writeDeadline, long accessDeadline, long refreshAt) {
+      this.value = value;
+      this.writeDeadline = writeDeadline;
+      this.accessDeadline = accessDeadline;
+      this.refreshAt = refreshAt;
+    }
+
+    boolean isExpired(long now) {
+      return now >= writeDeadline || now >= accessDeadline;
+    }
+
+    /**
+     * 到了提前刷新的时刻时，只允许一个读取者去刷新。刷新者的结果没有写回（例如事务回滚）时，
+     * 在剩余时间过半后允许再次刷新
+     * @param now 当前时刻
+     * @return 当前读取者是否应该刷新
+     */
+    boolean claimRefresh(long now) {
+      long at = refreshAt;
+      return now >= at && REFRESH_AT.compareAndSet(this, at, now + (writeDeadline - now) / 2);
+    }
+  }
+
+}
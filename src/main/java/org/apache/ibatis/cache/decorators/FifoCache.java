@@ -17,6 +17,7 @@ package org.apache.ibatis.cache.decorators;
 
 import java.util.Deque;
 import java.util.LinkedList;
+import java.util.concurrent.atomic.LongAdder;
 
 import org.apache.ibatis.cache.Cache;
 
@@ -33,6 +34,8 @@ public class FifoCache implements Cache {
   private final Deque<Object> keyList;
   // 缓存空间的大小
   private int size;
+  // 因空间不足而清除的数据数目
+  private final LongAdder evictions = new LongAdder();
 
   public FifoCache(Cache delegate) {
     this.delegate = delegate;
@@ -50,6 +53,11 @@ public class FifoCache implements Cache {
     return delegate.getSize();
   }
 
+  @Override
+  public long getEvictionCount() {
+    return evictions.sum() + delegate.getEvictionCount();
+  }
+
   public void setSize(int size) {
     this.size = size;
   }
@@ -90,6 +98,7 @@ public class FifoCache implements Cache {
     if (keyList.size() > size) {
       Object oldestKey = keyList.removeFirst();
       delegate.removeObject(oldestKey);
+      evictions.increment();
     }
   }
 
@@ -15,19 +15,25 @@
  */
 package org.apache.ibatis.cache.decorators;
 
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
 import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.ThreadSafeCache;
 import org.apache.ibatis.logging.Log;
 import org.apache.ibatis.logging.LogFactory;
 
 /**
  * @author Clinton Begin
  */
-public class LoggingCache implements Cache {
+public class LoggingCache implements ThreadSafeCache {
 
   private final Log log;
   private final Cache delegate;
-  protected int requests = 0;
-  protected int hits = 0;
+  // 请求缓存的次数，并发的读取各自累加，不需要加锁
+  protected final LongAdder requests = new LongAdder();
+  // 命中缓存的次数
+  protected final LongAdder hits = new LongAdder();
 
   public LoggingCache(Cache delegate) {
     this.delegate = delegate;
@@ -44,11 +50,21 @@ public class LoggingCache implements Cache {
     return delegate.getSize();
   }
 
+  @Override
+  public long getEvictionCount() {
+    return delegate.getEvictionCount();
+  }
+
   @Override
   public void putObject(Object key, Object object) {
     delegate.putObject(key, object);
   }
 
+  @Override
+  public void putAll(Map<Object, Object> entries) {
+    delegate.putAll(entries);
+  }
+
   /**
    * 从缓存中读取一条信息
    * @param key 信息的键
@@ -57,11 +73,11 @@ public class LoggingCache implements Cache {
   @Override
   public Object getObject(Object key) {
     // 请求缓存次数+1
-    requests++;
+    requests.increment();
     final Object value = delegate.getObject(key);
     if (value != null) { // 命中缓存
       // 命中缓存次数+1
-      hits++;
+      hits.increment();
     }
     if (log.isDebugEnabled()) {
       log.debug("Cache Hit Ratio [" + getId() + "]: " + getHitRatio());
@@ -90,7 +106,7 @@ public class LoggingCache implements Cache {
   }
 
   private double getHitRatio() {
-    return (double) hits / (double) requests;
+    return (double) hits.sum() / (double) requests.sum();
   }
 
 }
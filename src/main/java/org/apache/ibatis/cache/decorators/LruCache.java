@@ -17,6 +17,7 @@ package org.apache.ibatis.cache.decorators;
 
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
 
 import org.apache.ibatis.cache.Cache;
 
@@ -33,6 +34,8 @@ public class LruCache implements Cache {
   private Map<Object, Object> keyMap;
   // 最近最少使用的数据的键
   private Object eldestKey;
+  // 因空间不足而清除的数据数目
+  private final LongAdder evictions = new LongAdder();
 
   /**
    * LruCache构造方法
@@ -53,6 +56,11 @@ public class LruCache implements Cache {
     return delegate.getSize();
   }
 
+  @Override
+  public long getEvictionCount() {
+    return evictions.sum() + delegate.getEvictionCount();
+  }
+
   /**
    * 设置缓存空间大小
    * @param size 缓存空间大小
@@ -90,6 +98,18 @@ public class LruCache implements Cache {
     cycleKeyList(key);
   }
 
+  /**
+   * 向缓存批量写入信息
+   * @param entries 要写入的信息
+   */
+  @Override
+  public void putAll(Map<Object, Object> entries) {
+    delegate.putAll(entries);
+    for (Object key : entries.keySet()) {
+      cycleKeyList(key);
+    }
+  }
+
   /**
    * 从缓存中读取一条信息
    * @param key 信息的键
@@ -123,6 +143,7 @@ public class LruCache implements Cache {
     if (eldestKey != null) {
       delegate.removeObject(eldestKey);
       eldestKey = null;
+      evictions.increment();
     }
   }
 
@@ -15,19 +15,22 @@
  */
 package org.apache.ibatis.cache.decorators;
 
+import java.util.Map;
+
 import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.ThreadSafeCache;
 
 /**
  * @author Clinton Begin
  */
-public class ScheduledCache implements Cache {
+public class ScheduledCache implements ThreadSafeCache {
 
   // 被装饰的对象
   private final Cache delegate;
   // 清理的时间间隔
-  protected long clearInterval;
-  // 上次清理的时刻
-  protected long lastClear;
+  protected volatile long clearInterval;
+  // 上次清理的时刻，被装饰的缓存可能是线程安全的缓存，因此使用volatile保证可见性
+  protected volatile long lastClear;
 
   public ScheduledCache(Cache delegate) {
     this.delegate = delegate;
@@ -50,12 +53,23 @@ public class ScheduledCache implements Cache {
     return delegate.getSize();
   }
 
+  @Override
+  public long getEvictionCount() {
+    return delegate.getEvictionCount();
+  }
+
   @Override
   public void putObject(Object key, Object object) {
     clearWhenStale();
     delegate.putObject(key, object);
   }
 
+  @Override
+  public void putAll(Map<Object, Object> entries) {
+    clearWhenStale();
+    delegate.putAll(entries);
+  }
+
   @Override
   public Object getObject(Object key) {
     return clearWhenStale() ? null : delegate.getObject(key);
@@ -84,12 +98,18 @@ public class ScheduledCache implements Cache {
   }
 
   /**
-   * 根据清理时间间隔设置清理缓存
+   * 根据清理时间间隔设置清理缓存。多个线程同时发现过期时只有一个线程执行清理
    * @return 是否发生了缓存清理
    */
   private boolean clearWhenStale() {
-    if (System.currentTimeMillis() - lastClear > clearInterval) {
-      clear();
+    final long last = lastClear;
+    final long now = System.currentTimeMillis();
+    if (now - last > clearInterval) {
+      synchronized (this) {
+        if (lastClear == last) {
+          clear();
+        }
+      }
       return true;
     }
     return false;
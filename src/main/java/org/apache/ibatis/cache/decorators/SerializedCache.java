@@ -23,6 +23,8 @@ import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.ObjectStreamClass;
 import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
 
 import org.apache.ibatis.cache.Cache;
 import org.apache.ibatis.cache.CacheException;
@@ -49,6 +51,11 @@ public class SerializedCache implements Cache {
     return delegate.getSize();
   }
 
+  @Override
+  public long getEvictionCount() {
+    return delegate.getEvictionCount();
+  }
+
   /**
    * 向缓存写入一条信息
    * @param key 信息的键
@@ -65,6 +72,24 @@ public class SerializedCache implements Cache {
     }
   }
 
+  /**
+   * 向缓存批量写入信息，序列化全部数据后一次写入
+   * @param entries 要写入的信息
+   */
+  @Override
+  public void putAll(Map<Object, Object> entries) {
+    Map<Object, Object> serialized = new HashMap<>((int) (entries.size() / .75F) + 1);
+    for (Map.Entry<Object, Object> entry : entries.entrySet()) {
+      Object object = entry.getValue();
+      if (object == null || object instanceof Serializable) {
+        serialized.put(entry.getKey(), serialize((Serializable) object));
+      } else {
+        throw new CacheException("SharedCache failed to make a copy of a non-serializable object: " + object);
+      }
+    }
+    delegate.putAll(serialized);
+  }
+
   /**
    * 从缓存中读取一条信息
    * @param key 信息的键
@@ -0,0 +1,221 @@
+/**
+ *    Copyright 2009-2019 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.decorators;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.cache.ThreadSafeCache;
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.LogFactory;
+
+/**
+ * Single-flight blocking decorator.
+ * <p>
+ * Like {@link BlockingCache}, it lets only one thread hit the database when a key is not found in cache.
+ * But instead of holding a lock per key, the first thread that misses registers an in-flight load, and
+ * the other threads that miss the same key wait on it and receive the loaded value directly when it is
+ * put into the cache. An in-flight load is removed as soon as it completes, so the table only holds the
+ * loads currently running instead of one lock for every key ever requested. Waiting threads read the
+ * loaded value back from the decorated cache, so a read-write cache still hands out copies.
+ * <p>
+ * When a load is not completed within <code>loadTimeout</code> milliseconds (10 seconds by default), the
+ * waiting thread gives up and queries the database itself. The in-flight load is kept for the other threads.
+ * A <code>loadTimeout</code> of 0 makes the waiting threads wait until the load completes or is abandoned,
+ * however long that takes.
+ * <p>
+ * A load is abandoned by {@link #removeObject(Object)}, which the transactional cache calls on rollback or
+ * close. It may run on another thread than the one that started the load, for example when a session is used
+ * asynchronously, so the load is released whoever the caller is.
+ *
+ * @see BlockingCache
+ */
+public class SingleFlightCache implements ThreadSafeCache {
+
+  private static final Log log = LogFactory.getLog(SingleFlightCache.class);
+
+  // 被装饰对象
+  private final Cache delegate;
+  // 正在加载的数据。键为缓存记录的键，值为加载结果
+  private final ConcurrentHashMap<Object, Flight> flights;
+  // 默认的等待时间，单位为毫秒
+  private static final long DEFAULT_LOAD_TIMEOUT = 10000L;
+
+  // 等待其他线程加载数据的最长时间，单位为毫秒，0表示一直等待
+  private volatile long loadTimeout = DEFAULT_LOAD_TIMEOUT;
+
+  public SingleFlightCache(Cache delegate) {
+    this.delegate = delegate;
+    this.flights = new ConcurrentHashMap<>();
+  }
+
+  @Override
+  public String getId() {
+    return delegate.getId();
+  }
+
+  @Override
+  public int getSize() {
+    return delegate.getSize();
+  }
+
+  @Override
+  public long getEvictionCount() {
+    return delegate.getEvictionCount();
+  }
+
+  /**
+   * 向缓存写入一条信息，并唤醒所有等待它的线程
+   * @param key 信息的键
+   * @param value 信息的值
+   */
+  @Override
+  public void putObject(Object key, Object value) {
+    try {
+      delegate.putObject(key, value);
+    } finally {
+      Flight flight = flights.remove(key);
+      if (flight != null) {
+        flight.done.complete(null);
+      }
+    }
+  }
+
+  /**
+   * 向缓存批量写入信息，并唤醒等待这些信息的线程
+   * @param entries 要写入的信息
+   */
+  @Override
+  public void putAll(Map<Object, Object> entries) {
+    try {
+      delegate.putAll(entries);
+    } finally {
+      for (Object key : entries.keySet()) {
+        Flight flight = flights.remove(key);
+        if (flight != null) {
+          flight.done.complete(null);
+        }
+      }
+    }
+  }
+
+  /**
+   * 从缓存中读取一条信息
+   * @param key 信息的键
+   * @return 信息的值。返回null时调用者需要自己从数据库加载数据
+   */
+  @Override
+  public Object getObject(Object key) {
+    Object value = delegate.getObject(key);
+    if (value != null) {
+      return value;
+    }
+    Flight flight = new Flight();
+    Flight existing = flights.putIfAbsent(key, flight);
+    if (existing == null) {
+      // 当前线程负责加载，加载的结果在putObject中交给等待的线程
+      return null;
+    }
+    if (existing.owner == Thread.currentThread()) {
+      // 当前线程已经在加载该数据
+      return null;
+    }
+    return await(key, existing);
+  }
+
+  /**
+   * 加载被放弃（例如事务回滚），通知等待的线程自行加载。回滚可能在其他线程上执行，因此不检查调用者是否是负责加载的线程
+   * @param key 信息的键
+   * @return 不使用
+   */
+  @Override
+  public Object removeObject(Object key) {
+    // despite of its name, this method is called only to abort loads
+    Flight flight = flights.remove(key);
+    if (flight != null) {
+      flight.done.complete(null);
+    }
+    return null;
+  }
+
+  @Override
+  public void clear() {
+    delegate.clear();
+  }
+
+  /**
+   * 等待其他线程加载数据
+   * @param key 信息的键
+   * @param flight 正在进行的加载
+   * @return 加载的结果。加载被放弃或等待超时时返回null
+   */
+  private Object await(Object key, Flight flight) {
+    try {
+      if (loadTimeout > 0) {
+        flight.done.get(loadTimeout, TimeUnit.MILLISECONDS);
+      } else {
+        flight.done.get();
+      }
+      // 加载完成后从被装饰对象中读取，保证读写缓存仍然返回副本
+      return delegate.getObject(key);
+    } catch (TimeoutException e) {
+      if (log.isDebugEnabled()) {
+        log.debug("Gave up waiting " + loadTimeout + " ms for the key " + key + " at the cache " + getId());
+      }
+      return null;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new CacheException("Got interrupted while waiting for the key " + key + " at the cache " + getId(), e);
+    } catch (ExecutionException e) {
+      throw new CacheException("Error waiting for the key " + key + " at the cache " + getId() + ". Cause: " + e, e);
+    }
+  }
+
+  public long getLoadTimeout() {
+    return loadTimeout;
+  }
+
+  public void setLoadTimeout(long loadTimeout) {
+    this.loadTimeout = loadTimeout;
+  }
+
+  @Override
+  public int hashCode() {
+    return delegate.hashCode();
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    return delegate.equals(obj);
+  }
+
+  /**
+   * 一次正在进行的加载
+   */
+  private static final class Flight {
+    // 负责加载的线程
+    final Thread owner = Thread.currentThread();
+    // 加载完成或被放弃时完成
+    final CompletableFuture<Void> done = new CompletableFuture<>();
+  }
+
+}
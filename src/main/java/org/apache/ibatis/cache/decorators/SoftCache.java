@@ -19,6 +19,7 @@ import java.lang.ref.ReferenceQueue;
 import java.lang.ref.SoftReference;
 import java.util.Deque;
 import java.util.LinkedList;
+import java.util.concurrent.atomic.LongAdder;
 
 import org.apache.ibatis.cache.Cache;
 
@@ -37,6 +38,8 @@ public class SoftCache implements Cache {
   private final Cache delegate;
   // 强引用对象的数目限制
   private int numberOfHardLinks;
+  // 已被垃圾回收而清除的数据数目
+  private final LongAdder evictions = new LongAdder();
 
   public SoftCache(Cache delegate) {
     this.delegate = delegate;
@@ -56,6 +59,11 @@ public class SoftCache implements Cache {
     return delegate.getSize();
   }
 
+  @Override
+  public long getEvictionCount() {
+    return evictions.sum() + delegate.getEvictionCount();
+  }
+
 
   public void setSize(int size) {
     this.numberOfHardLinks = size;
@@ -108,6 +116,7 @@ public class SoftCache implements Cache {
     SoftEntry sv;
     while ((sv = (SoftEntry) queueOfGarbageCollectedEntries.poll()) != null) {
       delegate.removeObject(sv.key);
+      evictions.increment();
     }
   }
 
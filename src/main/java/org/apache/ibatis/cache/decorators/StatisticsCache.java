@@ -0,0 +1,111 @@
+/**
+ *    Copyright 2009-2019 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.decorators;
+
+import java.util.Map;
+
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheStatistics;
+import org.apache.ibatis.cache.ThreadSafeCache;
+
+/**
+ * Statistics decorator.
+ * <p>
+ * Counts hits, misses, puts, removals and clears into a {@link CacheStatistics} without any locking,
+ * unlike the hit ratio of {@link LoggingCache} that is only meant for debug logs.
+ */
+public class StatisticsCache implements ThreadSafeCache {
+
+  // 被装饰对象
+  private final Cache delegate;
+  // 统计信息
+  private final CacheStatistics statistics;
+
+  public StatisticsCache(Cache delegate) {
+    this(delegate, new CacheStatistics(delegate.getId()));
+  }
+
+  public StatisticsCache(Cache delegate, CacheStatistics statistics) {
+    this.delegate = delegate;
+    this.statistics = statistics;
+    statistics.setCache(delegate);
+  }
+
+  public CacheStatistics getStatistics() {
+    return statistics;
+  }
+
+  @Override
+  public String getId() {
+    return delegate.getId();
+  }
+
+  @Override
+  public int getSize() {
+    return delegate.getSize();
+  }
+
+  @Override
+  public long getEvictionCount() {
+    return delegate.getEvictionCount();
+  }
+
+  @Override
+  public void putObject(Object key, Object value) {
+    delegate.putObject(key, value);
+    statistics.recordPuts(1);
+  }
+
+  @Override
+  public void putAll(Map<Object, Object> entries) {
+    delegate.putAll(entries);
+    statistics.recordPuts(entries.size());
+  }
+
+  @Override
+  public Object getObject(Object key) {
+    Object value = delegate.getObject(key);
+    if (value != null) {
+      statistics.recordHit();
+    } else {
+      statistics.recordMiss();
+    }
+    return value;
+  }
+
+  @Override
+  public Object removeObject(Object key) {
+    statistics.recordRemoval();
+    return delegate.removeObject(key);
+  }
+
+  @Override
+  public void clear() {
+    statistics.recordClear();
+    delegate.clear();
+  }
+
+  @Override
+  public int hashCode() {
+    return delegate.hashCode();
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    return delegate.equals(obj);
+  }
+
+}
@@ -15,14 +15,24 @@
  */
 package org.apache.ibatis.cache.decorators;
 
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
 import org.apache.ibatis.cache.Cache;
 
 /**
+ * Serializes all the calls to the delegate with a {@link ReentrantLock}.
+ * <p>
+ * A lock is used instead of synchronized methods so that a virtual thread waiting here, or running a slow
+ * delegate (e.g. a remote cache), does not pin its carrier thread.
+ *
  * @author Clinton Begin
  */
 public class SynchronizedCache implements Cache {
 
   private final Cache delegate;
+  // 所有操作共用的锁
+  private final ReentrantLock lock = new ReentrantLock();
 
   public SynchronizedCache(Cache delegate) {
     this.delegate = delegate;
@@ -34,28 +44,73 @@ public class SynchronizedCache implements Cache {
   }
 
   @Override
-  public synchronized int getSize() {
-    return delegate.getSize();
+  public int getSize() {
+    lock.lock();
+    try {
+      return delegate.getSize();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public long getEvictionCount() {
+    lock.lock();
+    try {
+      return delegate.getEvictionCount();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public void putObject(Object key, Object object) {
+    lock.lock();
+    try {
+      delegate.putObject(key, object);
+    } finally {
+      lock.unlock();
+    }
   }
 
   @Override
-  public synchronized void putObject(Object key, Object object) {
-    delegate.putObject(key, object);
+  public void putAll(Map<Object, Object> entries) {
+    lock.lock();
+    try {
+      delegate.putAll(entries);
+    } finally {
+      lock.unlock();
+    }
   }
 
   @Override
-  public synchronized Object getObject(Object key) {
-    return delegate.getObject(key);
+  public Object getObject(Object key) {
+    lock.lock();
+    try {
+      return delegate.getObject(key);
+    } finally {
+      lock.unlock();
+    }
   }
 
   @Override
-  public synchronized Object removeObject(Object key) {
-    return delegate.removeObject(key);
+  public Object removeObject(Object key) {
+    lock.lock();
+    try {
+      return delegate.removeObject(key);
+    } finally {
+      lock.unlock();
+    }
   }
 
   @Override
-  public synchronized void clear() {
-    delegate.clear();
+  public void clear() {
+    lock.lock();
+    try {
+      delegate.clear();
+    } finally {
+      lock.unlock();
+    }
   }
 
   @Override
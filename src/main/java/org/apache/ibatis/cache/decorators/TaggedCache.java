@@ -0,0 +1,230 @@
+/**
+ *    Copyright 2009-2019 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.decorators;
+
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.ThreadSafeCache;
+
+/**
+ * Tag based invalidation decorator.
+ * <p>
+ * Every entry is stored together with the tags of the statement that loaded it and the version of
+ * each tag at that time. Invalidating a tag only increments its version, so the entries loaded before
+ * are treated as misses when they are read and get replaced by the next load, while the entries of
+ * other tags stay cached. Entries without tags are invalidated by any tag.
+ * <p>
+ * The tags of a statement are declared with <code>cacheTags</code>. When they are not declared,
+ * selects are tagged with the names of their result types, including nested result maps and nested selects,
+ * and other statements with the name of their parameter type; statements using simple types, maps or collections
+ * get no tags. A flushing statement clears the whole cache when it has no tags, or when its inferred tags are not
+ * all used by the selects of the cache, e.g. an update taking a form object instead of the mapped type.
+ * Declare the tags explicitly when a result spans tables that are not mapped to its types.
+ */
+public class TaggedCache implements ThreadSafeCache {
+
+  private static final String[] NO_TAGS = new String[0];
+
+  // 被装饰对象
+  private final Cache delegate;
+  // 各个标签的当前版本
+  private final ConcurrentHashMap<String, AtomicLong> tagVersions = new ConcurrentHashMap<>();
+  // 任意标签失效时增加的版本，用于没有标签的数据
+  private final AtomicLong anyTagVersion = new AtomicLong();
+
+  public TaggedCache(Cache delegate) {
+    this.delegate = delegate;
+  }
+
+  @Override
+  public String getId() {
+    return delegate.getId();
+  }
+
+  @Override
+  public int getSize() {
+    return delegate.getSize();
+  }
+
+  @Override
+  public long getEvictionCount() {
+    return delegate.getEvictionCount();
+  }
+
+  @Override
+  public void putObject(Object key, Object value) {
+    putObject(key, value, null);
+  }
+
+  /**
+   * 向缓存写入一条带标签的信息
+   * @param key 信息的键
+   * @param value 信息的值
+   * @param tags 信息的标签，可以为null
+   */
+  public void putObject(Object key, Object value, String[] tags) {
+    delegate.putObject(key, value == null ? null : tag(value, tags));
+  }
+
+  @Override
+  public void putAll(Map<Object, Object> entries) {
+    putAll(entries, null);
+  }
+
+  /**
+   * 向缓存批量写入带标签的信息
+   * @param entries 要写入的信息
+   * @param tags 各个信息的标签，可以为null
+   */
+  public void putAll(Map<Object, Object> entries, Map<Object, String[]> tags) {
+    Map<Object, Object> tagged = new HashMap<>((int) (entries.size() / .75F) + 1);
+    for (Map.Entry<Object, Object> entry : entries.entrySet()) {
+      Object value = entry.getValue();
+      tagged.put(entry.getKey(), value == null ? null : tag(value, tags == null ? null : tags.get(entry.getKey())));
+    }
+    delegate.putAll(tagged);
+  }
+
+  @Override
+  public Object getObject(Object key) {
+    TaggedValue taggedValue = (TaggedValue) delegate.getObject(key);
+    return taggedValue == null || !isCurrent(taggedValue) ? null : taggedValue.value;
+  }
+
+  /**
+   * 从缓存中读取一条信息，忽略带有指定标签的信息
+   * @param key 信息的键
+   * @param hiddenTags 需要忽略的标签，通常是当前事务中将要失效的标签
+   * @return 信息的值
+   */
+  public Object getObject(Object key, Set<String> hiddenTags) {
+    TaggedValue taggedValue = (TaggedValue) delegate.getObject(key);
+    if (taggedValue == null || !isCurrent(taggedValue)) {
+      return null;
+    }
+    if (!hiddenTags.isEmpty()) {
+      if (taggedValue.tags.length == 0) {
+        return null;
+      }
+      for (String tag : taggedValue.tags) {
+        if (hiddenTags.contains(tag)) {
+          return null;
+        }
+      }
+    }
+    return taggedValue.value;
+  }
+
+  @Override
+  public Object removeObject(Object key) {
+    Object value = delegate.removeObject(key);
+    return value instanceof TaggedValue ? ((TaggedValue) value).value : value;
+  }
+
+  @Override
+  public void clear() {
+    delegate.clear();
+  }
+
+  /**
+   * 使带有指定标签的信息以及没有标签的信息失效
+   * @param tags 要失效的标签
+   */
+  public void invalidate(Collection<String> tags) {
+    for (String tag : tags) {
+      versionOf(tag).incrementAndGet();
+    }
+    anyTagVersion.incrementAndGet();
+  }
+
+  /**
+   * 为信息记录标签及其当前版本
+   * @param value 信息的值
+   * @param tags 信息的标签
+   * @return 带标签的信息
+   */
+  private TaggedValue tag(Object value, String[] tags) {
+    if (tags == null || tags.length == 0) {
+      return new TaggedValue(value, NO_TAGS, null, anyTagVersion.get());
+    }
+    long[] versions = new long[tags.length];
+    for (int i = 0; i < tags.length; i++) {
+      versions[i] = versionOf(tags[i]).get();
+    }
+    return new TaggedValue(value, tags, versions, 0L);
+  }
+
+  /**
+   * 判断信息的标签在写入后是否失效过
+   * @param taggedValue 带标签的信息
+   * @return 是否仍然有效
+   */
+  private boolean isCurrent(TaggedValue taggedValue) {
+    if (taggedValue.tags.length == 0) {
+      return taggedValue.anyTagVersion == anyTagVersion.get();
+    }
+    for (int i = 0; i < taggedValue.tags.length; i++) {
+      if (taggedValue.versions[i] != versionOf(taggedValue.tags[i]).get()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private AtomicLong versionOf(String tag) {
+    return tagVersions.computeIfAbsent(tag, k -> new AtomicLong());
+  }
+
+  @Override
+  public int hashCode() {
+    return delegate.hashCode();
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    return delegate.equals(obj);
+  }
+
+  /**
+   * 带标签的信息
+   */
+  private static final class TaggedValue implements Serializable {
+    private static final long serialVersionUID = 1L;
+    // 信息的值
+    private final Object value;
+    // 信息的标签
+    private final String[] tags;
+    // 写入时各个标签的版本
+    private final long[] versions;
+    // 写入时的任意标签版本，仅用于没有标签的信息
+    private final long anyTagVersion;
+
+    TaggedValue(Object value, String[] tags, long[] versions, long anyTagVersion) {
+      this.value = value;
+      this.tags = tags;
+      this.versions = versions;
+      this.anyTagVersion = anyTagVersion;
+    }
+  }
+
+}
@@ -15,12 +15,15 @@
  */
 package org.apache.ibatis.cache.decorators;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
 
 import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheStatistics;
 import org.apache.ibatis.logging.Log;
 import org.apache.ibatis.logging.LogFactory;
 
@@ -47,12 +50,29 @@ public class TransactionalCache implements Cache {
   private final Map<Object, Object> entriesToAddOnCommit;
   // 缓存查询未命中的数据
   private final Set<Object> entriesMissedInCache;
+  // 事务提交时需要失效的标签，仅用于TaggedCache
+  private final Set<String> tagsToInvalidateOnCommit;
+  // 事务提交时需要写入缓存的数据的标签，仅用于TaggedCache
+  private final Map<Object, String[]> entryTagsToAddOnCommit;
+  // 缓存的统计信息，用来记录提交时写入和回滚时丢弃的数据数目，未启用缓存统计时为null
+  private final CacheStatistics statistics;
+  // 事务提交时写入缓存的数据总数
+  private long flushedEntryCount;
+  // 事务回滚时丢弃的数据总数
+  private long discardedEntryCount;
 
   public TransactionalCache(Cache delegate) {
+    this(delegate, null);
+  }
+
+  public TransactionalCache(Cache delegate, CacheStatistics statistics) {
     this.delegate = delegate;
+    this.statistics = statistics;
     this.clearOnCommit = false;
     this.entriesToAddOnCommit = new HashMap<>();
     this.entriesMissedInCache = new HashSet<>();
+    this.tagsToInvalidateOnCommit = new HashSet<>();
+    this.entryTagsToAddOnCommit = new HashMap<>();
   }
 
   @Override
@@ -65,6 +85,11 @@ public class TransactionalCache implements Cache {
     return delegate.getSize();
   }
 
+  @Override
+  public long getEvictionCount() {
+    return delegate.getEvictionCount();
+  }
+
   /**
    * 从缓存中读取一条信息
    * @param key 信息的键
@@ -72,8 +97,9 @@ public class TransactionalCache implements Cache {
    */
   @Override
   public Object getObject(Object key) {
-    // 从缓存中读取对应的数据
-    Object object = delegate.getObject(key);
+    // 从缓存中读取对应的数据，将要失效的标签下的数据视为未命中
+    Object object = tagsToInvalidateOnCommit.isEmpty()
+        ? delegate.getObject(key) : ((TaggedCache) delegate).getObject(key, tagsToInvalidateOnCommit);
     if (object == null) { // 缓存未命中
       // 记录该缓存未命中
       entriesMissedInCache.add(key);
@@ -95,6 +121,20 @@ public class TransactionalCache implements Cache {
   public void putObject(Object key, Object object) {
     // 先放入到entriesToAddOnCommit列表中暂存
     entriesToAddOnCommit.put(key, object);
+    entryTagsToAddOnCommit.remove(key);
+  }
+
+  /**
+   * 向缓存写入一条带标签的信息，被装饰对象不是TaggedCache时忽略标签
+   * @param key 信息的键
+   * @param object 信息的值
+   * @param tags 信息的标签
+   */
+  public void putObject(Object key, Object object, String[] tags) {
+    putObject(key, object);
+    if (tags != null && delegate instanceof TaggedCache) {
+      entryTagsToAddOnCommit.put(key, tags);
+    }
   }
 
   @Override
@@ -106,6 +146,29 @@ public class TransactionalCache implements Cache {
   public void clear() {
     clearOnCommit = true;
     entriesToAddOnCommit.clear();
+    entryTagsToAddOnCommit.clear();
+  }
+
+  /**
+   * 使带有指定标签的数据在事务提交时失效。被装饰对象不是TaggedCache时清空整个缓存
+   * @param tags 要失效的标签
+   */
+  public void clearTags(String[] tags) {
+    if (!(delegate instanceof TaggedCache)) {
+      clear();
+      return;
+    }
+    Collections.addAll(tagsToInvalidateOnCommit, tags);
+    // 丢弃暂存的受影响的数据，没有标签的数据受任何标签影响
+    Iterator<Object> iterator = entriesToAddOnCommit.keySet().iterator();
+    while (iterator.hasNext()) {
+      Object key = iterator.next();
+      String[] entryTags = entryTagsToAddOnCommit.get(key);
+      if (entryTags == null || containsAny(tagsToInvalidateOnCommit, entryTags)) {
+        iterator.remove();
+        entryTagsToAddOnCommit.remove(key);
+      }
+    }
   }
 
   /**
@@ -115,6 +178,8 @@ public class TransactionalCache implements Cache {
     if (clearOnCommit) { // 如果设置了事务提交后清理缓存
       // 清理缓存
       delegate.clear();
+    } else if (!tagsToInvalidateOnCommit.isEmpty()) { // 如果设置了事务提交后失效部分标签
+      ((TaggedCache) delegate).invalidate(tagsToInvalidateOnCommit);
     }
     // 将为写入缓存的操作写入缓存
     flushPendingEntries();
@@ -126,11 +191,35 @@ public class TransactionalCache implements Cache {
    * 回滚事务
    */
   public void rollback() {
+    int discarded = entriesToAddOnCommit.size();
+    discardedEntryCount += discarded;
+    if (statistics != null && discarded > 0) {
+      statistics.recordDiscardedEntries(discarded);
+    }
+    if (log.isDebugEnabled() && discarded > 0) {
+      log.debug("Discarded " + entriesToAddOnCommit.size() + " entries for the cache " + getId() + " on rollback");
+    }
     // 删除缓存未命中的数据
     unlockMissedEntries();
     reset();
   }
 
+  /**
+   * 获取事务提交时写入缓存的数据总数
+   * @return 写入的数据总数
+   */
+  public long getFlushedEntryCount() {
+    return flushedEntryCount;
+  }
+
+  /**
+   * 获取事务回滚时丢弃的数据总数
+   * @return 丢弃的数据总数
+   */
+  public long getDiscardedEntryCount() {
+    return discardedEntryCount;
+  }
+
   /**
    * 清理环境
    */
@@ -138,22 +227,44 @@ public class TransactionalCache implements Cache {
     clearOnCommit = false;
     entriesToAddOnCommit.clear();
     entriesMissedInCache.clear();
+    tagsToInvalidateOnCommit.clear();
+    entryTagsToAddOnCommit.clear();
   }
 
   /**
    * 将未写入缓存的数据写入缓存
    */
   private void flushPendingEntries() {
-    // 将entriesToAddOnCommit中的数据写入缓存
-    for (Map.Entry<Object, Object> entry : entriesToAddOnCommit.entrySet()) {
-      delegate.putObject(entry.getKey(), entry.getValue());
-    }
-    // 将entriesMissedInCache中的数据写入缓存
+    int flushed = entriesToAddOnCommit.size();
+    // 将entriesMissedInCache中没有结果的数据以null值加入，以便阻塞式缓存释放锁
     for (Object entry : entriesMissedInCache) {
-      if (!entriesToAddOnCommit.containsKey(entry)) {
-        delegate.putObject(entry, null);
+      entriesToAddOnCommit.putIfAbsent(entry, null);
+    }
+    if (entriesToAddOnCommit.isEmpty()) {
+      return;
+    }
+    // 将全部数据一次写入缓存，不复制暂存的映射
+    if (delegate instanceof TaggedCache) {
+      ((TaggedCache) delegate).putAll(entriesToAddOnCommit, entryTagsToAddOnCommit);
+    } else {
+      delegate.putAll(entriesToAddOnCommit);
+    }
+    flushedEntryCount += flushed;
+    if (statistics != null && flushed > 0) {
+      statistics.recordFlushedEntries(flushed);
+    }
+    if (log.isDebugEnabled() && flushed > 0) {
+      log.debug("Flushed " + flushed + " entries to the cache " + getId() + " on commit");
+    }
+  }
+
+  private static boolean containsAny(Set<String> tags, String[] candidates) {
+    for (String candidate : candidates) {
+      if (tags.contains(candidate)) {
+        return true;
       }
     }
+    return false;
   }
 
   /**
@@ -0,0 +1,207 @@
+/**
+ *    Copyright 2009-2019 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.decorators;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.cache.CacheWeigher;
+import org.apache.ibatis.cache.impl.SampledSizeWeigher;
+import org.apache.ibatis.io.Resources;
+
+/**
+ * Weight bounded Lru (least recently used) cache decorator.
+ * <p>
+ * Bounds the total weight of the entries instead of their count. Weights are computed by a
+ * {@link CacheWeigher}, by default a {@link SampledSizeWeigher} estimating heap bytes. An entry
+ * heavier than the maximum weight on its own is not cached.
+ *
+ * <pre>
+ * &lt;cache eviction="WEIGHTED"&gt;
+ *   &lt;property name="maxWeight" value="67108864"/&gt;
+ *   &lt;property name="weigherType" value="com.example.RowCountWeigher"/&gt;
+ * &lt;/cache&gt;
+ * </pre>
+ */
+public class WeightedCache implements Cache {
+
+  // 默认的最大权重，64MB
+  private static final long DEFAULT_MAX_WEIGHT = 64L * 1024 * 1024;
+
+  // 被装饰对象
+  private final Cache delegate;
+  // 按访问顺序保存的缓存数据的键及其权重
+  private final LinkedHashMap<Object, Long> weights = new LinkedHashMap<>(16, .75F, true);
+  // 缓存数据的总权重
+  private long totalWeight;
+  // 最大权重
+  private long maxWeight = DEFAULT_MAX_WEIGHT;
+  // 权重计算器
+  private CacheWeigher weigher = new SampledSizeWeigher();
+  // 因权重超出而清除的数据数目
+  private final LongAdder evictions = new LongAdder();
+
+  public WeightedCache(Cache delegate) {
+    this.delegate = delegate;
+  }
+
+  public void setMaxWeight(long maxWeight) {
+    if (maxWeight <= 0) {
+      throw new CacheException("maxWeight must be positive for the cache " + getId() + ", but was " + maxWeight);
+    }
+    this.maxWeight = maxWeight;
+    evictIfNeeded();
+  }
+
+  public void setWeigher(CacheWeigher weigher) {
+    this.weigher = weigher;
+  }
+
+  /**
+   * 根据类名设置权重计算器
+   * @param weigherType 权重计算器的类名
+   */
+  public void setWeigherType(String weigherType) {
+    try {
+      setWeigher((CacheWeigher) Resources.classForName(weigherType).getDeclaredConstructor().newInstance());
+    } catch (Exception e) {
+      throw new CacheException("Could not instantiate cache weigher (" + weigherType + "). Cause: " + e, e);
+    }
+  }
+
+  /**
+   * 获取缓存数据的总权重
+   * @return 总权重
+   */
+  public long getTotalWeight() {
+    return totalWeight;
+  }
+
+  @Override
+  public String getId() {
+    return delegate.getId();
+  }
+
+  @Override
+  public int getSize() {
+    return delegate.getSize();
+  }
+
+  @Override
+  public long getEvictionCount() {
+    return evictions.sum() + delegate.getEvictionCount();
+  }
+
+  @Override
+  public void putObject(Object key, Object value) {
+    if (track(key, value)) {
+      delegate.putObject(key, value);
+    } else {
+      delegate.removeObject(key);
+    }
+    evictIfNeeded();
+  }
+
+  @Override
+  public void putAll(Map<Object, Object> entries) {
+    Map<Object, Object> accepted = new LinkedHashMap<>((int) (entries.size() / 0.75f) + 1);
+    for (Map.Entry<Object, Object> entry : entries.entrySet()) {
+      if (track(entry.getKey(), entry.getValue())) {
+        accepted.put(entry.getKey(), entry.getValue());
+      } else {
+        delegate.removeObject(entry.getKey());
+      }
+    }
+    delegate.putAll(accepted);
+    evictIfNeeded();
+  }
+
+  @Override
+  public Object getObject(Object key) {
+    // 触及一下当前被访问的键，表明它被访问了
+    weights.get(key);
+    return delegate.getObject(key);
+  }
+
+  @Override
+  public Object removeObject(Object key) {
+    untrack(weights.remove(key));
+    return delegate.removeObject(key);
+  }
+
+  @Override
+  public void clear() {
+    delegate.clear();
+    weights.clear();
+    totalWeight = 0;
+  }
+
+  @Override
+  public int hashCode() {
+    return delegate.hashCode();
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    return delegate.equals(obj);
+  }
+
+  /**
+   * 记录要写入的数据的权重
+   * @param key 数据的键
+   * @param value 数据的值
+   * @return 数据是否可以写入，单独超出最大权重的数据不写入
+   */
+  private boolean track(Object key, Object value) {
+    long weight = weigher.weigh(key, value);
+    if (weight < 0) {
+      throw new CacheException("Negative weight " + weight + " computed by " + weigher.getClass().getName() + " for the cache " + getId());
+    }
+    if (weight > maxWeight) {
+      untrack(weights.remove(key));
+      evictions.increment();
+      return false;
+    }
+    untrack(weights.put(key, weight));
+    totalWeight += weight;
+    return true;
+  }
+
+  private void untrack(Long weight) {
+    if (weight != null) {
+      totalWeight -= weight;
+    }
+  }
+
+  /**
+   * 按最近最少使用的顺序删除数据，直到总权重不再超出最大权重
+   */
+  private void evictIfNeeded() {
+    Iterator<Map.Entry<Object, Long>> iterator = weights.entrySet().iterator();
+    while (totalWeight > maxWeight && iterator.hasNext()) {
+      Map.Entry<Object, Long> eldest = iterator.next();
+      iterator.remove();
+      totalWeight -= eldest.getValue();
+      delegate.removeObject(eldest.getKey());
+      evictions.increment();
+    }
+  }
+
+}
@@ -0,0 +1,138 @@
+/**
+ *    Copyright 2009-2019 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.ibatis.cache.CacheWeigher;
+
+/**
+ * A {@link PerpetualCache} bounded by entry count and/or estimated weight, evicting the least recently used entries.
+ * <p>
+ * Entries are not evicted on put but only when {@link #evictIfNeeded()} is called, so that the owner can keep every
+ * entry it still relies on (e.g. the local cache of an executor while nested queries are running). It is not thread safe.
+ */
+public class BoundedPerpetualCache extends PerpetualCache {
+
+  // 存储信息的Map，按访问顺序排列，最久未访问的在前
+  private final LinkedHashMap<Object, Object> entries;
+  // 最大信息数目，0表示不限制
+  private final int maxSize;
+  // 最大权重，0表示不限制
+  private final long maxWeight;
+  // 权重计算器
+  private final CacheWeigher weigher;
+  // 各条信息的权重，仅在限制权重时使用
+  private final Map<Object, Long> weights;
+  // 信息的总权重
+  private long totalWeight;
+  // 淘汰的信息数目
+  private long evictions;
+
+  /**
+   * @param id 缓存id
+   * @param maxSize 最大信息数目，0表示不限制
+   * @param maxWeight 最大权重，0表示不限制
+   * @param weigher 权重计算器，不限制权重时可以为null
+   */
+  public BoundedPerpetualCache(String id, int maxSize, long maxWeight, CacheWeigher weigher) {
+    // accessOrder为true，则LinkedHashMap按照访问顺序排列，最久未访问的在前
+    this(id, new LinkedHashMap<>(16, .75F, true), maxSize, maxWeight, weigher);
+  }
+
+  private BoundedPerpetualCache(String id, LinkedHashMap<Object, Object> entries, int maxSize, long maxWeight, CacheWeigher weigher) {
+    super(id, entries);
+    this.entries = entries;
+    this.maxSize = maxSize;
+    this.maxWeight = maxWeight;
+    this.weigher = maxWeight > 0 ? (weigher == null ? new SampledSizeWeigher() : weigher) : null;
+    this.weights = maxWeight > 0 ? new HashMap<>() : null;
+  }
+
+  @Override
+  public void putObject(Object key, Object value) {
+    super.putObject(key, value);
+    if (weights != null) {
+      untrack(weights.put(key, weigher.weigh(key, value)));
+      totalWeight += weights.get(key);
+    }
+  }
+
+  @Override
+  public Object removeObject(Object key) {
+    if (weights != null) {
+      untrack(weights.remove(key));
+    }
+    return super.removeObject(key);
+  }
+
+  @Override
+  public void clear() {
+    super.clear();
+    if (weights != null) {
+      weights.clear();
+      totalWeight = 0;
+    }
+  }
+
+  @Override
+  public long getEvictionCount() {
+    return evictions;
+  }
+
+  public long getTotalWeight() {
+    return totalWeight;
+  }
+
+  /**
+   * 按最近最少使用的顺序淘汰信息，直到信息数目和总权重都不再超出上限
+   * @return 本次淘汰的信息的键
+   */
+  public List<Object> evictIfNeeded() {
+    if (!isOverflowing()) {
+      return Collections.emptyList();
+    }
+    List<Object> evicted = new ArrayList<>();
+    Iterator<Object> eldest = entries.keySet().iterator();
+    while (isOverflowing() && eldest.hasNext()) {
+      Object key = eldest.next();
+      eldest.remove();
+      if (weights != null) {
+        untrack(weights.remove(key));
+      }
+      evicted.add(key);
+    }
+    evictions += evicted.size();
+    return evicted;
+  }
+
+  private boolean isOverflowing() {
+    return (maxSize > 0 && getSize() > maxSize) || (maxWeight > 0 && totalWeight > maxWeight);
+  }
+
+  private void untrack(Long weight) {
+    if (weight != null) {
+      totalWeight -= weight;
+    }
+  }
+
+}
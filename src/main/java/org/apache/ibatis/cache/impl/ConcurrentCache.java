@@ -0,0 +1,293 @@
+/**
+ *    Copyright 2009-2019 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.impl;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.cache.ThreadSafeCache;
+
+/**
+ * Size bounded cache that can be used concurrently without an external lock.
+ * <p>
+ * Entries are stored in a {@link ConcurrentHashMap}, so reads never block each other. When the
+ * cache grows over its size, victims are selected in insertion order giving a second chance to
+ * the entries read since the last scan (CLOCK), and a TinyLFU admission filter keeps a frequently
+ * read victim in favor of a newcomer that is less popular. Only writers that overflow the cache
+ * take the eviction lock.
+ * <p>
+ * Select it with <code>&lt;cache type="CONCURRENT" size="..."/&gt;</code>.
+ */
+public class ConcurrentCache implements ThreadSafeCache {
+
+  // 默认的缓存大小
+  private static final int DEFAULT_SIZE = 1024;
+
+  // Cache的id，一般为所在的namespace
+  private final String id;
+  // 用来存储要缓存的信息
+  private final ConcurrentHashMap<Object, Node> cache = new ConcurrentHashMap<>();
+  // 按照写入顺序保存的缓存节点，淘汰时从头部开始扫描
+  private final ConcurrentLinkedQueue<Node> evictionQueue = new ConcurrentLinkedQueue<>();
+  // 淘汰锁，只有需要淘汰数据的写入操作才会获取
+  private final ReentrantLock evictionLock = new ReentrantLock();
+  // 已经被删除但仍留在淘汰队列中的节点数
+  private final AtomicInteger deadNodes = new AtomicInteger();
+  // 因空间不足而淘汰或拒绝的数据数目
+  private final LongAdder evictions = new LongAdder();
+  // 缓存空间的大小
+  private volatile int size;
+  // 访问频率的估算器
+  private volatile FrequencySketch sketch;
+
+  public ConcurrentCache(String id) {
+    this.id = id;
+    setSize(DEFAULT_SIZE);
+  }
+
+  @Override
+  public String getId() {
+    return id;
+  }
+
+  /**
+   * 设置缓存空间大小
+   * @param size 缓存空间大小
+   */
+  public void setSize(int size) {
+    if (size <= 0) {
+      throw new CacheException("Cache size must be positive for the cache " + id + ", but was " + size);
+    }
+    this.size = size;
+    this.sketch = new FrequencySketch(size);
+  }
+
+  @Override
+  public int getSize() {
+    return cache.size();
+  }
+
+  @Override
+  public long getEvictionCount() {
+    return evictions.sum();
+  }
+
+  /**
+   * 向缓存写入一条信息
+   * @param key 信息的键
+   * @param value 信息的值
+   */
+  @Override
+  public void putObject(Object key, Object value) {
+    Node node = insert(key, value);
+    if (node != null && cache.size() > size) {
+      evict(node);
+    }
+  }
+
+  /**
+   * 向缓存批量写入信息，全部写入后只进行一次淘汰
+   * @param entries 要写入的信息
+   */
+  @Override
+  public void putAll(Map<Object, Object> entries) {
+    for (Map.Entry<Object, Object> entry : entries.entrySet()) {
+      insert(entry.getKey(), entry.getValue());
+    }
+    if (cache.size() > size) {
+      evict(null);
+    }
+  }
+
+  /**
+   * 写入一条信息，不进行淘汰
+   * @param key 信息的键
+   * @param value 信息的值
+   * @return 新建的节点，键已经存在时返回null
+   */
+  private Node insert(Object key, Object value) {
+    sketch.increment(key);
+    Node node = new Node(key, value);
+    Node existing = cache.putIfAbsent(key, node);
+    if (existing != null) {
+      // 键已经存在，只替换值，不改变其在淘汰队列中的位置
+      existing.value = value;
+      return null;
+    }
+    evictionQueue.offer(node);
+    return node;
+  }
+
+  /**
+   * 从缓存中读取一条信息，读操作不会改变任何共享的结构
+   * @param key 信息的键
+   * @return 信息的值
+   */
+  @Override
+  public Object getObject(Object key) {
+    sketch.increment(key);
+    Node node = cache.get(key);
+    if (node == null) {
+      return null;
+    }
+    node.accessed = true;
+    return node.value;
+  }
+
+  @Override
+  public Object removeObject(Object key) {
+    Node node = cache.remove(key);
+    if (node == null) {
+      return null;
+    }
+    if (deadNodes.incrementAndGet() > size) {
+      purgeDeadNodes();
+    }
+    return node.value;
+  }
+
+  @Override
+  public void clear() {
+    evictionLock.lock();
+    try {
+      cache.clear();
+      evictionQueue.clear();
+      deadNodes.set(0);
+    } finally {
+      evictionLock.unlock();
+    }
+  }
+
+  /**
+   * 淘汰数据，直到缓存不再超出空间大小
+   * @param candidate 刚刚写入、引起淘汰的节点，批量写入时为null
+   */
+  private void evict(Node candidate) {
+    evictionLock.lock();
+    try {
+      // 最多给予的二次机会次数，防止读操作不断设置访问标志导致无法结束
+      int chances = size;
+      while (cache.size() > size) {
+        Node victim = evictionQueue.poll();
+        if (victim == null) {
+          if (!rebuildEvictionQueue()) {
+            break;
+          }
+          continue;
+        }
+        if (!isAlive(victim)) {
+          // 节点已经被删除或被替换
+          continue;
+        }
+        if (victim.accessed && chances-- > 0) {
+          // 上次扫描后被读取过，给予二次机会
+          victim.accessed = false;
+          evictionQueue.offer(victim);
+          continue;
+        }
+        if (candidate != null && candidate != victim && isAlive(candidate)
+            && sketch.frequency(candidate.key) < sketch.frequency(victim.key)) {
+          // 新写入的数据没有被淘汰的数据热门，拒绝新数据
+          if (cache.remove(candidate.key, candidate)) {
+            evictions.increment();
+          }
+          evictionQueue.offer(victim);
+        } else if (cache.remove(victim.key, victim)) {
+          evictions.increment();
+        }
+        candidate = null;
+      }
+    } finally {
+      evictionLock.unlock();
+    }
+  }
+
+  /**
+   * 清除淘汰队列中已经被删除的节点
+   */
+  private void purgeDeadNodes() {
+    if (evictionLock.tryLock()) {
+      try {
+        deadNodes.set(0);
+        evictionQueue.removeIf(node -> !isAlive(node));
+      } finally {
+        evictionLock.unlock();
+      }
+    }
+  }
+
+  /**
+   * 淘汰队列与缓存因并发的clear操作不一致时，根据缓存中的数据重建淘汰队列
+   * @return 重建后的淘汰队列是否非空
+   */
+  private boolean rebuildEvictionQueue() {
+    deadNodes.set(0);
+    evictionQueue.addAll(cache.values());
+    return !evictionQueue.isEmpty();
+  }
+
+  private boolean isAlive(Node node) {
+    return cache.get(node.key) == node;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (getId() == null) {
+      throw new CacheException("Cache instances require an ID.");
+    }
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof Cache)) {
+      return false;
+    }
+
+    Cache otherCache = (Cache) o;
+    return getId().equals(otherCache.getId());
+  }
+
+  @Override
+  public int hashCode() {
+    if (getId() == null) {
+      throw new CacheException("Cache instances require an ID.");
+    }
+    return getId().hashCode();
+  }
+
+  /**
+   * 缓存节点，节点的身份用来判断淘汰队列中的记录是否仍然有效
+   */
+  private static final class Node {
+    // 缓存的键
+    final Object key;
+    // 缓存的值
+    volatile Object value;
+    // 上次扫描后是否被读取过
+    volatile boolean accessed;
+
+    Node(Object key, Object value) {
+      this.key = key;
+      this.value = value;
+    }
+  }
+
+}
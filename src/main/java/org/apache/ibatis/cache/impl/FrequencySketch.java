@@ -0,0 +1,146 @@
+/**
+ *    Copyright 2009-2019 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.impl;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A probabilistic multiset for estimating the popularity of cache keys within a time window.
+ * <p>
+ * This is a 4-bit Count-Min Sketch as used by the TinyLFU admission policy: each long in the table
+ * holds sixteen 4-bit counters, and a key is mapped to four counters in four different longs.
+ * When the number of recorded accesses reaches the sample size all counters are halved, so that
+ * the estimation follows the recent popularity of the keys.
+ * <p>
+ * Counters are incremented with a compare-and-set on their long and never carry past 15, so the
+ * sketch can be shared by concurrent readers without any locking. Halving is done by the thread
+ * that reaches the sample size and may interleave with increments, which only blurs the estimation.
+ */
+final class FrequencySketch {
+
+  // 用于计算四个计数器位置的种子
+  private static final long[] SEED = {
+      0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+  // 将每个计数器减半时使用的掩码
+  private static final long RESET_MASK = 0x7777777777777777L;
+  // 计数器的最大值
+  private static final int MAX_FREQUENCY = 15;
+
+  // 计数器表，每个long中有16个4位计数器
+  private final AtomicLongArray table;
+  // 计数器表的下标掩码
+  private final int tableMask;
+  // 达到该记录次数后所有计数器减半
+  private final int sampleSize;
+  // 自上次减半以来的记录次数
+  private final AtomicInteger additions = new AtomicInteger();
+
+  /**
+   * FrequencySketch构造方法
+   * @param maximumSize 缓存的最大条目数
+   */
+  FrequencySketch(int maximumSize) {
+    int capacity = tableSizeFor(Math.max(maximumSize, 16));
+    this.table = new AtomicLongArray(capacity);
+    this.tableMask = capacity - 1;
+    this.sampleSize = (int) Math.min(10L * maximumSize, Integer.MAX_VALUE);
+  }
+
+  /**
+   * 估算某个键的访问频率
+   * @param key 缓存的键
+   * @return 访问频率，最大为15
+   */
+  int frequency(Object key) {
+    int hash = spread(key.hashCode());
+    int start = (hash & 3) << 2;
+    int frequency = MAX_FREQUENCY;
+    for (int i = 0; i < 4; i++) {
+      int index = indexOf(hash, i);
+      int count = (int) ((table.get(index) >>> ((start + i) << 2)) & 0xfL);
+      frequency = Math.min(frequency, count);
+    }
+    return frequency;
+  }
+
+  /**
+   * 记录某个键的一次访问
+   * @param key 缓存的键
+   */
+  void increment(Object key) {
+    int hash = spread(key.hashCode());
+    int start = (hash & 3) << 2;
+    boolean added = false;
+    for (int i = 0; i < 4; i++) {
+      added |= incrementAt(indexOf(hash, i), start + i);
+    }
+    if (added && additions.incrementAndGet() >= sampleSize) {
+      reset();
+    }
+  }
+
+  /**
+   * 将指定位置的计数器加一，计数器已经达到最大值时不做处理
+   * @param i 计数器所在long的下标
+   * @param j 计数器在long中的序号
+   * @return 计数器是否增加了
+   */
+  private boolean incrementAt(int i, int j) {
+    int offset = j << 2;
+    long mask = 0xfL << offset;
+    for (;;) {
+      long current = table.get(i);
+      if ((current & mask) == mask) {
+        return false;
+      }
+      if (table.compareAndSet(i, current, current + (1L << offset))) {
+        return true;
+      }
+    }
+  }
+
+  /**
+   * 将所有的计数器减半，使较早的访问逐渐失去影响。多个线程同时达到样本数时只有一个线程执行减半
+   */
+  private void reset() {
+    int count = additions.get();
+    if (count < sampleSize || !additions.compareAndSet(count, count >>> 1)) {
+      return;
+    }
+    for (int i = 0; i < table.length(); i++) {
+      table.getAndUpdate(i, value -> (value >>> 1) & RESET_MASK);
+    }
+  }
+
+  private int indexOf(int item, int i) {
+    long hash = (item + SEED[i]) * SEED[i];
+    hash += hash >>> 32;
+    return ((int) hash) & tableMask;
+  }
+
+  private static int spread(int x) {
+    x = ((x >>> 16) ^ x) * 0x45d9f3b;
+    x = ((x >>> 16) ^ x) * 0x45d9f3b;
+    return (x >>> 16) ^ x;
+  }
+
+  private static int tableSizeFor(int size) {
+    int n = -1 >>> Integer.numberOfLeadingZeros(size - 1);
+    return (n < 0) ? 1 : (n >= (1 << 30)) ? (1 << 30) : n + 1;
+  }
+
+}
@@ -0,0 +1,548 @@
+/**
+ *    Copyright 2009-2019 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.impl;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.StampedLock;
+
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheCodec;
+import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.cache.ThreadSafeCache;
+import org.apache.ibatis.io.Resources;
+
+/**
+ * Cache that keeps its values encoded in direct memory, outside of the Java heap.
+ * <p>
+ * Values are encoded with a {@link CacheCodec} (Java serialization by default) and written into
+ * fixed size blocks carved out of direct {@link ByteBuffer} slabs, which are allocated on demand up to
+ * <code>capacity</code> bytes. Only the keys and the block tables stay on the heap. When there are not
+ * enough free blocks for a new value, entries are evicted either in approximate least recently used order
+ * (<code>LRU</code>, the default: entries are scanned in insertion order and the ones read since the last
+ * scan get a second chance, like CLOCK) or, with <code>LFU</code>, the least read entry among the oldest ones.
+ * <p>
+ * Reads do not take any lock. The index is a {@link ConcurrentHashMap} and the bytes of an entry are copied
+ * under an optimistic stamp of a {@link StampedLock}; only when a writer changed the blocks meanwhile is the
+ * copy repeated under the shared read lock. Writers hold the write lock while they update the blocks, and
+ * values are encoded and decoded outside of the lock.
+ * <p>
+ * As every read decodes a new copy of the value, this cache behaves like a read-write cache.
+ * Changing the configuration discards the cached entries.
+ * <pre>
+ * &lt;cache type="OFF_HEAP"&gt;
+ *   &lt;property name="capacity" value="268435456"/&gt;
+ *   &lt;property name="evictionPolicy" value="LFU"/&gt;
+ *   &lt;property name="codecType" value="com.example.KryoCodec"/&gt;
+ * &lt;/cache&gt;
+ * </pre>
+ */
+public class OffHeapCache implements ThreadSafeCache {
+
+  // 默认的容量，64MB
+  private static final long DEFAULT_CAPACITY = 64L * 1024 * 1024;
+  // 默认的块大小
+  private static final int DEFAULT_BLOCK_SIZE = 512;
+  // 单个slab的最大大小
+  private static final int MAX_SLAB_SIZE = 16 * 1024 * 1024;
+  // LFU淘汰时比较的最老条目数
+  private static final int LFU_SAMPLE_SIZE = 8;
+
+  // Cache的id，一般为所在的namespace
+  private final String id;
+  // 保护块和淘汰队列的锁，写入时持有写锁，读取时只使用乐观读，编解码在锁外进行
+  private final StampedLock lock = new StampedLock();
+  // 堆外内存的容量，单位为字节
+  private long capacity = DEFAULT_CAPACITY;
+  // 块大小，单位为字节
+  private int blockSize = DEFAULT_BLOCK_SIZE;
+  // 淘汰策略，LRU或LFU
+  private String evictionPolicy = "LRU";
+  // 编解码器
+  private CacheCodec codec = new JavaSerializationCodec();
+  // 因空间不足而淘汰的条目数
+  private final LongAdder evictions = new LongAdder();
+
+  // 缓存的条目，第一次使用时创建，读取时不加锁
+  private volatile ConcurrentHashMap<Object, Entry> entries;
+  // 按照写入顺序保存的条目，淘汰时从头部开始扫描，只在持有写锁时访问
+  private ArrayDeque<Entry> evictionQueue;
+  // 已经被删除但仍留在淘汰队列中的条目数
+  private int deadEntries;
+  // 已经分配的slab
+  private ByteBuffer[] slabs;
+  // 每个slab中的块数
+  private int blocksPerSlab;
+  // 总块数
+  private int totalBlocks;
+  // 空闲块的栈
+  private int[] freeBlocks;
+  // 空闲块栈中的块数
+  private int freeCount;
+  // 尚未分配过的第一个块，之后的块所在的slab可能还没有分配
+  private int nextUnusedBlock;
+
+  public OffHeapCache(String id) {
+    this.id = id;
+  }
+
+  @Override
+  public String getId() {
+    return id;
+  }
+
+  public void setCapacity(long capacity) {
+    if (capacity <= 0) {
+      throw new CacheException("Capacity must be positive for the cache " + id + ", but was " + capacity);
+    }
+    this.capacity = capacity;
+    reset();
+  }
+
+  public void setBlockSize(int blockSize) {
+    if (blockSize < 16) {
+      throw new CacheException("Block size must be at least 16 bytes for the cache " + id + ", but was " + blockSize);
+    }
+    this.blockSize = blockSize;
+    reset();
+  }
+
+  public void setEvictionPolicy(String evictionPolicy) {
+    if (!"LRU".equalsIgnoreCase(evictionPolicy) && !"LFU".equalsIgnoreCase(evictionPolicy)) {
+      throw new CacheException("Unsupported eviction policy '" + evictionPolicy + "' for the cache " + id + ". Use LRU or LFU.");
+    }
+    this.evictionPolicy = evictionPolicy.toUpperCase();
+    reset();
+  }
+
+  public void setCodec(CacheCodec codec) {
+    this.codec = codec;
+    reset();
+  }
+
+  /**
+   * 根据类名设置编解码器
+   * @param codecType 编解码器的类名
+   */
+  public void setCodecType(String codecType) {
+    try {
+      setCodec((CacheCodec) Resources.classForName(codecType).getDeclaredConstructor().newInstance());
+    } catch (Exception e) {
+      throw new CacheException("Could not instantiate cache codec (" + codecType + "). Cause: " + e, e);
+    }
+  }
+
+  @Override
+  public int getSize() {
+    Map<Object, Entry> current = entries;
+    return current == null ? 0 : current.size();
+  }
+
+  @Override
+  public long getEvictionCount() {
+    return evictions.sum();
+  }
+
+  /**
+   * 向缓存写入一条信息
+   * @param key 信息的键
+   * @param value 信息的值
+   */
+  @Override
+  public void putObject(Object key, Object value) {
+    // 在锁外编码，值为null时删除原来的条目，不需要解码
+    byte[] data = value == null ? null : codec.encode(value);
+    long stamp = lock.writeLock();
+    try {
+      initializeIfNecessary();
+      if (data == null) {
+        discard(entries.remove(key));
+      } else {
+        store(key, data);
+      }
+    } finally {
+      lock.unlockWrite(stamp);
+    }
+  }
+
+  /**
+   * 向缓存批量写入信息，全部编码后只获取一次锁
+   * @param entries 要写入的信息
+   */
+  @Override
+  public void putAll(Map<Object, Object> entries) {
+    Map<Object, byte[]> encoded = new LinkedHashMap<>();
+    for (Map.Entry<Object, Object> entry : entries.entrySet()) {
+      Object value = entry.getValue();
+      encoded.put(entry.getKey(), value == null ? null : codec.encode(value));
+    }
+    long stamp = lock.writeLock();
+    try {
+      initializeIfNecessary();
+      for (Map.Entry<Object, byte[]> entry : encoded.entrySet()) {
+        if (entry.getValue() == null) {
+          discard(this.entries.remove(entry.getKey()));
+        } else {
+          store(entry.getKey(), entry.getValue());
+        }
+      }
+    } finally {
+      lock.unlockWrite(stamp);
+    }
+  }
+
+  /**
+   * 将编码后的信息写入堆外内存，调用者需要持有锁
+   * @param key 信息的键
+   * @param data 编码后的信息
+   */
+  private void store(Object key, byte[] data) {
+    discard(entries.remove(key));
+    int needed = (data.length + blockSize - 1) / blockSize;
+    if (needed > totalBlocks) {
+      // 值比整个缓存还大，不缓存
+      return;
+    }
+    while (availableBlocks() < needed) {
+      evictOne();
+    }
+    Entry entry = new Entry(key, allocateBlocks(needed), data.length);
+    write(entry, data);
+    entries.put(key, entry);
+    evictionQueue.offer(entry);
+  }
+
+  /**
+   * 释放被删除条目的块，调用者需要持有写锁。条目留在淘汰队列中，过多时统一清除
+   * @param entry 被删除的条目，可以为null
+   */
+  private void discard(Entry entry) {
+    if (entry == null) {
+      return;
+    }
+    freeBlocks(entry);
+    if (++deadEntries > entries.size() + 16) {
+      evictionQueue.removeIf(queued -> !isAlive(queued));
+      deadEntries = 0;
+    }
+  }
+
+  /**
+   * 从缓存中读取一条信息。先在乐观读下复制条目的字节，期间有写入时再加共享的读锁重新复制
+   * @param key 信息的键
+   * @return 信息的值，每次读取都是一个新的副本
+   */
+  @Override
+  public Object getObject(Object key) {
+    long stamp = lock.tryOptimisticRead();
+    if (stamp != 0L) {
+      try {
+        byte[] data = copyEntry(key);
+        if (lock.validate(stamp)) {
+          // 在锁外解码
+          return data == null ? null : codec.decode(data);
+        }
+      } catch (RuntimeException e) {
+        // 与写入并发时可能读到不一致的状态，加读锁后重新读取
+      }
+    }
+    byte[] data;
+    stamp = lock.readLock();
+    try {
+      data = copyEntry(key);
+    } finally {
+      lock.unlockRead(stamp);
+    }
+    return data == null ? null : codec.decode(data);
+  }
+
+  /**
+   * 复制条目的字节并记录这次读取，不修改任何共享的结构
+   * @param key 信息的键
+   * @return 条目的字节，不存在时为null
+   */
+  private byte[] copyEntry(Object key) {
+    Map<Object, Entry> current = entries;
+    if (current == null) {
+      return null;
+    }
+    Entry entry = current.get(key);
+    if (entry == null) {
+      return null;
+    }
+    entry.referenced = true;
+    entry.hits++;
+    return read(entry);
+  }
+
+  /**
+   * 从缓存中删除一条信息，释放其占用的块
+   * @param key 信息的键
+   * @return 被删除的信息，解码出的副本
+   */
+  @Override
+  public Object removeObject(Object key) {
+    byte[] data = null;
+    long stamp = lock.writeLock();
+    try {
+      if (entries != null) {
+        Entry entry = entries.remove(key);
+        if (entry != null) {
+          // 释放块之前复制出原来的信息
+          data = read(entry);
+          discard(entry);
+        }
+      }
+    } finally {
+      lock.unlockWrite(stamp);
+    }
+    return data == null ? null : codec.decode(data);
+  }
+
+  /**
+   * 清空缓存。已经分配的slab保留下来供之后的写入使用，避免反复申请堆外内存
+   */
+  @Override
+  public void clear() {
+    long stamp = lock.writeLock();
+    try {
+      if (entries != null) {
+        entries.clear();
+        evictionQueue.clear();
+        deadEntries = 0;
+        freeCount = 0;
+        nextUnusedBlock = 0;
+      }
+    } finally {
+      lock.unlockWrite(stamp);
+    }
+  }
+
+  /**
+   * 配置变化后丢弃全部的内部结构，下次使用时按照新的配置重新创建
+   */
+  private void reset() {
+    long stamp = lock.writeLock();
+    try {
+      entries = null;
+      evictionQueue = null;
+      slabs = null;
+      freeBlocks = null;
+    } finally {
+      lock.unlockWrite(stamp);
+    }
+  }
+
+  /**
+   * 第一次使用时按照当前的配置创建内部结构
+   */
+  private void initializeIfNecessary() {
+    if (entries != null) {
+      return;
+    }
+    long blocks = Math.min(capacity / blockSize, Integer.MAX_VALUE);
+    if (blocks == 0) {
+      throw new CacheException("Capacity " + capacity + " of the cache " + id + " is smaller than the block size " + blockSize);
+    }
+    totalBlocks = (int) blocks;
+    blocksPerSlab = Math.min(Math.max(MAX_SLAB_SIZE / blockSize, 1), totalBlocks);
+    slabs = new ByteBuffer[(totalBlocks + blocksPerSlab - 1) / blocksPerSlab];
+    freeBlocks = new int[totalBlocks];
+    freeCount = 0;
+    nextUnusedBlock = 0;
+    evictionQueue = new ArrayDeque<>();
+    deadEntries = 0;
+    entries = new ConcurrentHashMap<>();
+  }
+
+  private int availableBlocks() {
+    return freeCount + (totalBlocks - nextUnusedBlock);
+  }
+
+  /**
+   * 分配指定数目的块，优先使用已经释放的块
+   * @param count 需要的块数
+   * @return 块的编号
+   */
+  private int[] allocateBlocks(int count) {
+    int[] blocks = new int[count];
+    for (int i = 0; i < count; i++) {
+      if (freeCount > 0) {
+        blocks[i] = freeBlocks[--freeCount];
+      } else {
+        int block = nextUnusedBlock++;
+        int slab = block / blocksPerSlab;
+        if (slabs[slab] == null) {
+          int slabBlocks = Math.min(blocksPerSlab, totalBlocks - slab * blocksPerSlab);
+          slabs[slab] = ByteBuffer.allocateDirect(slabBlocks * blockSize);
+        }
+        blocks[i] = block;
+      }
+    }
+    return blocks;
+  }
+
+  private void freeBlocks(Entry entry) {
+    for (int block : entry.blocks) {
+      freeBlocks[freeCount++] = block;
+    }
+  }
+
+  /**
+   * 按照淘汰策略淘汰一个条目，调用者需要持有写锁
+   */
+  private void evictOne() {
+    Entry victim = "LFU".equals(evictionPolicy) ? leastFrequentlyRead() : leastRecentlyRead();
+    if (victim == null) {
+      throw new CacheException("No entry left to evict in the cache " + id);
+    }
+    entries.remove(victim.key, victim);
+    freeBlocks(victim);
+    evictions.increment();
+  }
+
+  /**
+   * 按写入顺序扫描，上次扫描后被读取过的条目获得二次机会
+   * @return 要淘汰的条目，已经从淘汰队列中移除
+   */
+  private Entry leastRecentlyRead() {
+    // 最多给予的二次机会次数，防止读操作不断设置访问标志导致无法结束
+    int chances = entries.size();
+    Entry victim;
+    while ((victim = evictionQueue.poll()) != null) {
+      if (!isAlive(victim)) {
+        continue;
+      }
+      if (victim.referenced && chances-- > 0) {
+        victim.referenced = false;
+        evictionQueue.offer(victim);
+        continue;
+      }
+      return victim;
+    }
+    return null;
+  }
+
+  /**
+   * 在最老的若干条目中选择读取次数最少的
+   * @return 要淘汰的条目，已经从淘汰队列中移除
+   */
+  private Entry leastFrequentlyRead() {
+    Entry victim = null;
+    int sampled = 0;
+    Iterator<Entry> iterator = evictionQueue.iterator();
+    while (sampled < LFU_SAMPLE_SIZE && iterator.hasNext()) {
+      Entry next = iterator.next();
+      if (!isAlive(next)) {
+        iterator.remove();
+        continue;
+      }
+      sampled++;
+      if (victim == null || next.hits < victim.hits) {
+        victim = next;
+      }
+    }
+    if (victim != null) {
+      evictionQueue.removeFirstOccurrence(victim);
+    }
+    return victim;
+  }
+
+  private boolean isAlive(Entry entry) {
+    return entries.get(entry.key) == entry;
+  }
+
+  private void write(Entry entry, byte[] data) {
+    int offset = 0;
+    for (int block : entry.blocks) {
+      int length = Math.min(blockSize, data.length - offset);
+      ByteBuffer slab = slabs[block / blocksPerSlab];
+      slab.position((block % blocksPerSlab) * blockSize);
+      slab.put(data, offset, length);
+      offset += length;
+    }
+  }
+
+  /**
+   * 复制条目的字节。读取可能并发进行，因此使用slab的副本视图，不修改共享的读写位置
+   * @param entry 条目
+   * @return 条目的字节
+   */
+  private byte[] read(Entry entry) {
+    byte[] data = new byte[entry.length];
+    int offset = 0;
+    for (int block : entry.blocks) {
+      int length = Math.min(blockSize, data.length - offset);
+      ByteBuffer slab = slabs[block / blocksPerSlab].duplicate();
+      slab.position((block % blocksPerSlab) * blockSize);
+      slab.get(data, offset, length);
+      offset += length;
+    }
+    return data;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (getId() == null) {
+      throw new CacheException("Cache instances require an ID.");
+    }
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof Cache)) {
+      return false;
+    }
+
+    Cache otherCache = (Cache) o;
+    return getId().equals(otherCache.getId());
+  }
+
+  @Override
+  public int hashCode() {
+    if (getId() == null) {
+      throw new CacheException("Cache instances require an ID.");
+    }
+    return getId().hashCode();
+  }
+
+  /**
+   * 缓存条目，记录值所在的块
+   */
+  private static final class Entry {
+    // 条目的键
+    final Object key;
+    // 值所在的块，按顺序排列
+    final int[] blocks;
+    // 编码后的字节数
+    final int length;
+    // 上次扫描后是否被读取过，LRU淘汰时使用
+    volatile boolean referenced;
+    // 读取次数，LFU淘汰时使用。并发读取时可能少计，只影响淘汰的选择
+    volatile int hits;
+
+    Entry(Object key, int[] blocks, int length) {
+      this.key = key;
+      this.blocks = blocks;
+      this.length = length;
+    }
+  }
+
+}
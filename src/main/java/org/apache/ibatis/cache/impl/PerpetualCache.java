@@ -29,10 +29,20 @@ public class PerpetualCache implements Cache {
   // Cache的id，一般为所在的namespace
   private final String id;
   // 用来存储要缓存的信息
-  private Map<Object, Object> cache = new HashMap<>();
+  private final Map<Object, Object> cache;
 
   public PerpetualCache(String id) {
+    this(id, new HashMap<>());
+  }
+
+  /**
+   * 使用指定的Map存储信息，供子类改变存储的顺序
+   * @param id 缓存id
+   * @param cache 用来存储信息的Map
+   */
+  protected PerpetualCache(String id, Map<Object, Object> cache) {
     this.id = id;
+    this.cache = cache;
   }
 
   @Override
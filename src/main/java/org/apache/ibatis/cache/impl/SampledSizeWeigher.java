@@ -0,0 +1,217 @@
+/**
+ *    Copyright 2009-2019 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.impl;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.time.temporal.Temporal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.ibatis.cache.CacheWeigher;
+
+/**
+ * Default weigher, an estimate of the heap bytes retained by an entry.
+ * <p>
+ * Byte arrays, which is what read-write caches store, are weighed exactly. For lists and other
+ * collections, the size of at most {@value #SAMPLE_SIZE} evenly spread elements is estimated and
+ * multiplied by the number of elements, so weighing a 50k rows result costs about as much as weighing
+ * a few rows. Objects are estimated from their fields, following references up to a small depth.
+ */
+public class SampledSizeWeigher implements CacheWeigher {
+
+  // 每个集合中估算大小的元素个数
+  private static final int SAMPLE_SIZE = 16;
+  // 沿引用估算大小的最大深度
+  private static final int MAX_DEPTH = 4;
+  // 对象头的大小
+  private static final int OBJECT_HEADER = 16;
+  // 引用的大小
+  private static final int REFERENCE = 8;
+  // 每条缓存信息除值以外的开销，包括键和缓存内部的节点
+  private static final int ENTRY_OVERHEAD = 128;
+
+  // 各个类的实例字段
+  private final ConcurrentHashMap<Class<?>, Field[]> fieldsCache = new ConcurrentHashMap<>();
+
+  @Override
+  public long weigh(Object key, Object value) {
+    return ENTRY_OVERHEAD + estimate(value, 0);
+  }
+
+  /**
+   * 估算对象占用的堆内存
+   * @param value 对象
+   * @param depth 当前的引用深度
+   * @return 估算的字节数
+   */
+  private long estimate(Object value, int depth) {
+    if (value == null) {
+      return 0;
+    }
+    if (value instanceof byte[]) {
+      return align(OBJECT_HEADER + ((byte[]) value).length);
+    }
+    if (value instanceof String) {
+      return align(OBJECT_HEADER + 24 + 2L * ((String) value).length());
+    }
+    if (value instanceof Number || value instanceof Boolean || value instanceof Character
+        || value instanceof Date || value instanceof Temporal) {
+      return 24;
+    }
+    if (value instanceof Enum || value instanceof Class) {
+      // 共享的实例
+      return 0;
+    }
+    Class<?> type = value.getClass();
+    if (type.isArray()) {
+      return estimateArray(value, type.getComponentType(), depth);
+    }
+    if (depth >= MAX_DEPTH) {
+      return OBJECT_HEADER;
+    }
+    if (value instanceof Collection) {
+      Collection<?> collection = (Collection<?>) value;
+      return align(OBJECT_HEADER + 32 + (long) collection.size() * REFERENCE)
+          + sampledSize(collection, collection.size(), depth + 1);
+    }
+    if (value instanceof Map) {
+      Map<?, ?> map = (Map<?, ?>) value;
+      // 每个映射项大约需要一个节点对象和一个桶
+      return align(OBJECT_HEADER + 48 + (long) map.size() * (OBJECT_HEADER + 24))
+          + sampledSize(map.keySet(), map.size(), depth + 1)
+          + sampledSize(map.values(), map.size(), depth + 1);
+    }
+    return estimateFields(value, type, depth);
+  }
+
+  private long estimateArray(Object array, Class<?> componentType, int depth) {
+    int length = Array.getLength(array);
+    if (componentType.isPrimitive()) {
+      return align(OBJECT_HEADER + (long) length * primitiveSize(componentType));
+    }
+    long size = align(OBJECT_HEADER + (long) length * REFERENCE);
+    if (depth >= MAX_DEPTH || length == 0) {
+      return size;
+    }
+    List<Object> elements = new ArrayList<>(Math.min(length, SAMPLE_SIZE));
+    int step = Math.max(1, length / SAMPLE_SIZE);
+    for (int i = 0; i < length && elements.size() < SAMPLE_SIZE; i += step) {
+      elements.add(Array.get(array, i));
+    }
+    return size + sampledSize(elements, length, depth + 1);
+  }
+
+  /**
+   * 抽样估算集合中元素的总大小
+   * @param elements 元素
+   * @param count 元素总数
+   * @param depth 元素的引用深度
+   * @return 估算的字节数
+   */
+  private long sampledSize(Collection<?> elements, int count, int depth) {
+    if (count == 0) {
+      return 0;
+    }
+    long total = 0;
+    int sampled = 0;
+    if (elements instanceof List && elements instanceof RandomAccess) {
+      List<?> list = (List<?>) elements;
+      int step = Math.max(1, count / SAMPLE_SIZE);
+      for (int i = 0; i < list.size() && sampled < SAMPLE_SIZE; i += step) {
+        total += estimate(list.get(i), depth);
+        sampled++;
+      }
+    } else {
+      Iterator<?> iterator = elements.iterator();
+      while (iterator.hasNext() && sampled < SAMPLE_SIZE) {
+        total += estimate(iterator.next(), depth);
+        sampled++;
+      }
+    }
+    return sampled == 0 ? 0 : total * count / sampled;
+  }
+
+  private long estimateFields(Object value, Class<?> type, int depth) {
+    Field[] fields = fieldsCache.computeIfAbsent(type, this::instanceFields);
+    long size = OBJECT_HEADER;
+    for (Field field : fields) {
+      Class<?> fieldType = field.getType();
+      if (fieldType.isPrimitive()) {
+        size += primitiveSize(fieldType);
+      } else {
+        size += REFERENCE;
+        try {
+          size += estimate(field.get(value), depth + 1);
+        } catch (IllegalAccessException e) {
+          // 无法访问的字段只计算引用
+        }
+      }
+    }
+    return align(size);
+  }
+
+  /**
+   * 获取类的可访问的实例字段，包括父类的。JDK的类不展开，只计算对象头
+   * @param type 类
+   * @return 实例字段
+   */
+  private Field[] instanceFields(Class<?> type) {
+    List<Field> fields = new ArrayList<>();
+    for (Class<?> current = type; current != null && current != Object.class; current = current.getSuperclass()) {
+      if (current.getName().startsWith("java.") || current.getName().startsWith("javax.")) {
+        break;
+      }
+      for (Field field : current.getDeclaredFields()) {
+        if (Modifier.isStatic(field.getModifiers())) {
+          continue;
+        }
+        try {
+          field.setAccessible(true);
+          fields.add(field);
+        } catch (RuntimeException e) {
+          // 模块系统等原因无法访问，忽略该字段
+        }
+      }
+    }
+    return fields.toArray(new Field[0]);
+  }
+
+  private static int primitiveSize(Class<?> type) {
+    if (type == long.class || type == double.class) {
+      return 8;
+    }
+    if (type == int.class || type == float.class) {
+      return 4;
+    }
+    if (type == short.class || type == char.class) {
+      return 2;
+    }
+    return 1;
+  }
+
+  private static long align(long size) {
+    return (size + 7) & ~7L;
+  }
+
+}
@@ -0,0 +1,37 @@
+/**
+ *    Copyright 2009-2019 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cursor;
+
+/**
+ * A provider of a potentially unbounded number of items, published to a {@link Subscriber} on its demand.
+ * <p>
+ * This has the same contract as {@code java.util.concurrent.Flow.Publisher} and {@code org.reactivestreams.Publisher},
+ * which MyBatis cannot use as it runs on Java 8 without any required dependency. Adapting it to one of them is a
+ * matter of delegating the four callbacks.
+ *
+ * @param <T> the published item type
+ * @see org.apache.ibatis.session.SqlSession#selectPublisher(String, Object, org.apache.ibatis.session.RowBounds)
+ */
+@FunctionalInterface
+public interface Publisher<T> {
+
+  /**
+   * 添加一个订阅者，订阅者的onSubscribe方法会被调用且只调用一次
+   * @param subscriber 订阅者
+   */
+  void subscribe(Subscriber<? super T> subscriber);
+
+}
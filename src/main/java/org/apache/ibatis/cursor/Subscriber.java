@@ -0,0 +1,52 @@
+/**
+ *    Copyright 2009-2019 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cursor;
+
+/**
+ * A receiver of the items of a {@link Publisher}.
+ * <p>
+ * The methods are called one at a time, possibly from different threads. No item is sent before it was asked for
+ * with {@link Subscription#request(long)}. After {@link #onComplete()} or {@link #onError(Throwable)} no more
+ * method is called.
+ *
+ * @param <T> the received item type
+ */
+public interface Subscriber<T> {
+
+  /**
+   * 订阅开始时调用，订阅者通过订阅请求数据或者取消订阅
+   * @param subscription 订阅
+   */
+  void onSubscribe(Subscription subscription);
+
+  /**
+   * 收到一个请求过的数据项
+   * @param item 数据项
+   */
+  void onNext(T item);
+
+  /**
+   * 发生错误，订阅结束
+   * @param throwable 错误
+   */
+  void onError(Throwable throwable);
+
+  /**
+   * 所有数据项都已发出，订阅结束
+   */
+  void onComplete();
+
+}
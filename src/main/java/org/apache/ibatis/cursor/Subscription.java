@@ -0,0 +1,34 @@
+/**
+ *    Copyright 2009-2019 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cursor;
+
+/**
+ * The link between a {@link Publisher} and one of its {@link Subscriber}s.
+ */
+public interface Subscription {
+
+  /**
+   * 请求更多的数据项，请求数目会累加。请求数目不是正数时订阅以IllegalArgumentException结束
+   * @param n 请求的数目
+   */
+  void request(long n);
+
+  /**
+   * 取消订阅，之后不再发出数据项，并释放相关的资源
+   */
+  void cancel();
+
+}
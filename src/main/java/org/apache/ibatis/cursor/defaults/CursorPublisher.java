@@ -0,0 +1,199 @@
+/**
+ *    Copyright 2009-2019 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cursor.defaults;
+
+import java.util.Iterator;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.ibatis.cursor.Cursor;
+import org.apache.ibatis.cursor.Publisher;
+import org.apache.ibatis.cursor.Subscriber;
+import org.apache.ibatis.cursor.Subscription;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.RowBounds;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.defaults.DefaultSqlSessionFactory;
+
+/**
+ * Publishes the rows of a select, read through a {@link Cursor}.
+ * <p>
+ * Every subscription runs the select in a new auto-commit session, opened on the first request. Rows are read
+ * as they are requested: once the demand is met the cursor is left positioned (at most one row ahead) until the
+ * subscriber requests more. The cursor and its session are closed on completion, on error and on cancel.
+ * <p>
+ * The rows are read and sent on the async query executor service of the configuration, by one task at a time
+ * for a subscription, so the subscriber methods are never called concurrently nor from within
+ * {@link Subscription#request(long)}.
+ *
+ * @param <T> the mapped row type
+ */
+public class CursorPublisher<T> implements Publisher<T> {
+
+  private final Configuration configuration;
+  private final String statement;
+  private final Object parameter;
+  private final RowBounds rowBounds;
+
+  public CursorPublisher(Configuration configuration, String statement, Object parameter, RowBounds rowBounds) {
+    this.configuration = configuration;
+    this.statement = statement;
+    this.parameter = parameter;
+    this.rowBounds = rowBounds;
+  }
+
+  @Override
+  public void subscribe(Subscriber<? super T> subscriber) {
+    if (subscriber == null) {
+      throw new NullPointerException("subscriber");
+    }
+    subscriber.onSubscribe(new CursorSubscription(subscriber));
+  }
+
+  private class CursorSubscription implements Subscription, Runnable {
+
+    private final Subscriber<? super T> subscriber;
+    // 尚未满足的请求数目，Long.MAX_VALUE表示不限数目
+    private final AtomicLong requested = new AtomicLong();
+    // 需要执行的发送轮次，不为0时已经有任务在发送
+    private final AtomicInteger pendingDrains = new AtomicInteger();
+    private volatile boolean cancelled;
+    private volatile boolean badRequest;
+    // 以下字段只在发送任务中访问
+    private boolean done;
+    private SqlSession session;
+    private Cursor<T> cursor;
+    private Iterator<T> iterator;
+
+    private CursorSubscription(Subscriber<? super T> subscriber) {
+      this.subscriber = subscriber;
+    }
+
+    @Override
+    public void request(long n) {
+      if (n <= 0) {
+        badRequest = true;
+      } else {
+        requested.getAndUpdate(current -> current + n < 0 ? Long.MAX_VALUE : current + n);
+      }
+      schedule();
+    }
+
+    @Override
+    public void cancel() {
+      cancelled = true;
+      schedule();
+    }
+
+    /**
+     * 提交发送任务，已经有任务在执行时由该任务再执行一轮
+     */
+    private void schedule() {
+      if (pendingDrains.getAndIncrement() == 0) {
+        try {
+          configuration.getAsyncQueryExecutorService().execute(this);
+        } catch (RejectedExecutionException e) {
+          // 没有任务在执行，可以直接在当前线程结束订阅
+          fail(e);
+        }
+      }
+    }
+
+    @Override
+    public void run() {
+      int drains = 1;
+      do {
+        drain();
+        drains = pendingDrains.addAndGet(-drains);
+      } while (drains != 0);
+    }
+
+    /**
+     * 按照请求数目读取并发送数据，读完或者取消时关闭游标和会话
+     */
+    private void drain() {
+      if (done) {
+        return;
+      }
+      if (cancelled) {
+        done = true;
+        close();
+        return;
+      }
+      if (badRequest) {
+        fail(new IllegalArgumentException("Subscription.request requires a positive number of items."));
+        return;
+      }
+      try {
+        if (iterator == null) {
+          session = new DefaultSqlSessionFactory(configuration).openSession(true);
+          cursor = session.selectCursor(statement, parameter, rowBounds);
+          iterator = cursor.iterator();
+        }
+        while (!cancelled) {
+          // 预读一行，以便在请求数目刚好用完时也能结束订阅
+          if (!iterator.hasNext()) {
+            done = true;
+            close();
+            subscriber.onComplete();
+            return;
+          }
+          long current = requested.get();
+          if (current == 0) {
+            return;
+          }
+          if (current != Long.MAX_VALUE) {
+            requested.decrementAndGet();
+          }
+          subscriber.onNext(iterator.next());
+        }
+        done = true;
+        close();
+      } catch (RuntimeException e) {
+        fail(e);
+      }
+    }
+
+    private void fail(Throwable throwable) {
+      if (!done) {
+        done = true;
+        close();
+        if (!cancelled) {
+          subscriber.onError(throwable);
+        }
+      }
+    }
+
+    private void close() {
+      try {
+        if (cursor != null) {
+          cursor.close();
+        }
+      } catch (Exception e) {
+        // ignore
+      } finally {
+        cursor = null;
+        iterator = null;
+        if (session != null) {
+          session.close();
+          session = null;
+        }
+      }
+    }
+  }
+
+}
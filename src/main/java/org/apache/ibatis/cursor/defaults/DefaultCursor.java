@@ -132,6 +132,8 @@ public class DefaultCursor<T> implements Cursor<T> {
       // ignore
     } finally {
       status = CursorStatus.CLOSED;
+      // 释放结果集处理器中用来合并嵌套结果的对象
+      resultSetHandler.cleanUpAfterCursor();
     }
   }
 
@@ -17,6 +17,8 @@ package org.apache.ibatis.datasource.pooled;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * @author Clinton Begin
@@ -26,6 +28,10 @@ public class PoolState {
 
   // 池化数据源
   protected PooledDataSource dataSource;
+  // 保护连接池状态的锁。不使用synchronized，等待连接时不会把虚拟线程钉在载体线程上
+  protected final ReentrantLock lock = new ReentrantLock();
+  // 有连接归还到池中时发出的信号
+  protected final Condition condition = lock.newCondition();
   // 空闲的连接
   protected final List<PooledConnection> idleConnections = new ArrayList<>();
   // 活动的连接
@@ -51,50 +57,108 @@ public class PoolState {
     this.dataSource = dataSource;
   }
 
-  public synchronized long getRequestCount() {
-    return requestCount;
+  public long getRequestCount() {
+    lock.lock();
+    try {
+      return requestCount;
+    } finally {
+      lock.unlock();
+    }
   }
 
-  public synchronized long getAverageRequestTime() {
-    return requestCount == 0 ? 0 : accumulatedRequestTime / requestCount;
+  public long getAverageRequestTime() {
+    lock.lock();
+    try {
+      return requestCount == 0 ? 0 : accumulatedRequestTime / requestCount;
+    } finally {
+      lock.unlock();
+    }
   }
 
-  public synchronized long getAverageWaitTime() {
-    return hadToWaitCount == 0 ? 0 : accumulatedWaitTime / hadToWaitCount;
-
+  public long getAverageWaitTime() {
+    lock.lock();
+    try {
+      return hadToWaitCount == 0 ? 0 : accumulatedWaitTime / hadToWaitCount;
+    } finally {
+      lock.unlock();
+    }
   }
 
-  public synchronized long getHadToWaitCount() {
-    return hadToWaitCount;
+  public long getHadToWaitCount() {
+    lock.lock();
+    try {
+      return hadToWaitCount;
+    } finally {
+      lock.unlock();
+    }
   }
 
-  public synchronized long getBadConnectionCount() {
-    return badConnectionCount;
+  public long getBadConnectionCount() {
+    lock.lock();
+    try {
+      return badConnectionCount;
+    } finally {
+      lock.unlock();
+    }
   }
 
-  public synchronized long getClaimedOverdueConnectionCount() {
-    return claimedOverdueConnectionCount;
+  public long getClaimedOverdueConnectionCount() {
+    lock.lock();
+    try {
+      return claimedOverdueConnectionCount;
+    } finally {
+      lock.unlock();
+    }
   }
 
-  public synchronized long getAverageOverdueCheckoutTime() {
-    return claimedOverdueConnectionCount == 0 ? 0 : accumulatedCheckoutTimeOfOverdueConnections / claimedOverdueConnectionCount;
+  public long getAverageOverdueCheckoutTime() {
+    lock.lock();
+    try {
+      return claimedOverdueConnectionCount == 0 ? 0 : accumulatedCheckoutTimeOfOverdueConnections / claimedOverdueConnectionCount;
+    } finally {
+      lock.unlock();
+    }
   }
 
-  public synchronized long getAverageCheckoutTime() {
-    return requestCount == 0 ? 0 : accumulatedCheckoutTime / requestCount;
+  public long getAverageCheckoutTime() {
+    lock.lock();
+    try {
+      return requestCount == 0 ? 0 : accumulatedCheckoutTime / requestCount;
+    } finally {
+      lock.unlock();
+    }
   }
 
 
-  public synchronized int getIdleConnectionCount() {
-    return idleConnections.size();
+  public int getIdleConnectionCount() {
+    lock.lock();
+    try {
+      return idleConnections.size();
+    } finally {
+      lock.unlock();
+    }
   }
 
-  public synchronized int getActiveConnectionCount() {
-    return activeConnections.size();
+  public int getActiveConnectionCount() {
+    lock.lock();
+    try {
+      return activeConnections.size();
+    } finally {
+      lock.unlock();
+    }
   }
 
   @Override
-  public synchronized String toString() {
+  public String toString() {
+    lock.lock();
+    try {
+      return buildString();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private String buildString() {
     StringBuilder builder = new StringBuilder();
     builder.append("\n===CONFINGURATION==============================================");
     builder.append("\n jdbcDriver                     ").append(dataSource.getDriver());
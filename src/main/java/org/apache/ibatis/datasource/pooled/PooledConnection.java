@@ -50,6 +50,8 @@ class PooledConnection implements InvocationHandler {
   private int connectionTypeCode;
   // 连接是否可用
   private boolean valid;
+  // 真正的连接上缓存的预编译语句，没有启用语句缓存时为null
+  private PooledStatementCache statementCache;
 
   /**
    * Constructor for SimplePooledConnection that uses the Connection and PooledDataSource passed in.
@@ -210,6 +212,35 @@ class PooledConnection implements InvocationHandler {
     return System.currentTimeMillis() - checkoutTimestamp;
   }
 
+  /**
+   * Getter for the prepared statements cached on the real connection.
+   *
+   * @return the statement cache, null if none was created yet
+   */
+  PooledStatementCache getStatementCache() {
+    return statementCache;
+  }
+
+  /**
+   * Setter for the prepared statements cached on the real connection, used when the real connection
+   * is wrapped by a new pooled connection.
+   *
+   * @param statementCache the statement cache
+   */
+  void setStatementCache(PooledStatementCache statementCache) {
+    this.statementCache = statementCache;
+  }
+
+  /**
+   * Really closes the cached prepared statements, to be called before the real connection is closed.
+   */
+  void closeCachedStatements() {
+    if (statementCache != null) {
+      statementCache.close();
+      statementCache = null;
+    }
+  }
+
   @Override
   public int hashCode() {
     return hashCode;
@@ -262,6 +293,13 @@ class PooledConnection implements InvocationHandler {
       if (!Object.class.equals(method.getDeclaringClass())) {
         checkConnection();
       }
+      if (dataSource.getPoolPreparedStatementCacheSize() > 0 && PooledStatementCache.isCacheable(method, args)) {
+        // 从连接的语句缓存中取出预编译语句
+        if (statementCache == null) {
+          statementCache = new PooledStatementCache(dataSource.getPoolPreparedStatementCacheSize());
+        }
+        return statementCache.prepareStatement(this, args);
+      }
       // 用真正的连接去执行操作
       return method.invoke(realConnection, args);
     } catch (Throwable t) {
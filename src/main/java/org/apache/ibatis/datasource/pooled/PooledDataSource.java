@@ -23,6 +23,7 @@ import java.sql.DriverManager;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.Properties;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
 import javax.sql.DataSource;
@@ -54,6 +55,8 @@ public class PooledDataSource implements DataSource {
   protected String poolPingQuery = "NO PING QUERY SET";
   protected boolean poolPingEnabled;
   protected int poolPingConnectionsNotUsedFor;
+  // 每个连接缓存的预编译语句数目，0表示不缓存
+  protected int poolPreparedStatementCacheSize;
 
   // 存储池子中的连接的编码，编码用("" + url + username + password).hashCode()算出来
   // 因此，整个池子中的所有连接的编码必须是一致的，里面的连接是等价的
@@ -254,6 +257,17 @@ public class PooledDataSource implements DataSource {
     forceCloseAll();
   }
 
+  /**
+   * The number of prepared statements kept open per connection, so that they are reused across sessions.
+   * Zero (the default) disables the cache. Only useful for drivers that don't cache statements themselves.
+   *
+   * @param poolPreparedStatementCacheSize the number of statements cached per connection
+   */
+  public void setPoolPreparedStatementCacheSize(int poolPreparedStatementCacheSize) {
+    this.poolPreparedStatementCacheSize = poolPreparedStatementCacheSize;
+    forceCloseAll();
+  }
+
   public String getDriver() {
     return dataSource.getDriver();
   }
@@ -321,11 +335,16 @@ public class PooledDataSource implements DataSource {
     return poolPingConnectionsNotUsedFor;
   }
 
+  public int getPoolPreparedStatementCacheSize() {
+    return poolPreparedStatementCacheSize;
+  }
+
   /**
    * 将活动和空闲的连接全部关闭
    */
   public void forceCloseAll() {
-    synchronized (state) { // 增加同步锁
+    state.lock.lock(); // 增加同步锁
+    try {
       // 重新计算和更新连接类型编码
       expectedConnectionTypeCode = assembleConnectionTypeCode(dataSource.getUrl(), dataSource.getUsername(), dataSource.getPassword());
       // 依次关闭所有的活动连接
@@ -333,6 +352,7 @@ public class PooledDataSource implements DataSource {
         try {
           PooledConnection conn = state.activeConnections.remove(i - 1);
           conn.invalidate();
+          conn.closeCachedStatements();
 
           Connection realConn = conn.getRealConnection();
           if (!realConn.getAutoCommit()) {
@@ -348,6 +368,7 @@ public class PooledDataSource implements DataSource {
         try {
           PooledConnection conn = state.idleConnections.remove(i - 1);
           conn.invalidate();
+          conn.closeCachedStatements();
 
           Connection realConn = conn.getRealConnection();
           if (!realConn.getAutoCommit()) {
@@ -358,6 +379,8 @@ public class PooledDataSource implements DataSource {
           // ignore
         }
       }
+    } finally {
+      state.lock.unlock();
     }
     if (log.isDebugEnabled()) {
       log.debug("PooledDataSource forcefully closed/removed all connections.");
@@ -385,7 +408,8 @@ public class PooledDataSource implements DataSource {
    * @throws SQLException
    */
   protected void pushConnection(PooledConnection conn) throws SQLException {
-    synchronized (state) {
+    state.lock.lock();
+    try {
       // 将该连接从活跃连接中删除
       state.activeConnections.remove(conn);
       if (conn.isValid()) { // 当前连接是可用的
@@ -398,6 +422,8 @@ public class PooledDataSource implements DataSource {
           }
           // 重新整理连接
           PooledConnection newConn = new PooledConnection(conn.getRealConnection(), this);
+          // 语句缓存随真正的连接一起交给新的连接
+          newConn.setStatementCache(conn.getStatementCache());
           // 将连接放入空闲连接池
           state.idleConnections.add(newConn);
           newConn.setCreatedTimestamp(conn.getCreatedTimestamp());
@@ -407,13 +433,14 @@ public class PooledDataSource implements DataSource {
           if (log.isDebugEnabled()) {
             log.debug("Returned connection " + newConn.getRealHashCode() + " to pool.");
           }
-          state.notifyAll();
+          state.condition.signal();
         } else { // 连接池已满或者该连接不属于该连接池
           state.accumulatedCheckoutTime += conn.getCheckoutTime();
           if (!conn.getRealConnection().getAutoCommit()) {
             conn.getRealConnection().rollback();
           }
           // 直接关闭连接，而不是将其放入连接池中
+          conn.closeCachedStatements();
           conn.getRealConnection().close();
           if (log.isDebugEnabled()) {
             log.debug("Closed connection " + conn.getRealHashCode() + ".");
@@ -426,6 +453,8 @@ public class PooledDataSource implements DataSource {
         }
         state.badConnectionCount++;
       }
+    } finally {
+      state.lock.unlock();
     }
   }
 
@@ -445,7 +474,8 @@ public class PooledDataSource implements DataSource {
 
     while (conn == null) {
       // 给state加同步锁
-      synchronized (state) {
+      state.lock.lock();
+      try {
         if (!state.idleConnections.isEmpty()) { // 池中存在空闲连接
           // 左移操作，取出第一个连接
           conn = state.idleConnections.remove(0);
@@ -482,6 +512,7 @@ public class PooledDataSource implements DataSource {
               }
               // 新建一个连接替代超期不还连接的位置
               conn = new PooledConnection(oldestActiveConnection.getRealConnection(), this);
+              conn.setStatementCache(oldestActiveConnection.getStatementCache());
               conn.setCreatedTimestamp(oldestActiveConnection.getCreatedTimestamp());
               conn.setLastUsedTimestamp(oldestActiveConnection.getLastUsedTimestamp());
               oldestActiveConnection.invalidate();
@@ -500,8 +531,8 @@ public class PooledDataSource implements DataSource {
                   log.debug("Waiting as long as " + poolTimeToWait + " milliseconds for connection.");
                 }
                 long wt = System.currentTimeMillis();
-                // 沉睡一段时间再试，防止一直占有计算资源
-                state.wait(poolTimeToWait);
+                // 沉睡一段时间再试，防止一直占有计算资源。等待期间锁被释放
+                state.condition.await(poolTimeToWait, TimeUnit.MILLISECONDS);
                 state.accumulatedWaitTime += System.currentTimeMillis() - wt;
               } catch (InterruptedException e) {
                 break;
@@ -541,6 +572,8 @@ public class PooledDataSource implements DataSource {
             }
           }
         }
+      } finally {
+        state.lock.unlock();
       }
       // 如果到这里还没拿到连接，则会循环此过程，继续尝试取连接
     }
@@ -594,6 +627,7 @@ public class PooledDataSource implements DataSource {
           } catch (Exception e) {
             log.warn("Execution of ping query '" + poolPingQuery + "' failed: " + e.getMessage());
             try {
+              conn.closeCachedStatements();
               conn.getRealConnection().close();
             } catch (Exception e2) {
               //ignore
@@ -0,0 +1,312 @@
+/**
+ *    Copyright 2009-2019 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.LogFactory;
+import org.apache.ibatis.reflection.ExceptionUtil;
+
+/**
+ * A LRU bounded cache of prepared statements that belongs to one real connection.
+ * <p>
+ * It is handed over from one {@link PooledConnection} to the next when the connection goes back to the pool,
+ * so statements survive across sessions. Statements handed out are proxies whose close puts the real statement
+ * back into the cache; a statement is only really closed when evicted or when the connection is closed.
+ */
+class PooledStatementCache {
+
+  private static final Log log = LogFactory.getLog(PooledStatementCache.class);
+
+  private static final String CLOSE = "close";
+  private static final String IS_CLOSED = "isClosed";
+  private static final String GET_CONNECTION = "getConnection";
+  private static final Class<?>[] IFACES = new Class<?>[] { PreparedStatement.class };
+
+  // 缓存的最大语句数目
+  private final int size;
+  // 缓存的语句，按访问顺序排列，最老的在前
+  private final LinkedHashMap<StatementKey, PreparedStatement> statements;
+  // 缓存是否已经关闭
+  private boolean closed;
+  // 保护语句缓存的锁
+  private final ReentrantLock lock = new ReentrantLock();
+
+  PooledStatementCache(int size) {
+    this.size = size;
+    this.statements = new LinkedHashMap<>(size, .75F, true);
+  }
+
+  /**
+   * 判断连接上的方法调用是否可以使用语句缓存
+   * @param method 连接上的方法
+   * @param args 方法参数
+   * @return 是否可以使用语句缓存
+   */
+  static boolean isCacheable(Method method, Object[] args) {
+    if (!"prepareStatement".equals(method.getName()) || args == null) {
+      return false;
+    }
+    Class<?>[] types = method.getParameterTypes();
+    return types.length == 1
+        || (types.length == 3 && types[1] == int.class && types[2] == int.class);
+  }
+
+  /**
+   * 从缓存中取出一个预编译语句，缓存中没有时在真正的连接上创建一个
+   * @param connection 语句所属的连接
+   * @param args prepareStatement的参数
+   * @return 预编译语句的代理
+   * @throws SQLException
+   */
+  PreparedStatement prepareStatement(PooledConnection connection, Object[] args) throws SQLException {
+    String sql = (String) args[0];
+    int resultSetType = args.length == 3 ? (Integer) args[1] : ResultSet.TYPE_FORWARD_ONLY;
+    int resultSetConcurrency = args.length == 3 ? (Integer) args[2] : ResultSet.CONCUR_READ_ONLY;
+    StatementKey key = new StatementKey(sql, resultSetType, resultSetConcurrency);
+    PreparedStatement statement;
+    lock.lock();
+    try {
+      // 取出后从缓存中删除，保证同一条语句同一时刻只有一个使用者
+      statement = statements.remove(key);
+    } finally {
+      lock.unlock();
+    }
+    if (statement == null) {
+      Connection realConnection = connection.getRealConnection();
+      statement = args.length == 3
+          ? realConnection.prepareStatement(sql, resultSetType, resultSetConcurrency)
+          : realConnection.prepareStatement(sql);
+    }
+    CachedStatement handler = new CachedStatement(key, statement, connection.getProxyConnection());
+    return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(), IFACES, handler);
+  }
+
+  /**
+   * 将用完的语句放回缓存，缓存已满时真正关闭最久未用的语句
+   * @param key 语句的键
+   * @param statement 真正的语句
+   */
+  private void release(StatementKey key, PreparedStatement statement) {
+    List<PreparedStatement> toClose = new ArrayList<>(1);
+    lock.lock();
+    try {
+      if (closed || statements.containsKey(key)) {
+        toClose.add(statement);
+      } else {
+        statements.put(key, statement);
+        Iterator<PreparedStatement> eldest = statements.values().iterator();
+        while (statements.size() > size) {
+          toClose.add(eldest.next());
+          eldest.remove();
+        }
+      }
+    } finally {
+      lock.unlock();
+    }
+    closeAll(toClose);
+  }
+
+  /**
+   * 真正关闭缓存中的全部语句，连接被关闭前调用
+   */
+  void close() {
+    List<PreparedStatement> toClose;
+    lock.lock();
+    try {
+      closed = true;
+      toClose = new ArrayList<>(statements.values());
+      statements.clear();
+    } finally {
+      lock.unlock();
+    }
+    closeAll(toClose);
+  }
+
+  int getSize() {
+    lock.lock();
+    try {
+      return statements.size();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private static void closeAll(List<PreparedStatement> statements) {
+    for (PreparedStatement statement : statements) {
+      try {
+        statement.close();
+      } catch (SQLException e) {
+        if (log.isDebugEnabled()) {
+          log.debug("Could not close cached statement: " + e.getMessage());
+        }
+      }
+    }
+  }
+
+  /**
+   * 交给使用者的语句代理，close时将真正的语句放回缓存
+   */
+  private class CachedStatement implements InvocationHandler {
+
+    // 语句的键
+    private final StatementKey key;
+    // 真正的语句
+    private final PreparedStatement statement;
+    // 代理连接，getConnection时返回它，以免使用者拿到真正的连接
+    private final Connection proxyConnection;
+    // 使用者是否已经关闭了该语句
+    private boolean closed;
+    // 使用者是否修改了语句的属性，放回缓存前需要复原
+    private boolean modified;
+    // 是否有尚未执行的批处理，放回缓存前需要清除
+    private boolean batched;
+    // 语句的初始属性
+    private final int queryTimeout;
+    private final int fetchSize;
+    private final int fetchDirection;
+    private final int maxRows;
+    private final int maxFieldSize;
+
+    CachedStatement(StatementKey key, PreparedStatement statement, Connection proxyConnection) throws SQLException {
+      this.key = key;
+      this.statement = statement;
+      this.proxyConnection = proxyConnection;
+      this.queryTimeout = statement.getQueryTimeout();
+      this.fetchSize = statement.getFetchSize();
+      this.fetchDirection = statement.getFetchDirection();
+      this.maxRows = statement.getMaxRows();
+      this.maxFieldSize = statement.getMaxFieldSize();
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+      String methodName = method.getName();
+      if (CLOSE.equals(methodName) && method.getParameterCount() == 0) {
+        if (!closed) {
+          closed = true;
+          recycle();
+        }
+        return null;
+      }
+      if (IS_CLOSED.equals(methodName) && method.getParameterCount() == 0) {
+        return closed;
+      }
+      if (Object.class.equals(method.getDeclaringClass())) {
+        try {
+          return method.invoke(statement, args);
+        } catch (Throwable t) {
+          throw ExceptionUtil.unwrapThrowable(t);
+        }
+      }
+      if (closed) {
+        throw new SQLException("Error accessing cached statement. Statement is closed.");
+      }
+      if (GET_CONNECTION.equals(methodName)) {
+        return proxyConnection;
+      }
+      if (methodName.startsWith("set") && args != null && args.length == 1 && !methodName.equals("setPoolable")
+          && !methodName.equals("setCursorName") && !methodName.equals("setEscapeProcessing")) {
+        modified = true;
+      } else if ("addBatch".equals(methodName)) {
+        batched = true;
+      } else if ("executeBatch".equals(methodName) || "clearBatch".equals(methodName)) {
+        batched = false;
+      }
+      try {
+        return method.invoke(statement, args);
+      } catch (Throwable t) {
+        throw ExceptionUtil.unwrapThrowable(t);
+      }
+    }
+
+    /**
+     * 复原语句的状态并放回缓存，复原失败则真正关闭语句
+     */
+    private void recycle() {
+      try {
+        statement.clearParameters();
+        statement.clearWarnings();
+        if (batched) {
+          statement.clearBatch();
+        }
+        if (modified) {
+          statement.setQueryTimeout(queryTimeout);
+          statement.setFetchSize(fetchSize);
+          statement.setFetchDirection(fetchDirection);
+          statement.setMaxRows(maxRows);
+          statement.setMaxFieldSize(maxFieldSize);
+        }
+      } catch (SQLException e) {
+        closeAll(Collections.singletonList(statement));
+        return;
+      }
+      release(key, statement);
+    }
+  }
+
+  /**
+   * 语句的键，由SQL语句、结果集类型和结果集并发类型组成
+   */
+  private static final class StatementKey {
+
+    private final String sql;
+    private final int resultSetType;
+    private final int resultSetConcurrency;
+
+    StatementKey(String sql, int resultSetType, int resultSetConcurrency) {
+      this.sql = sql;
+      this.resultSetType = resultSetType;
+      this.resultSetConcurrency = resultSetConcurrency;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof StatementKey)) {
+        return false;
+      }
+      StatementKey that = (StatementKey) o;
+      return resultSetType == that.resultSetType
+          && resultSetConcurrency == that.resultSetConcurrency
+          && sql.equals(that.sql);
+    }
+
+    @Override
+    public int hashCode() {
+      int result = sql.hashCode();
+      result = 31 * result + resultSetType;
+      return 31 * result + resultSetConcurrency;
+    }
+  }
+
+}
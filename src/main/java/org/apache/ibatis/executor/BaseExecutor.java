@@ -24,6 +24,8 @@ import java.util.List;
 import java.util.concurrent.ConcurrentLinkedQueue;
 
 import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.cache.CacheStatistics;
+import org.apache.ibatis.cache.impl.BoundedPerpetualCache;
 import org.apache.ibatis.cache.impl.PerpetualCache;
 import org.apache.ibatis.cursor.Cursor;
 import org.apache.ibatis.executor.statement.StatementUtil;
@@ -77,6 +79,8 @@ public abstract class BaseExecutor implements Executor {
   protected PerpetualCache localCache;
   // Callable查询的输出参数缓存
   protected PerpetualCache localOutputParameterCache;
+  // 一级缓存的统计信息，未启用缓存统计时为null
+  private final CacheStatistics localCacheStatistics;
   // mybatis 的配置信息，全局唯一配置对象
   protected Configuration configuration;
   // 查询的深度，用来记录嵌套查询的层数，分析 DefaultResultSetHandler时介绍过的嵌套查询
@@ -87,8 +91,9 @@ public abstract class BaseExecutor implements Executor {
   protected BaseExecutor(Configuration configuration, Transaction transaction) {
     this.transaction = transaction;
     this.deferredLoads = new ConcurrentLinkedQueue<>();
-    this.localCache = new PerpetualCache("LocalCache");
+    this.localCache = createLocalCache(configuration);
     this.localOutputParameterCache = new PerpetualCache("LocalOutputParameterCache");
+    this.localCacheStatistics = configuration.isCacheStatisticsEnabled() ? configuration.getLocalCacheStatistics() : null;
     this.closed = false;
     this.configuration = configuration;
     this.wrapper = this;
@@ -218,6 +223,13 @@ public abstract class BaseExecutor implements Executor {
       queryStack++;
       // 尝试从本地缓存获取结果
       list = resultHandler == null ? (List<E>) localCache.getObject(key) : null;
+      if (localCacheStatistics != null && resultHandler == null) {
+        if (list != null) {
+          localCacheStatistics.recordHit();
+        } else {
+          localCacheStatistics.recordMiss();
+        }
+      }
       if (list != null) {
         // 本地缓存中有结果，则对于CALLABLE语句还需要绑定到IN/INOUT参数上，针对存储过程调用的处理 其功能是 在一级缓存命中时，获取缓存中保存的输出类型参数，并设到用户传入的实参（ parameter ）对象中。
         handleLocallyCachedOutputParameters(ms, key, parameter, boundSql);
@@ -239,6 +251,8 @@ public abstract class BaseExecutor implements Executor {
       // 如果本地缓存的作用域为STATEMENT，则立刻清除本地缓存
       if (configuration.getLocalCacheScope() == LocalCacheScope.STATEMENT) {
         clearLocalCache();
+      } else {
+        evictLocalCacheIfNeeded();
       }
     }
     return list;
@@ -290,13 +304,13 @@ public abstract class BaseExecutor implements Executor {
     if (closed) {
       throw new ExecutorException("Executor was closed.");
     }
-    // 创建CacheKey，并将所有查询参数依次更新写入
-    CacheKey cacheKey = new CacheKey();
+    List<ParameterMapping> parameterMappings = boundSql.getParameterMappings();
+    // 创建CacheKey，并将所有查询参数依次更新写入。id、分页参数、语句和环境id共5次更新，加上各个参数
+    CacheKey cacheKey = new CacheKey(parameterMappings.size() + 5);
     cacheKey.update(ms.getId());
     cacheKey.update(rowBounds.getOffset());
     cacheKey.update(rowBounds.getLimit());
     cacheKey.update(boundSql.getSql());
-    List<ParameterMapping> parameterMappings = boundSql.getParameterMappings();
     TypeHandlerRegistry typeHandlerRegistry = ms.getConfiguration().getTypeHandlerRegistry();
     // mimic DefaultParameterHandler logic
     for (ParameterMapping parameterMapping : parameterMappings) {
@@ -362,6 +376,40 @@ public abstract class BaseExecutor implements Executor {
     }
   }
 
+  /**
+   * 根据配置创建一级缓存，配置了数目或权重上限时创建有界缓存
+   * @param configuration 配置信息
+   * @return 一级缓存
+   */
+  private static PerpetualCache createLocalCache(Configuration configuration) {
+    Integer maxSize = configuration.getLocalCacheSize();
+    Long maxWeight = configuration.getLocalCacheMaxWeight();
+    if ((maxSize == null || maxSize <= 0) && (maxWeight == null || maxWeight <= 0)) {
+      return new PerpetualCache("LocalCache");
+    }
+    return new BoundedPerpetualCache("LocalCache", maxSize == null ? 0 : maxSize,
+        maxWeight == null ? 0L : maxWeight, configuration.getLocalCacheWeigher());
+  }
+
+  /**
+   * 一级缓存超出上限时淘汰最久未用的结果。只在最外层查询结束后调用，此时没有正在执行的查询和延迟加载还依赖缓存中的结果
+   */
+  private void evictLocalCacheIfNeeded() {
+    if (!(localCache instanceof BoundedPerpetualCache)) {
+      return;
+    }
+    List<Object> evicted = ((BoundedPerpetualCache) localCache).evictIfNeeded();
+    if (evicted.isEmpty()) {
+      return;
+    }
+    for (Object key : evicted) {
+      localOutputParameterCache.removeObject(key);
+    }
+    if (localCacheStatistics != null) {
+      localCacheStatistics.recordEvictions(evicted.size());
+    }
+  }
+
   protected abstract int doUpdate(MappedStatement ms, Object parameter)
       throws SQLException;
 
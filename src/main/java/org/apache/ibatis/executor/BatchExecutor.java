@@ -19,9 +19,16 @@ import java.sql.BatchUpdateException;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 
 import org.apache.ibatis.cursor.Cursor;
 import org.apache.ibatis.executor.keygen.Jdbc3KeyGenerator;
@@ -36,6 +43,25 @@ import org.apache.ibatis.session.RowBounds;
 import org.apache.ibatis.transaction.Transaction;
 
 /**
+ * Batches consecutive calls of the same statement with the same SQL into one JDBC batch.
+ * <p>
+ * When the <code>batchGroupingEnabled</code> setting is on, each distinct statement and SQL keeps
+ * one open batch for the whole session, so interleaved calls (insert order, insert line, insert order,
+ * ...) are batched too. Batches are executed in the order they were opened. A statement marked as a
+ * <code>batchBarrier</code> closes all the open batches, so the calls made before it are never batched
+ * together with the calls made after it.
+ * <p>
+ * When a batch reaches its <code>batchSize</code>, all pending batches are executed. With the
+ * <code>asyncBatchFlushDepth</code> setting, they are instead handed to the batch flush executor service
+ * of the configuration, which executes them one at a time and in order on the same connection while the
+ * caller binds the next batches. As the connection is then used by two threads at once, this requires the
+ * <code>threadSafeConnections</code> setting, which declares that the driver supports it. At most
+ * <code>asyncBatchFlushDepth</code> hand-offs may be pending, further ones wait. The first failure is thrown
+ * as a {@link BatchExecutorException} by the next hand-off or flush, and the batches handed off after
+ * it are discarded. Flushing, committing, querying and closing wait for the background thread first.
+ * Batches of statements using a key generator other than JDBC generated keys are always executed by
+ * the caller, since such generators run statements of their own.
+ *
  * @author Jeff Butler
  */
 public class BatchExecutor extends BaseExecutor {
@@ -46,6 +72,15 @@ public class BatchExecutor extends BaseExecutor {
   private final List<BatchResult> batchResultList = new ArrayList<>();
   private String currentSql;
   private MappedStatement currentStatement;
+  // 分组模式下仍可追加语句的批次在statementList中的位置
+  private final Map<BatchKey, Integer> openBatches = new HashMap<>();
+  // 达到批次大小而自动执行的批次的结果，在下次刷新时一并返回
+  // 后台线程也会写入，所以需要同步
+  private final List<BatchResult> executedBatchResults = Collections.synchronizedList(new ArrayList<>());
+  // 尚未确认执行完毕的后台批次，按交出的顺序排列。每个批次在前一个执行完毕后才开始执行
+  private final Deque<CompletableFuture<Void>> pendingFlushes = new ArrayDeque<>();
+  // 后台执行批次时的第一个异常
+  private volatile Throwable flushFailure;
 
   public BatchExecutor(Configuration configuration, Transaction transaction) {
     super(configuration, transaction);
@@ -58,12 +93,13 @@ public class BatchExecutor extends BaseExecutor {
     final BoundSql boundSql = handler.getBoundSql();
     final String sql = boundSql.getSql();
     final Statement stmt;
-    if (sql.equals(currentSql) && ms.equals(currentStatement)) {
-      int last = statementList.size() - 1;
-      stmt = statementList.get(last);
+    final BatchResult batchResult;
+    final int batchIndex = findOpenBatch(ms, sql);
+    if (batchIndex >= 0) {
+      stmt = statementList.get(batchIndex);
       applyTransactionTimeout(stmt);
       handler.parameterize(stmt);//fix Issues 322
-      BatchResult batchResult = batchResultList.get(last);
+      batchResult = batchResultList.get(batchIndex);
       batchResult.addParameterObject(parameterObject);
     } else {
       Connection connection = getConnection(ms.getStatementLog());
@@ -72,12 +108,51 @@ public class BatchExecutor extends BaseExecutor {
       currentSql = sql;
       currentStatement = ms;
       statementList.add(stmt);
-      batchResultList.add(new BatchResult(ms, sql, parameterObject));
+      batchResult = new BatchResult(ms, sql, parameterObject);
+      batchResultList.add(batchResult);
+      if (configuration.isBatchGroupingEnabled()) {
+        openBatches.put(new BatchKey(ms, sql), statementList.size() - 1);
+      }
     }
     handler.batch(stmt);
+    // 批次达到设定的大小时，按顺序执行所有待执行的批次，以免在内存中累积
+    Integer batchSize = ms.getBatchSize() != null ? ms.getBatchSize() : configuration.getDefaultBatchSize();
+    if (batchSize != null && batchSize > 0 && batchResult.getParameterObjects().size() >= batchSize) {
+      Integer depth = configuration.getAsyncBatchFlushDepth();
+      if (depth != null && depth > 0 && configuration.isThreadSafeConnections() && canExecuteInBackground()) {
+        executeBatchesInBackground(depth);
+      } else {
+        awaitBackgroundFlushes();
+        executeBatches(statementList, batchResultList, executedBatchResults);
+      }
+    }
     return BATCH_UPDATE_RETURN_VALUE;
   }
 
+  /**
+   * 查找可以追加语句的批次
+   * @param ms 语句
+   * @param sql 语句的SQL
+   * @return 批次在statementList中的位置，没有时返回-1
+   */
+  private int findOpenBatch(MappedStatement ms, String sql) {
+    int last = statementList.size() - 1;
+    if (sql.equals(currentSql) && ms.equals(currentStatement)) {
+      // 与上一条语句相同，总是可以追加到最后一个批次
+      return last;
+    }
+    if (!ms.getConfiguration().isBatchGroupingEnabled()) {
+      return -1;
+    }
+    if (ms.isBatchBarrier()) {
+      // 边界语句之前打开的批次都不再接收语句
+      openBatches.clear();
+      return -1;
+    }
+    Integer index = openBatches.get(new BatchKey(ms, sql));
+    return index == null ? -1 : index;
+  }
+
   @Override
   public <E> List<E> doQuery(MappedStatement ms, Object parameterObject, RowBounds rowBounds, ResultHandler resultHandler, BoundSql boundSql)
       throws SQLException {
@@ -110,14 +185,35 @@ public class BatchExecutor extends BaseExecutor {
   @Override
   public List<BatchResult> doFlushStatements(boolean isRollback) throws SQLException {
     try {
-      List<BatchResult> results = new ArrayList<>();
       if (isRollback) {
+        awaitBackgroundFlushesQuietly();
+        flushFailure = null;
         return Collections.emptyList();
       }
-      for (int i = 0, n = statementList.size(); i < n; i++) {
-        Statement stmt = statementList.get(i);
+      awaitBackgroundFlushes();
+      List<BatchResult> results = new ArrayList<>(executedBatchResults);
+      executeBatches(statementList, batchResultList, results);
+      return results;
+    } finally {
+      executedBatchResults.clear();
+      closeBatches();
+    }
+  }
+
+  /**
+   * 按打开的顺序执行批次
+   * @param statements 批次的语句，执行后被关闭
+   * @param batchResults 批次的结果
+   * @param results 保存执行结果的列表，其中已有的结果计为之前成功执行的批次
+   * @throws SQLException
+   */
+  private void executeBatches(List<Statement> statements, List<BatchResult> batchResults, List<BatchResult> results) throws SQLException {
+    try {
+      final boolean lightweight = configuration.isLightweightBatchResults();
+      for (int i = 0, n = statements.size(); i < n; i++) {
+        Statement stmt = statements.get(i);
         applyTransactionTimeout(stmt);
-        BatchResult batchResult = batchResultList.get(i);
+        BatchResult batchResult = batchResults.get(i);
         try {
           batchResult.setUpdateCounts(stmt.executeBatch());
           MappedStatement ms = batchResult.getMappedStatement();
@@ -134,29 +230,184 @@ public class BatchExecutor extends BaseExecutor {
           // Close statement to close cursor #1109
           closeStatement(stmt);
         } catch (BatchUpdateException e) {
+          int prior = results.size();
           StringBuilder message = new StringBuilder();
           message.append(batchResult.getMappedStatement().getId())
               .append(" (batch index #")
-              .append(i + 1)
+              .append(prior + 1)
               .append(")")
               .append(" failed.");
-          if (i > 0) {
+          if (prior > 0) {
             message.append(" ")
-                .append(i)
+                .append(prior)
                 .append(" prior sub executor(s) completed successfully, but will be rolled back.");
           }
-          throw new BatchExecutorException(message.toString(), e, results, batchResult);
+          throw new BatchExecutorException(message.toString(), e, new ArrayList<>(results), batchResult);
+        }
+        if (lightweight) {
+          batchResult.releaseParameterObjects();
         }
         results.add(batchResult);
       }
-      return results;
     } finally {
-      for (Statement stmt : statementList) {
+      for (Statement stmt : statements) {
         closeStatement(stmt);
       }
-      currentSql = null;
-      statementList.clear();
-      batchResultList.clear();
+      if (statements == statementList) {
+        closeBatches();
+      }
+    }
+  }
+
+  /**
+   * 判断待执行的批次是否都可以在后台执行。使用其他主键生成器的语句会执行自己的语句，只能在调用者线程执行
+   * @return 是否都可以在后台执行
+   */
+  private boolean canExecuteInBackground() {
+    for (BatchResult batchResult : batchResultList) {
+      Class<?> keyGeneratorClass = batchResult.getMappedStatement().getKeyGenerator().getClass();
+      if (!NoKeyGenerator.class.equals(keyGeneratorClass) && !Jdbc3KeyGenerator.class.equals(keyGeneratorClass)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * 将待执行的批次交给共用的线程池执行，后台批次数目达到上限时等待最早的批次执行完毕。
+   * 批次串联在前一个批次之后，因此同一执行器的批次不会并发执行，并保持顺序
+   * @param depth 后台批次数目的上限
+   * @throws SQLException 之前的后台批次执行失败
+   */
+  private void executeBatchesInBackground(int depth) throws SQLException {
+    if (flushFailure != null) {
+      awaitBackgroundFlushes();
+    }
+    while (!pendingFlushes.isEmpty() && pendingFlushes.peekFirst().isDone()) {
+      pendingFlushes.removeFirst();
+    }
+    while (pendingFlushes.size() >= depth) {
+      awaitQuietly(pendingFlushes.removeFirst());
+    }
+    final List<Statement> statements = new ArrayList<>(statementList);
+    final List<BatchResult> batchResults = new ArrayList<>(batchResultList);
+    // 不关闭语句，只清空状态，语句由后台线程执行后关闭
+    statementList.clear();
+    closeBatches();
+    final Runnable flush = () -> {
+      try {
+        if (flushFailure == null) {
+          executeBatches(statements, batchResults, executedBatchResults);
+        } else {
+          // 之前的批次已经失败，丢弃之后的批次
+          for (Statement stmt : statements) {
+            closeStatement(stmt);
+          }
+        }
+      } catch (Throwable t) {
+        if (flushFailure == null) {
+          flushFailure = t;
+        }
+      }
+    };
+    final ExecutorService executorService = configuration.getBatchFlushExecutorService();
+    final CompletableFuture<Void> previous = pendingFlushes.peekLast();
+    pendingFlushes.addLast(previous == null
+        ? CompletableFuture.runAsync(flush, executorService)
+        : previous.handle((result, failure) -> null).thenRunAsync(flush, executorService));
+  }
+
+  /**
+   * 等待所有后台批次执行完毕，并抛出其中的第一个异常
+   * @throws SQLException 后台批次执行失败
+   */
+  private void awaitBackgroundFlushes() throws SQLException {
+    awaitBackgroundFlushesQuietly();
+    Throwable failure = flushFailure;
+    flushFailure = null;
+    if (failure instanceof SQLException) {
+      throw (SQLException) failure;
+    } else if (failure instanceof RuntimeException) {
+      throw (RuntimeException) failure;
+    } else if (failure instanceof Error) {
+      throw (Error) failure;
+    } else if (failure != null) {
+      throw new ExecutorException("Error executing batches in background.  Cause: " + failure, failure);
+    }
+  }
+
+  /**
+   * 等待所有后台批次执行完毕，不抛出异常。语句执行中无法中断，所以等待期间忽略中断，结束后恢复中断状态
+   */
+  private void awaitBackgroundFlushesQuietly() {
+    while (!pendingFlushes.isEmpty()) {
+      awaitQuietly(pendingFlushes.removeFirst());
+    }
+  }
+
+  /**
+   * 等待一个后台批次执行完毕，不抛出异常。批次执行中的异常已经记录在flushFailure中，
+   * 只有线程池拒绝执行时才在这里记录。等待期间忽略中断，结束后恢复中断状态
+   * @param flush 后台批次
+   */
+  private void awaitQuietly(CompletableFuture<Void> flush) {
+    boolean interrupted = false;
+    while (true) {
+      try {
+        flush.get();
+        break;
+      } catch (InterruptedException e) {
+        interrupted = true;
+      } catch (ExecutionException e) {
+        if (flushFailure == null) {
+          flushFailure = e.getCause();
+        }
+        break;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * 关闭所有待执行批次的语句并清空状态
+   */
+  private void closeBatches() {
+    for (Statement stmt : statementList) {
+      closeStatement(stmt);
+    }
+    currentSql = null;
+    currentStatement = null;
+    openBatches.clear();
+    statementList.clear();
+    batchResultList.clear();
+  }
+
+  private static final class BatchKey {
+    private final MappedStatement ms;
+    private final String sql;
+
+    BatchKey(MappedStatement ms, String sql) {
+      this.ms = ms;
+      this.sql = sql;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof BatchKey)) {
+        return false;
+      }
+      BatchKey other = (BatchKey) o;
+      return ms.equals(other.ms) && sql.equals(other.sql);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * ms.hashCode() + sql.hashCode();
     }
   }
 
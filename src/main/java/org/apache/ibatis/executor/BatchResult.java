@@ -16,6 +16,7 @@
 package org.apache.ibatis.executor;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import org.apache.ibatis.mapping.MappedStatement;
@@ -27,7 +28,7 @@ public class BatchResult {
 
   private final MappedStatement mappedStatement;
   private final String sql;
-  private final List<Object> parameterObjects;
+  private List<Object> parameterObjects;
 
   private int[] updateCounts;
 
@@ -72,4 +73,11 @@ public class BatchResult {
     this.parameterObjects.add(parameterObject);
   }
 
+  /**
+   * 批次执行后释放参数对象，只保留更新数目
+   */
+  void releaseParameterObjects() {
+    this.parameterObjects = Collections.emptyList();
+  }
+
 }
@@ -20,7 +20,9 @@ import java.util.List;
 
 import org.apache.ibatis.cache.Cache;
 import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.cache.CacheStatistics;
 import org.apache.ibatis.cache.TransactionalCacheManager;
+import org.apache.ibatis.cache.decorators.TaggedCache;
 import org.apache.ibatis.cursor.Cursor;
 import org.apache.ibatis.mapping.BoundSql;
 import org.apache.ibatis.mapping.MappedStatement;
@@ -28,6 +30,7 @@ import org.apache.ibatis.mapping.ParameterMapping;
 import org.apache.ibatis.mapping.ParameterMode;
 import org.apache.ibatis.mapping.StatementType;
 import org.apache.ibatis.reflection.MetaObject;
+import org.apache.ibatis.session.Configuration;
 import org.apache.ibatis.session.ResultHandler;
 import org.apache.ibatis.session.RowBounds;
 import org.apache.ibatis.transaction.Transaction;
@@ -41,13 +44,32 @@ public class CachingExecutor implements Executor {
   // 被装饰的执行器
   private final Executor delegate;
   // 事务缓存管理器
-  private final TransactionalCacheManager tcm = new TransactionalCacheManager();
+  private final TransactionalCacheManager tcm;
 
   public CachingExecutor(Executor delegate) {
+    this(delegate, null);
+  }
+
+  /**
+   * CachingExecutor构造方法
+   * @param delegate 被装饰的执行器
+   * @param configuration 配置信息，用来查找缓存的统计信息，为null时不记录事务提交和回滚的数据数目
+   */
+  public CachingExecutor(Executor delegate, Configuration configuration) {
     this.delegate = delegate;
+    this.tcm = configuration == null ? new TransactionalCacheManager()
+        : new TransactionalCacheManager(cache -> configuration.getCacheStatistics(cache.getId()));
     delegate.setExecutorWrapper(this);
   }
 
+  /**
+   * 获取事务缓存管理器，可以读取本会话提交时写入和回滚时丢弃的数据数目
+   * @return 事务缓存管理器
+   */
+  public TransactionalCacheManager getTransactionalCacheManager() {
+    return tcm;
+  }
+
   @Override
   public Transaction getTransaction() {
     return delegate.getTransaction();
@@ -127,10 +149,16 @@ public class CachingExecutor implements Executor {
         @SuppressWarnings("unchecked")
         List<E> list = (List<E>) tcm.getObject(cache, key);
         if (list == null) { // 缓存中没有结果
+          // 启用了缓存统计时，记录加载耗时
+          CacheStatistics statistics = ms.getConfiguration().getCacheStatistics(cache.getId());
+          long loadStart = statistics == null ? 0L : System.nanoTime();
           // 交给被包装的执行器执行
           list = delegate.query(ms, parameterObject, rowBounds, resultHandler, key, boundSql);
+          if (statistics != null) {
+            statistics.recordLoad(System.nanoTime() - loadStart);
+          }
           // 缓存被包装执行器返回的结果
-          tcm.putObject(cache, key, list); // issue #578 and #116
+          tcm.putObject(cache, key, list, ms.getCacheTags()); // issue #578 and #116
         }
         return list;
       }
@@ -200,8 +228,13 @@ public class CachingExecutor implements Executor {
     // 获取MappedStatement对应的缓存
     Cache cache = ms.getCache();
     if (cache != null && ms.isFlushCacheRequired()) { // 存在缓存且该操作语句要求执行前清除缓存
-      // 清除事务中的缓存
-      tcm.clear(cache);
+      if (cache instanceof TaggedCache && ms.isCacheTagInvalidationSafe()) {
+        // 缓存按标签失效，只失效该语句涉及的标签
+        tcm.clearTags(cache, ms.getCacheTags());
+      } else {
+        // 清除事务中的缓存
+        tcm.clear(cache);
+      }
     }
   }
 
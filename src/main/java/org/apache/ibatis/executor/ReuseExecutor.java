@@ -34,6 +34,11 @@ import org.apache.ibatis.session.RowBounds;
 import org.apache.ibatis.transaction.Transaction;
 
 /**
+ * Reuses statements within a session, they are closed on every flush.
+ * <p>
+ * To reuse prepared statements across sessions, enable the statement cache of the pooled data source
+ * ({@code poolPreparedStatementCacheSize}), closing a statement then puts it back into the cache of its connection.
+ *
  * @author Clinton Begin
  */
 public class ReuseExecutor extends BaseExecutor {
@@ -19,6 +19,7 @@ import java.lang.reflect.Method;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
 import org.apache.ibatis.executor.ExecutorException;
 
 import org.apache.ibatis.reflection.ExceptionUtil;
@@ -49,7 +50,7 @@ public abstract class AbstractEnhancedDeserializationProxy {
   // 构造函数的属性列表，创建对象时使用
   private final List<Object> constructorArgs;
   // 标志正在载入中的锁，防止属性并发载入
-  private final Object reloadingPropertyLock;
+  private final ReentrantLock reloadingPropertyLock;
   // 标志已经有属性正在载入
   private boolean reloadingProperty;
 
@@ -60,7 +61,7 @@ public abstract class AbstractEnhancedDeserializationProxy {
     this.objectFactory = objectFactory;
     this.constructorArgTypes = constructorArgTypes;
     this.constructorArgs = constructorArgs;
-    this.reloadingPropertyLock = new Object();
+    this.reloadingPropertyLock = new ReentrantLock();
     this.reloadingProperty = false;
   }
 
@@ -81,7 +82,8 @@ public abstract class AbstractEnhancedDeserializationProxy {
         return this.newSerialStateHolder(original, unloadedProperties, objectFactory, constructorArgTypes, constructorArgs);
       } else {
         // 防止并发载入
-        synchronized (this.reloadingPropertyLock) {
+        this.reloadingPropertyLock.lock();
+        try {
           // 确定是对属性的操作方法，并且不是finalize方法、没有属性正在载入中
           if (!FINALIZE_METHOD.equals(methodName) && PropertyNamer.isProperty(methodName) && !reloadingProperty) {
             // 找到该方法操作的属性
@@ -109,6 +111,8 @@ public abstract class AbstractEnhancedDeserializationProxy {
           }
 
           return enhanced;
+        } finally {
+          this.reloadingPropertyLock.unlock();
         }
       }
     } catch (Throwable t) {
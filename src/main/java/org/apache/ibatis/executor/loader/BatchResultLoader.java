@@ -0,0 +1,52 @@
+/**
+ *    Copyright 2009-2019 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor.loader;
+
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.ibatis.executor.Executor;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.session.Configuration;
+
+/**
+ * Loads the result of a nested select for one parent through a {@link NestedQueryBatch}, so that the select
+ * is run once for many parents, both eagerly and lazily.
+ */
+public class BatchResultLoader extends ResultLoader {
+
+  // 所属的批量查询
+  private final NestedQueryBatch batch;
+  // 父对象的键
+  private final Object key;
+
+  public BatchResultLoader(Configuration config, Executor executor, MappedStatement mappedStatement, Class<?> targetType, NestedQueryBatch batch, Object key) {
+    // 参数为只含一个键的列表，反序列化后单独加载时使用
+    super(config, executor, mappedStatement, NestedQueryBatch.wrapKeys(Collections.singletonList(key)), targetType, null, null);
+    this.batch = batch;
+    this.key = key;
+    batch.register(key);
+  }
+
+  @Override
+  public Object loadResult() throws SQLException {
+    List<Object> list = batch.load(this, key);
+    resultObject = resultExtractor.extractObjectFromList(list, targetType);
+    return resultObject;
+  }
+
+}
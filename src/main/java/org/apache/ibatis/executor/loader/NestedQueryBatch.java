@@ -0,0 +1,174 @@
+/**
+ *    Copyright 2009-2019 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor.loader;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.defaults.DefaultSqlSession.StrictMap;
+
+/**
+ * The keys of one batch fetched nested select, shared by the loaders of all the parents of a result set.
+ * <p>
+ * The first load runs the select with up to {@code batchFetchSize} keys that were not loaded yet, passed as
+ * {@code list} and {@code collection} like a list given to a session select. The selected objects are handed out
+ * by the value of their {@code batchFetchKey} property, keys without any row get an empty list. A batch of eagerly
+ * loaded properties forgets the objects of a key once every parent registered with that key got them.
+ *
+ * @see BatchResultLoader
+ */
+public class NestedQueryBatch {
+
+  private final Configuration configuration;
+  // 每次查询的最大键数目
+  private final int batchFetchSize;
+  // 查询结果对象中保存父对象键的属性
+  private final String batchFetchKey;
+  // 尚未加载的键，键为归一化后的键，值为原始的键
+  private final Map<Object, Object> pendingKeys = new LinkedHashMap<>();
+  // 已经加载的各个键对应的结果对象
+  private final Map<Object, List<Object>> loadedRows = new HashMap<>();
+  // 是否在结果对象交出后将其移除，立即加载时每个登记的父对象只加载一次
+  private final boolean releaseLoaded;
+  // 各个键尚未取走结果对象的登记次数，只在releaseLoaded时使用
+  private final Map<Object, Integer> registrations = new HashMap<>();
+  // 保护上面两个Map的锁，加载时会在持有锁的情况下执行查询
+  private final ReentrantLock lock = new ReentrantLock();
+
+  public NestedQueryBatch(Configuration configuration, int batchFetchSize, String batchFetchKey, boolean releaseLoaded) {
+    this.configuration = configuration;
+    this.batchFetchSize = batchFetchSize;
+    this.batchFetchKey = batchFetchKey;
+    this.releaseLoaded = releaseLoaded;
+  }
+
+  /**
+   * 登记一个需要加载的键
+   * @param key 父对象的键
+   */
+  public void register(Object key) {
+    Object normalizedKey = normalize(key);
+    lock.lock();
+    try {
+      if (!loadedRows.containsKey(normalizedKey)) {
+        pendingKeys.putIfAbsent(normalizedKey, key);
+      }
+      if (releaseLoaded) {
+        registrations.merge(normalizedKey, 1, Integer::sum);
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * 获取一个键对应的结果对象，尚未加载时连同其他尚未加载的键一起查询。
+   * 需要移除已交出的结果对象时，该键的最后一次登记被取走后将其移除
+   * @param loader 用来执行查询的加载器
+   * @param key 父对象的键
+   * @return 结果对象列表
+   * @throws SQLException
+   */
+  List<Object> load(ResultLoader loader, Object key) throws SQLException {
+    Object normalizedKey = normalize(key);
+    lock.lock();
+    try {
+      List<Object> rows = loadedRows.get(normalizedKey);
+      if (rows == null) {
+        fetch(loader, normalizedKey, key);
+        rows = loadedRows.get(normalizedKey);
+      }
+      if (releaseLoaded) {
+        release(normalizedKey);
+      }
+      return rows;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void release(Object normalizedKey) {
+    Integer remaining = registrations.get(normalizedKey);
+    if (remaining == null || remaining <= 1) {
+      registrations.remove(normalizedKey);
+      loadedRows.remove(normalizedKey);
+    } else {
+      registrations.put(normalizedKey, remaining - 1);
+    }
+  }
+
+  private void fetch(ResultLoader loader, Object normalizedKey, Object key) throws SQLException {
+    List<Object> keys = new ArrayList<>(batchFetchSize);
+    List<Object> normalizedKeys = new ArrayList<>(batchFetchSize);
+    pendingKeys.remove(normalizedKey);
+    keys.add(key);
+    normalizedKeys.add(normalizedKey);
+    Iterator<Map.Entry<Object, Object>> pending = pendingKeys.entrySet().iterator();
+    while (keys.size() < batchFetchSize && pending.hasNext()) {
+      Map.Entry<Object, Object> entry = pending.next();
+      normalizedKeys.add(entry.getKey());
+      keys.add(entry.getValue());
+      pending.remove();
+    }
+    List<Object> rows = loader.selectList(wrapKeys(keys));
+    Map<Object, List<Object>> fetched = new HashMap<>();
+    for (Object fetchedKey : normalizedKeys) {
+      fetched.put(fetchedKey, new ArrayList<>());
+    }
+    for (Object row : rows) {
+      List<Object> parentRows = fetched.get(normalize(configuration.newMetaObject(row).getValue(batchFetchKey)));
+      if (parentRows != null) {
+        parentRows.add(row);
+      }
+    }
+    loadedRows.putAll(fetched);
+  }
+
+  /**
+   * 将键包装为查询参数，与向会话传入一个列表作为参数时相同
+   * @param keys 键的列表
+   * @return 查询参数
+   */
+  static Object wrapKeys(List<Object> keys) {
+    StrictMap<Object> map = new StrictMap<>();
+    map.put("collection", keys);
+    map.put("list", keys);
+    return map;
+  }
+
+  /**
+   * 归一化键，使父对象的键与结果对象中的键的数字类型不同时也能匹配
+   * @param key 键
+   * @return 归一化后的键
+   */
+  private static Object normalize(Object key) {
+    if (key instanceof Integer || key instanceof Long || key instanceof Short || key instanceof Byte
+        || key instanceof BigInteger || key instanceof BigDecimal) {
+      return new BigDecimal(key.toString()).stripTrailingZeros();
+    }
+    return key;
+  }
+
+}
@@ -75,6 +75,17 @@ public class ResultLoader {
   }
 
   private <E> List<E> selectList() throws SQLException {
+    return selectList(parameterObject);
+  }
+
+  /**
+   * 使用指定的参数执行查询语句。执行器已经关闭或者属于其他线程时，创建新的执行器并在查询后关闭
+   * @param parameterObject 查询参数，与初始化时的参数相同时使用初始化时传入的缓存键和BoundSql
+   * @param <E> 结果类型
+   * @return 结果列表
+   * @throws SQLException
+   */
+  protected <E> List<E> selectList(Object parameterObject) throws SQLException {
     // 初始化ResultLoader时传入的执行器
     Executor localExecutor = executor;
     if (Thread.currentThread().getId() != this.creatorThreadId || localExecutor.isClosed()) {
@@ -82,8 +93,14 @@ public class ResultLoader {
       localExecutor = newExecutor();
     }
     try {
+      BoundSql queryBoundSql = boundSql;
+      CacheKey queryCacheKey = cacheKey;
+      if (parameterObject != this.parameterObject || queryBoundSql == null || queryCacheKey == null) {
+        queryBoundSql = mappedStatement.getBoundSql(parameterObject);
+        queryCacheKey = localExecutor.createCacheKey(mappedStatement, parameterObject, RowBounds.DEFAULT, queryBoundSql);
+      }
       // 查询结果
-      return localExecutor.query(mappedStatement, parameterObject, RowBounds.DEFAULT, Executor.NO_RESULT_HANDLER, cacheKey, boundSql);
+      return localExecutor.query(mappedStatement, parameterObject, RowBounds.DEFAULT, Executor.NO_RESULT_HANDLER, queryCacheKey, queryBoundSql);
     } finally {
       if (localExecutor != executor) {
         localExecutor.close(false);
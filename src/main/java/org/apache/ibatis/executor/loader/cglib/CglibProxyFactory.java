@@ -19,6 +19,7 @@ import java.lang.reflect.Method;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
 
 import net.sf.cglib.proxy.Callback;
 import net.sf.cglib.proxy.Enhancer;
@@ -108,6 +109,8 @@ public class CglibProxyFactory implements ProxyFactory {
     private final Class<?> type;
     // 要懒加载的属性Map
     private final ResultLoaderMap lazyLoader;
+    // 防止属性的并发加载，加载期间不把虚拟线程钉在载体线程上
+    private final ReentrantLock lock = new ReentrantLock();
     // 是否是激进懒加载
     private final boolean aggressive;
     // 能够触发懒加载的方法名“equals”, “clone”, “hashCode”, “toString”。这四个方法名在Configuration中被初始化。
@@ -151,7 +154,8 @@ public class CglibProxyFactory implements ProxyFactory {
       // 取出被代理类中此次被调用的方法的名称
       final String methodName = method.getName();
       try {
-        synchronized (lazyLoader) { // 防止属性的并发加载
+        lock.lock();
+        try {
           if (WRITE_REPLACE_METHOD.equals(methodName)) { // 被调用的是writeReplace方法
             // 创建一个原始对象
             Object original;
@@ -187,6 +191,8 @@ public class CglibProxyFactory implements ProxyFactory {
               }
             }
           }
+        } finally {
+          lock.unlock();
         }
         // 触发被代理类的相应方法。能够进行到这里的是除去writeReplace方法外的方法，例如读写方法、toString方法等
         return methodProxy.invokeSuper(enhanced, args);
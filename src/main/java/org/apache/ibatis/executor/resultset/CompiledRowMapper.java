@@ -0,0 +1,207 @@
+/**
+ *    Copyright 2009-2019 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor.resultset;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.ibatis.lang.UsesJava7;
+import org.apache.ibatis.reflection.ReflectionException;
+import org.apache.ibatis.reflection.Reflector;
+import org.apache.ibatis.reflection.ReflectorFactory;
+import org.apache.ibatis.reflection.invoker.Invoker;
+import org.apache.ibatis.reflection.invoker.MethodInvoker;
+import org.apache.ibatis.reflection.invoker.SetFieldInvoker;
+import org.apache.ibatis.type.TypeHandler;
+
+/**
+ * Maps the columns of a row to the properties of a bean through precompiled setter handles.
+ * <p>
+ * A row mapper is built once for a result map, a column prefix, a result class and a column set. It holds the
+ * column index, the type handler and a {@link MethodHandle} bound to the setter (or field) of every mapped
+ * property, so a row is mapped without going through {@code MetaObject}, the object wrapper and the reflector
+ * lookups. Only flat mappings of simple properties of a bean can be compiled, other result maps keep using the
+ * regular path.
+ *
+ * @see org.apache.ibatis.session.Configuration#isUseCompiledRowMappers()
+ */
+public class CompiledRowMapper {
+
+  private static final MethodType SETTER_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+
+  // 不能编译的结果映射使用的标记，不支持任何结果对象
+  static final CompiledRowMapper UNSUPPORTED = new CompiledRowMapper(null, new ArrayList<>(), false);
+
+  // 结果对象的类型
+  private final Class<?> type;
+  // 各个属性对应的列序号，从1开始
+  private final int[] columnIndexes;
+  // 各个属性对应的类型处理器
+  private final TypeHandler<?>[] typeHandlers;
+  // 各个属性的赋值方法，签名为(Object, Object)void
+  private final MethodHandle[] setters;
+  // 各个属性是否是基本类型
+  private final boolean[] primitives;
+  // 各个属性的名称，仅用于错误信息
+  private final String[] properties;
+  // 值为null时是否调用赋值方法
+  private final boolean callSettersOnNulls;
+
+  private CompiledRowMapper(Class<?> type, List<PropertySetter> propertySetters, boolean callSettersOnNulls) {
+    int size = propertySetters.size();
+    this.type = type;
+    this.columnIndexes = new int[size];
+    this.typeHandlers = new TypeHandler<?>[size];
+    this.setters = new MethodHandle[size];
+    this.primitives = new boolean[size];
+    this.properties = new String[size];
+    this.callSettersOnNulls = callSettersOnNulls;
+    for (int i = 0; i < size; i++) {
+      PropertySetter propertySetter = propertySetters.get(i);
+      columnIndexes[i] = propertySetter.columnIndex;
+      typeHandlers[i] = propertySetter.typeHandler;
+      setters[i] = propertySetter.setter;
+      primitives[i] = propertySetter.primitive;
+      properties[i] = propertySetter.property;
+    }
+  }
+
+  /**
+   * 判断能否使用该映射器给结果对象赋值
+   * @param rowValue 结果对象
+   * @return 结果对象的类型是否与编译时相同
+   */
+  public boolean supports(Object rowValue) {
+    return rowValue.getClass() == type;
+  }
+
+  /**
+   * 将当前行的各列赋值给结果对象的属性
+   * @param rs 结果集，已经位于要映射的行
+   * @param rowValue 结果对象
+   * @return 是否有不为null的列值
+   * @throws SQLException
+   */
+  // invokeExact是签名多态的方法，Java 8的API签名中没有(Object, Object)void这一形式，因此在签名检查中忽略该方法
+  @UsesJava7
+  public boolean map(ResultSet rs, Object rowValue) throws SQLException {
+    boolean foundValues = false;
+    for (int i = 0; i < setters.length; i++) {
+      final Object value = typeHandlers[i].getResult(rs, columnIndexes[i]);
+      if (value != null) {
+        foundValues = true;
+      }
+      if (value != null || (callSettersOnNulls && !primitives[i])) {
+        try {
+          setters[i].invokeExact(rowValue, value);
+        } catch (Throwable t) {
+          throw new ReflectionException("Could not set property '" + properties[i] + "' of '" + type
+              + "' with value '" + value + "' Cause: " + t.toString(), t);
+        }
+      }
+    }
+    return foundValues;
+  }
+
+  /**
+   * Collects the mapped properties of a result map, in the order they are applied.
+   */
+  static class Builder {
+
+    private final Class<?> type;
+    private final Reflector reflector;
+    private final ResultSetWrapper rsw;
+    private final boolean callSettersOnNulls;
+    private final List<PropertySetter> propertySetters = new ArrayList<>();
+
+    Builder(Class<?> type, ReflectorFactory reflectorFactory, ResultSetWrapper rsw, boolean callSettersOnNulls) {
+      this.type = type;
+      this.reflector = reflectorFactory.findForClass(type);
+      this.rsw = rsw;
+      this.callSettersOnNulls = callSettersOnNulls;
+    }
+
+    /**
+     * 添加一个属性的映射
+     * @param column 列名称
+     * @param property 属性名称
+     * @param typeHandler 类型处理器
+     * @return 能否编译该属性的赋值，属性名称为嵌套的属性或者无法访问赋值方法时为false
+     */
+    boolean addProperty(String column, String property, TypeHandler<?> typeHandler) {
+      int columnIndex = rsw.getColumnIndex(column);
+      if (columnIndex < 0 || property.indexOf('.') >= 0 || property.indexOf('[') >= 0 || !reflector.hasSetter(property)) {
+        return false;
+      }
+      MethodHandle setter = unreflectSetter(reflector.getSetInvoker(property));
+      if (setter == null) {
+        return false;
+      }
+      propertySetters.add(new PropertySetter(columnIndex, typeHandler, setter.asType(SETTER_TYPE),
+          reflector.getSetterType(property).isPrimitive(), property));
+      return true;
+    }
+
+    CompiledRowMapper build() {
+      return new CompiledRowMapper(type, propertySetters, callSettersOnNulls);
+    }
+
+    private static MethodHandle unreflectSetter(Invoker invoker) {
+      try {
+        if (invoker instanceof MethodInvoker) {
+          Method method = ((MethodInvoker) invoker).getMethod();
+          if (!method.isAccessible() && Reflector.canControlMemberAccessible()) {
+            method.setAccessible(true);
+          }
+          return MethodHandles.lookup().unreflect(method);
+        } else if (invoker instanceof SetFieldInvoker) {
+          Field field = ((SetFieldInvoker) invoker).getField();
+          if (!field.isAccessible() && Reflector.canControlMemberAccessible()) {
+            field.setAccessible(true);
+          }
+          return MethodHandles.lookup().unreflectSetter(field);
+        }
+      } catch (IllegalAccessException | RuntimeException e) {
+        // 无法访问时使用常规的赋值方式
+      }
+      return null;
+    }
+  }
+
+  private static class PropertySetter {
+    private final int columnIndex;
+    private final TypeHandler<?> typeHandler;
+    private final MethodHandle setter;
+    private final boolean primitive;
+    private final String property;
+
+    private PropertySetter(int columnIndex, TypeHandler<?> typeHandler, MethodHandle setter, boolean primitive, String property) {
+      this.columnIndex = columnIndex;
+      this.typeHandler = typeHandler;
+      this.setter = setter;
+      this.primitive = primitive;
+      this.property = property;
+    }
+  }
+
+}
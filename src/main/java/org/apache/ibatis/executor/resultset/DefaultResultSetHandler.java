@@ -23,25 +23,35 @@ import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import org.apache.ibatis.annotations.AutomapConstructor;
 import org.apache.ibatis.binding.MapperMethod.ParamMap;
+import org.apache.ibatis.cache.Cache;
 import org.apache.ibatis.cache.CacheKey;
 import org.apache.ibatis.cursor.Cursor;
 import org.apache.ibatis.cursor.defaults.DefaultCursor;
 import org.apache.ibatis.executor.ErrorContext;
 import org.apache.ibatis.executor.Executor;
 import org.apache.ibatis.executor.ExecutorException;
+import org.apache.ibatis.executor.loader.BatchResultLoader;
+import org.apache.ibatis.executor.loader.NestedQueryBatch;
 import org.apache.ibatis.executor.loader.ResultLoader;
 import org.apache.ibatis.executor.loader.ResultLoaderMap;
 import org.apache.ibatis.executor.parameter.ParameterHandler;
 import org.apache.ibatis.executor.result.DefaultResultContext;
 import org.apache.ibatis.executor.result.DefaultResultHandler;
 import org.apache.ibatis.executor.result.ResultMapException;
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.LogFactory;
 import org.apache.ibatis.mapping.BoundSql;
 import org.apache.ibatis.mapping.Discriminator;
 import org.apache.ibatis.mapping.MappedStatement;
@@ -53,6 +63,7 @@ import org.apache.ibatis.reflection.MetaClass;
 import org.apache.ibatis.reflection.MetaObject;
 import org.apache.ibatis.reflection.ReflectorFactory;
 import org.apache.ibatis.reflection.factory.ObjectFactory;
+import org.apache.ibatis.reflection.wrapper.BeanWrapper;
 import org.apache.ibatis.session.AutoMappingBehavior;
 import org.apache.ibatis.session.Configuration;
 import org.apache.ibatis.session.ResultContext;
@@ -70,6 +81,8 @@ import org.apache.ibatis.type.TypeHandlerRegistry;
  */
 public class DefaultResultSetHandler implements ResultSetHandler {
 
+  private static final Log log = LogFactory.getLog(DefaultResultSetHandler.class);
+
   private static final Object DEFERRED = new Object();
 
   private final Executor executor;
@@ -102,11 +115,48 @@ public class DefaultResultSetHandler implements ResultSetHandler {
   // temporary marking flag that indicate using constructor mapping (use field to reduce memory usage)
   private boolean useConstructorMappings;
 
+  // 等待并发执行的嵌套查询，键由缓存键和目标类型组成；为null表示嵌套查询在当前线程上依次执行
+  private Map<CacheKey, PendingNestedQuery> pendingNestedQueries;
+  // 当前连接是否允许并发执行嵌套查询，首次遇到嵌套查询时判断
+  private Boolean nestedQueriesInParallel;
+  // 各个批量执行的嵌套查询映射对应的批次，按映射对象本身区分
+  private final Map<ResultMapping, NestedQueryBatch> nestedQueryBatches = new IdentityHashMap<>();
+  // 等待批量加载的立即加载属性；为null表示结果对象会被逐个交出，此时不进行批量加载
+  private List<PendingBatchFetch> pendingBatchFetches;
+  // 是否已经记录过批量加载被禁用的日志
+  private boolean batchFetchDisabledLogged;
+  // 当前结果集使用的编译后的行映射器，键为结果映射id和列前缀
+  private final Map<String, CompiledRowMapper> compiledRowMappers = new HashMap<>();
+  // compiledRowMappers对应的结果集
+  private ResultSetWrapper compiledRowMappersResultSet;
+
   private static class PendingRelation {
     public MetaObject metaObject;
     public ResultMapping propertyMapping;
   }
 
+  private static class PendingNestedQuery {
+    private final ResultLoader resultLoader;
+    private final List<MetaObject> metaObjects = new ArrayList<>();
+    private final List<String> properties = new ArrayList<>();
+
+    PendingNestedQuery(ResultLoader resultLoader) {
+      this.resultLoader = resultLoader;
+    }
+  }
+
+  private static class PendingBatchFetch {
+    private final BatchResultLoader resultLoader;
+    private final MetaObject metaObject;
+    private final String property;
+
+    PendingBatchFetch(BatchResultLoader resultLoader, MetaObject metaObject, String property) {
+      this.resultLoader = resultLoader;
+      this.metaObject = metaObject;
+      this.property = property;
+    }
+  }
+
   private static class UnMappedColumnAutoMapping {
     private final String column;
     private final String property;
@@ -162,6 +212,9 @@ public class DefaultResultSetHandler implements ResultSetHandler {
         }
       }
     }
+    // 游标类型的输出参数中收集到的嵌套查询在此执行
+    executePendingBatchFetches();
+    executePendingNestedQueries();
   }
 
   // 处理嵌套的输出参数
@@ -172,7 +225,7 @@ public class DefaultResultSetHandler implements ResultSetHandler {
     try {
       final String resultMapId = parameterMapping.getResultMapId();
       final ResultMap resultMap = configuration.getResultMap(resultMapId);
-      final ResultSetWrapper rsw = new ResultSetWrapper(rs, configuration);
+      final ResultSetWrapper rsw = new ResultSetWrapper(rs, configuration, mappedStatement.getId() + "#" + parameterMapping.getProperty());
       if (this.resultHandler == null) {
         final DefaultResultHandler resultHandler = new DefaultResultHandler(objectFactory);
         handleRowValues(rsw, resultMap, resultHandler, new RowBounds(), null);
@@ -211,6 +264,13 @@ public class DefaultResultSetHandler implements ResultSetHandler {
     int resultMapCount = resultMaps.size();
     // 合法性校验（存在输出结果集的情况下，resultMapCount不能为0）
     validateResultMapsCount(rsw, resultMapCount);
+    // 结果对象全部交给调用者时才能在最后统一执行嵌套查询，自定义的resultHandler会提前拿到结果对象
+    if (resultHandler == null) {
+      pendingBatchFetches = new ArrayList<>();
+      if (configuration.getNestedQueryExecutorService() != null) {
+        pendingNestedQueries = new LinkedHashMap<>();
+      }
+    }
     // 循环遍历每一个设置了resultMap的结果集
     while (rsw != null && resultMapCount > resultSetCount) {
       // 获得当前结果集对应的resultMap
@@ -218,7 +278,7 @@ public class DefaultResultSetHandler implements ResultSetHandler {
       // 进行结果集的处理
       handleResultSet(rsw, resultMap, multipleResults, null);
       // 获取下一结果集
-      rsw = getNextResultSet(stmt);
+      rsw = getNextResultSet(stmt, resultSetCount + 1);
       // 清理上一条结果集的环境
       cleanUpAfterHandlingResultSet();
       resultSetCount++;
@@ -238,11 +298,15 @@ public class DefaultResultSetHandler implements ResultSetHandler {
           // 处理嵌套映射
           handleResultSet(rsw, resultMap, null, parentMapping);
         }
-        rsw = getNextResultSet(stmt);
+        rsw = getNextResultSet(stmt, resultSetCount + 1);
         cleanUpAfterHandlingResultSet();
         resultSetCount++;
       }
     }
+    // 批量执行收集到的嵌套查询，并将结果写回父对象
+    executePendingBatchFetches();
+    // 并发执行收集到的嵌套查询，并将结果写回父对象
+    executePendingNestedQueries();
     // 判断是否是单结果集：如果是则返回结果列表；如果否则返回结果集列表
     return collapseSingleResultList(multipleResults);
   }
@@ -262,6 +326,10 @@ public class DefaultResultSetHandler implements ResultSetHandler {
     }
 
     ResultMap resultMap = resultMaps.get(0);
+    if (resultMap.hasNestedResultMaps() && !mappedStatement.isResultOrdered() && log.isDebugEnabled()) {
+      log.debug("Statement '" + mappedStatement.getId() + "' maps nested results through a cursor without resultOrdered."
+          + " All the objects read are kept to merge their rows until the cursor is closed.");
+    }
     return new DefaultCursor<>(this, resultMap, rsw, rowBounds);
   }
 
@@ -279,10 +347,10 @@ public class DefaultResultSetHandler implements ResultSetHandler {
         }
       }
     }
-    return rs != null ? new ResultSetWrapper(rs, configuration) : null;
+    return rs != null ? new ResultSetWrapper(rs, configuration, mappedStatement.getId()) : null;
   }
 
-  private ResultSetWrapper getNextResultSet(Statement stmt) {
+  private ResultSetWrapper getNextResultSet(Statement stmt, int resultSetIndex) {
     // Making this method tolerant of bad JDBC drivers
     try {
       if (stmt.getConnection().getMetaData().supportsMultipleResultSets()) {
@@ -290,9 +358,9 @@ public class DefaultResultSetHandler implements ResultSetHandler {
         if (!(!stmt.getMoreResults() && stmt.getUpdateCount() == -1)) {
           ResultSet rs = stmt.getResultSet();
           if (rs == null) {
-            return getNextResultSet(stmt);
+            return getNextResultSet(stmt, resultSetIndex);
           } else {
-            return new ResultSetWrapper(rs, configuration);
+            return new ResultSetWrapper(rs, configuration, mappedStatement.getId() + "#" + resultSetIndex);
           }
         }
       }
@@ -316,6 +384,15 @@ public class DefaultResultSetHandler implements ResultSetHandler {
     nestedResultObjects.clear();
   }
 
+  /**
+   * 游标关闭时释放合并嵌套结果的状态，包括尚未交出的根对象。游标提前关闭或达到行数限制时，
+   * 这些状态不会随着仍被引用的游标一直保留
+   */
+  public void cleanUpAfterCursor() {
+    cleanUpAfterHandlingResultSet();
+    previousRowValue = null;
+  }
+
   private void validateResultMapsCount(ResultSetWrapper rsw, int resultMapCount) {
     if (rsw != null && resultMapCount < 1) {
       throw new ExecutorException("A query was run and no Result Maps were found for the Mapped Statement '" + mappedStatement.getId()
@@ -495,6 +572,12 @@ public class DefaultResultSetHandler implements ResultSetHandler {
     // 创建这一行记录对应的对象
     Object rowValue = createResultObject(rsw, resultMap, lazyLoader, columnPrefix);
     if (rowValue != null && !hasTypeHandlerForResultObject(rsw, resultMap.getType())) {
+      // 能够使用编译后的行映射器时，直接给属性赋值
+      final CompiledRowMapper rowMapper = getCompiledRowMapper(rsw, resultMap, rowValue, columnPrefix);
+      if (rowMapper != null) {
+        boolean foundValues = rowMapper.map(rsw.getResultSet(), rowValue) || this.useConstructorMappings;
+        return foundValues || configuration.isReturnInstanceForEmptyRow() ? rowValue : null;
+      }
       // 根据对象得到其MetaObject
       final MetaObject metaObject = configuration.newMetaObject(rowValue);
       boolean foundValues = this.useConstructorMappings;
@@ -511,6 +594,76 @@ public class DefaultResultSetHandler implements ResultSetHandler {
     return rowValue;
   }
 
+  /**
+   * 获取结果映射编译后的行映射器，首次使用时由第一个结果对象编译得到
+   * @param rsw 结果集包装
+   * @param resultMap 结果映射
+   * @param rowValue 当前行的结果对象
+   * @param columnPrefix 列前缀
+   * @return 行映射器，未启用或者结果映射不能编译时为null
+   * @throws SQLException
+   */
+  private CompiledRowMapper getCompiledRowMapper(ResultSetWrapper rsw, ResultMap resultMap, Object rowValue, String columnPrefix) throws SQLException {
+    if (!configuration.isUseCompiledRowMappers() || resultMap.hasNestedResultMaps() || resultMap.hasNestedQueries()
+        || resultMap.getDiscriminator() != null) {
+      return null;
+    }
+    if (compiledRowMappersResultSet != rsw) {
+      compiledRowMappers.clear();
+      compiledRowMappersResultSet = rsw;
+    }
+    final String mapKey = resultMap.getId() + ":" + columnPrefix;
+    CompiledRowMapper rowMapper = compiledRowMappers.get(mapKey);
+    if (rowMapper == null) {
+      // 行映射器按列序号读取，保存在列布局中，列相同的结果集共用
+      final ResultSetLayout layout = rsw.getLayout();
+      final String key = mapKey + ":" + rowValue.getClass().getName();
+      rowMapper = layout.getCompiledRowMapper(key);
+      if (rowMapper == null) {
+        rowMapper = compileRowMapper(rsw, resultMap, configuration.newMetaObject(rowValue), columnPrefix);
+        layout.addCompiledRowMapper(key, rowMapper);
+      }
+      compiledRowMappers.put(mapKey, rowMapper);
+    }
+    return rowMapper.supports(rowValue) ? rowMapper : null;
+  }
+
+  /**
+   * 编译行映射器，自动映射和明示的映射按照与常规映射相同的顺序赋值
+   * @param rsw 结果集包装
+   * @param resultMap 结果映射
+   * @param metaObject 第一个结果对象的MetaObject
+   * @param columnPrefix 列前缀
+   * @return 行映射器，有不能编译的映射时为CompiledRowMapper.UNSUPPORTED
+   * @throws SQLException
+   */
+  private CompiledRowMapper compileRowMapper(ResultSetWrapper rsw, ResultMap resultMap, MetaObject metaObject, String columnPrefix) throws SQLException {
+    if (!(metaObject.getObjectWrapper() instanceof BeanWrapper)) {
+      return CompiledRowMapper.UNSUPPORTED;
+    }
+    final CompiledRowMapper.Builder builder = new CompiledRowMapper.Builder(metaObject.getOriginalObject().getClass(),
+        reflectorFactory, rsw, configuration.isCallSettersOnNulls());
+    if (shouldApplyAutomaticMappings(resultMap, false)) {
+      for (UnMappedColumnAutoMapping mapping : createAutomaticMappings(rsw, resultMap, metaObject, columnPrefix)) {
+        if (!builder.addProperty(mapping.column, mapping.property, mapping.typeHandler)) {
+          return CompiledRowMapper.UNSUPPORTED;
+        }
+      }
+    }
+    final List<String> mappedColumnNames = rsw.getMappedColumnNames(resultMap, columnPrefix);
+    for (ResultMapping propertyMapping : resultMap.getPropertyResultMappings()) {
+      if (propertyMapping.isCompositeResult() || propertyMapping.getResultSet() != null) {
+        return CompiledRowMapper.UNSUPPORTED;
+      }
+      final String column = prependPrefix(propertyMapping.getColumn(), columnPrefix);
+      if (propertyMapping.getProperty() != null && column != null && mappedColumnNames.contains(column.toUpperCase(Locale.ENGLISH))
+          && !builder.addProperty(column, propertyMapping.getProperty(), propertyMapping.getTypeHandler())) {
+        return CompiledRowMapper.UNSUPPORTED;
+      }
+    }
+    return builder.build();
+  }
+
   private boolean shouldApplyAutomaticMappings(ResultMap resultMap, boolean isNested) {
     if (resultMap.getAutoMapping() != null) {
       return resultMap.getAutoMapping();
@@ -541,7 +694,7 @@ public class DefaultResultSetHandler implements ResultSetHandler {
       if (propertyMapping.isCompositeResult()
           || (column != null && mappedColumnNames.contains(column.toUpperCase(Locale.ENGLISH)))
           || propertyMapping.getResultSet() != null) {
-        Object value = getPropertyMappingValue(rsw.getResultSet(), metaObject, propertyMapping, lazyLoader, columnPrefix);
+        Object value = getPropertyMappingValue(rsw, metaObject, propertyMapping, lazyLoader, columnPrefix);
         // issue #541 make property optional
         final String property = propertyMapping.getProperty();
         if (property == null) {
@@ -562,8 +715,9 @@ public class DefaultResultSetHandler implements ResultSetHandler {
     return foundValues;
   }
 
-  private Object getPropertyMappingValue(ResultSet rs, MetaObject metaResultObject, ResultMapping propertyMapping, ResultLoaderMap lazyLoader, String columnPrefix)
+  private Object getPropertyMappingValue(ResultSetWrapper rsw, MetaObject metaResultObject, ResultMapping propertyMapping, ResultLoaderMap lazyLoader, String columnPrefix)
       throws SQLException {
+    final ResultSet rs = rsw.getResultSet();
     if (propertyMapping.getNestedQueryId() != null) {
       return getNestedQueryMappingValue(rs, metaResultObject, propertyMapping, lazyLoader, columnPrefix);
     } else if (propertyMapping.getResultSet() != null) {
@@ -572,13 +726,27 @@ public class DefaultResultSetHandler implements ResultSetHandler {
     } else {
       final TypeHandler<?> typeHandler = propertyMapping.getTypeHandler();
       final String column = prependPrefix(propertyMapping.getColumn(), columnPrefix);
-      return typeHandler.getResult(rs, column);
+      return rsw.getResult(typeHandler, column);
     }
   }
 
+  @SuppressWarnings("unchecked")
   private List<UnMappedColumnAutoMapping> createAutomaticMappings(ResultSetWrapper rsw, ResultMap resultMap, MetaObject metaObject, String columnPrefix) throws SQLException {
     final String mapKey = resultMap.getId() + ":" + columnPrefix;
     List<UnMappedColumnAutoMapping> autoMapping = autoMappingsCache.get(mapKey);
+    if (autoMapping != null) {
+      return autoMapping;
+    }
+    // 再从所有查询共用的缓存中查找，列相同的结果集共用同一个列布局，方案也相同
+    final Cache planCache = configuration.getAutoMappingPlanCache();
+    CacheKey planKey = null;
+    if (planCache != null) {
+      planKey = new CacheKey();
+      planKey.update(mapKey);
+      planKey.update(metaObject.getOriginalObject().getClass());
+      planKey.update(rsw.getLayout());
+      autoMapping = (List<UnMappedColumnAutoMapping>) planCache.getObject(planKey);
+    }
     if (autoMapping == null) {
       autoMapping = new ArrayList<>();
       final List<String> unmappedColumnNames = rsw.getUnmappedColumnNames(resultMap, columnPrefix);
@@ -611,8 +779,11 @@ public class DefaultResultSetHandler implements ResultSetHandler {
               .doAction(mappedStatement, columnName, (property != null) ? property : propertyName, null);
         }
       }
-      autoMappingsCache.put(mapKey, autoMapping);
+      if (planCache != null) {
+        planCache.putObject(planKey, autoMapping);
+      }
     }
+    autoMappingsCache.put(mapKey, autoMapping);
     return autoMapping;
   }
 
@@ -621,7 +792,7 @@ public class DefaultResultSetHandler implements ResultSetHandler {
     boolean foundValues = false;
     if (!autoMapping.isEmpty()) {
       for (UnMappedColumnAutoMapping mapping : autoMapping) {
-        final Object value = mapping.typeHandler.getResult(rsw.getResultSet(), mapping.column);
+        final Object value = rsw.getResult(mapping.typeHandler, mapping.column);
         if (value != null) {
           foundValues = true;
         }
@@ -742,7 +913,7 @@ public class DefaultResultSetHandler implements ResultSetHandler {
           value = getRowValue(rsw, resultMap, getColumnPrefix(columnPrefix, constructorMapping));
         } else {
           final TypeHandler<?> typeHandler = constructorMapping.getTypeHandler();
-          value = typeHandler.getResult(rsw.getResultSet(), prependPrefix(column, columnPrefix));
+          value = rsw.getResult(typeHandler, prependPrefix(column, columnPrefix));
         }
       } catch (ResultMapException | SQLException e) {
         throw new ExecutorException("Could not process result for mapping: " + constructorMapping, e);
@@ -775,7 +946,7 @@ public class DefaultResultSetHandler implements ResultSetHandler {
       Class<?> parameterType = constructor.getParameterTypes()[i];
       String columnName = rsw.getColumnNames().get(i);
       TypeHandler<?> typeHandler = rsw.getTypeHandler(parameterType, columnName);
-      Object value = typeHandler.getResult(rsw.getResultSet(), columnName);
+      Object value = rsw.getResult(typeHandler, columnName);
       constructorArgTypes.add(parameterType);
       constructorArgs.add(value);
       foundValues = value != null || foundValues;
@@ -820,7 +991,7 @@ public class DefaultResultSetHandler implements ResultSetHandler {
       columnName = rsw.getColumnNames().get(0);
     }
     final TypeHandler<?> typeHandler = rsw.getTypeHandler(resultType, columnName);
-    return typeHandler.getResult(rsw.getResultSet(), columnName);
+    return rsw.getResult(typeHandler, columnName);
   }
 
   //
@@ -851,7 +1022,9 @@ public class DefaultResultSetHandler implements ResultSetHandler {
     final Class<?> nestedQueryParameterType = nestedQuery.getParameterMap().getType();
     final Object nestedQueryParameterObject = prepareParameterForNestedQuery(rs, propertyMapping, nestedQueryParameterType, columnPrefix);
     Object value = null;
-    if (nestedQueryParameterObject != null) {
+    if (nestedQueryParameterObject != null && propertyMapping.isBatchFetch()) {
+      value = getBatchFetchMappingValue(metaResultObject, propertyMapping, nestedQuery, nestedQueryParameterObject, lazyLoader);
+    } else if (nestedQueryParameterObject != null) {
       final BoundSql nestedBoundSql = nestedQuery.getBoundSql(nestedQueryParameterObject);
       final CacheKey key = executor.createCacheKey(nestedQuery, nestedQueryParameterObject, RowBounds.DEFAULT, nestedBoundSql);
       final Class<?> targetType = propertyMapping.getJavaType();
@@ -863,6 +1036,9 @@ public class DefaultResultSetHandler implements ResultSetHandler {
         if (propertyMapping.isLazy()) {
           lazyLoader.addLoader(property, metaResultObject, resultLoader);
           value = DEFERRED;
+        } else if (isNestedQueriesInParallel()) {
+          addPendingNestedQuery(metaResultObject, property, key, targetType, resultLoader);
+          value = DEFERRED;
         } else {
           value = resultLoader.loadResult();
         }
@@ -871,6 +1047,151 @@ public class DefaultResultSetHandler implements ResultSetHandler {
     return value;
   }
 
+  /**
+   * 将嵌套查询登记到该映射的批次中，延迟加载和立即加载都在首次加载时一次查询多个父对象的结果。
+   * 结果对象通过游标或自定义的resultHandler逐个交出时，批次会随着结果行不断增长，立即加载也无法等到
+   * 其他父对象，因此此时每个父对象单独使用一个只含自身键的批次
+   * @param metaResultObject 父对象
+   * @param propertyMapping 属性映射
+   * @param nestedQuery 嵌套查询语句
+   * @param key 父对象的键
+   * @param lazyLoader 延迟加载器
+   * @return 属性值，延迟设置时为DEFERRED
+   * @throws SQLException
+   */
+  private Object getBatchFetchMappingValue(MetaObject metaResultObject, ResultMapping propertyMapping, MappedStatement nestedQuery, Object key, ResultLoaderMap lazyLoader)
+      throws SQLException {
+    final String property = propertyMapping.getProperty();
+    final NestedQueryBatch batch;
+    if (pendingBatchFetches != null) {
+      batch = nestedQueryBatches.computeIfAbsent(propertyMapping,
+          mapping -> new NestedQueryBatch(configuration, mapping.getBatchFetchSize(), mapping.getBatchFetchKey(), !mapping.isLazy()));
+    } else {
+      logBatchFetchDisabled(propertyMapping);
+      batch = new NestedQueryBatch(configuration, 1, propertyMapping.getBatchFetchKey(), true);
+    }
+    final BatchResultLoader resultLoader = new BatchResultLoader(configuration, executor, nestedQuery, propertyMapping.getJavaType(), batch, key);
+    if (propertyMapping.isLazy()) {
+      lazyLoader.addLoader(property, metaResultObject, resultLoader);
+      return DEFERRED;
+    } else if (pendingBatchFetches != null) {
+      pendingBatchFetches.add(new PendingBatchFetch(resultLoader, metaResultObject, property));
+      return DEFERRED;
+    }
+    return resultLoader.loadResult();
+  }
+
+  private void logBatchFetchDisabled(ResultMapping propertyMapping) {
+    if (!batchFetchDisabledLogged && log.isDebugEnabled()) {
+      log.debug("batchFetchSize of property '" + propertyMapping.getProperty() + "' in statement '" + mappedStatement.getId()
+          + "' is ignored because results are handed out one by one through a cursor or a ResultHandler. The nested select runs once per row.");
+    }
+    batchFetchDisabledLogged = true;
+  }
+
+  /**
+   * 加载等待批量加载的属性，同一批次中的键每次最多一起查询batchFetchSize个
+   * @throws SQLException
+   */
+  private void executePendingBatchFetches() throws SQLException {
+    if (pendingBatchFetches == null || pendingBatchFetches.isEmpty()) {
+      return;
+    }
+    final List<PendingBatchFetch> pending = new ArrayList<>(pendingBatchFetches);
+    pendingBatchFetches.clear();
+    for (PendingBatchFetch pendingBatchFetch : pending) {
+      final Object value = pendingBatchFetch.resultLoader.loadResult();
+      final MetaObject metaObject = pendingBatchFetch.metaObject;
+      final String property = pendingBatchFetch.property;
+      if (value != null || (configuration.isCallSettersOnNulls() && !metaObject.getSetterType(property).isPrimitive())) {
+        metaObject.setValue(property, value);
+      }
+    }
+  }
+
+  /**
+   * 判断嵌套查询是否可以收集起来并发执行。只有连接处于自动提交模式，即不在事务中时，
+   * 嵌套查询才能各自使用一个新的连接执行，否则会看不到当前事务中的数据。
+   * 此时语句已经在该连接上执行，获取连接不会打开新的连接
+   * @return 是否并发执行嵌套查询
+   * @throws SQLException
+   */
+  private boolean isNestedQueriesInParallel() throws SQLException {
+    if (pendingNestedQueries == null) {
+      return false;
+    }
+    if (nestedQueriesInParallel == null) {
+      nestedQueriesInParallel = executor.getTransaction().getConnection().getAutoCommit();
+      if (!nestedQueriesInParallel && log.isDebugEnabled()) {
+        log.debug("Nested selects of statement '" + mappedStatement.getId() + "' run on the calling thread because the connection"
+            + " is not in auto-commit mode, concurrent nested selects would not see the uncommitted changes of the session.");
+      }
+    }
+    return nestedQueriesInParallel;
+  }
+
+  private void addPendingNestedQuery(MetaObject metaResultObject, String property, CacheKey key, Class<?> targetType, ResultLoader resultLoader) {
+    // 相同的查询只执行一次，结果写回所有需要它的父对象
+    final CacheKey pendingKey = new CacheKey(new Object[] { key, targetType });
+    PendingNestedQuery pendingNestedQuery = pendingNestedQueries.computeIfAbsent(pendingKey, k -> new PendingNestedQuery(resultLoader));
+    pendingNestedQuery.metaObjects.add(metaResultObject);
+    pendingNestedQuery.properties.add(property);
+  }
+
+  /**
+   * 在线程池中并发执行收集到的嵌套查询，每个查询使用自己的执行器和连接，全部完成后将结果写回父对象
+   * @throws SQLException
+   */
+  private void executePendingNestedQueries() throws SQLException {
+    if (pendingNestedQueries == null || pendingNestedQueries.isEmpty()) {
+      return;
+    }
+    final List<PendingNestedQuery> pending = new ArrayList<>(pendingNestedQueries.values());
+    pendingNestedQueries.clear();
+    final Object[] values = new Object[pending.size()];
+    if (pending.size() == 1) {
+      // 只有一个查询时没有必要切换线程
+      values[0] = pending.get(0).resultLoader.loadResult();
+    } else {
+      final ExecutorService executorService = configuration.getNestedQueryExecutorService();
+      final List<Future<Object>> futures = new ArrayList<>(pending.size());
+      try {
+        for (PendingNestedQuery pendingNestedQuery : pending) {
+          futures.add(executorService.submit(pendingNestedQuery.resultLoader::loadResult));
+        }
+        for (int i = 0; i < futures.size(); i++) {
+          values[i] = futures.get(i).get();
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new ExecutorException("Interrupted while waiting for nested queries of " + mappedStatement.getId() + ".", e);
+      } catch (ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof SQLException) {
+          throw (SQLException) cause;
+        } else if (cause instanceof RuntimeException) {
+          throw (RuntimeException) cause;
+        }
+        throw new ExecutorException("Error executing nested query of " + mappedStatement.getId() + ". Cause: " + cause, cause);
+      } finally {
+        for (Future<Object> future : futures) {
+          future.cancel(true);
+        }
+      }
+    }
+    for (int i = 0; i < pending.size(); i++) {
+      PendingNestedQuery pendingNestedQuery = pending.get(i);
+      Object value = values[i];
+      for (int j = 0; j < pendingNestedQuery.metaObjects.size(); j++) {
+        MetaObject metaObject = pendingNestedQuery.metaObjects.get(j);
+        String property = pendingNestedQuery.properties.get(j);
+        if (value != null || (configuration.isCallSettersOnNulls() && !metaObject.getSetterType(property).isPrimitive())) {
+          metaObject.setValue(property, value);
+        }
+      }
+    }
+  }
+
   private Object prepareParameterForNestedQuery(ResultSet rs, ResultMapping resultMapping, Class<?> parameterType, String columnPrefix) throws SQLException {
     if (resultMapping.isCompositeResult()) {
       return prepareCompositeKeyParameter(rs, resultMapping, parameterType, columnPrefix);
@@ -993,6 +1314,8 @@ public class DefaultResultSetHandler implements ResultSetHandler {
       final CacheKey rowKey = createRowKey(discriminatedResultMap, rsw, null);
       Object partialObject = nestedResultObjects.get(rowKey);
       // issue #577 && #542
+      // 结果有序时，根对象的键变化说明上一个根对象的行已经读完：交出上一个根对象，并丢弃其嵌套对象的记录，
+      // 内存中只保留当前根对象，交给ResultHandler或游标的对象都是完整的
       if (mappedStatement.isResultOrdered()) {
         if (partialObject == null && rowValue != null) {
           nestedResultObjects.clear();
@@ -1007,6 +1330,8 @@ public class DefaultResultSetHandler implements ResultSetHandler {
       }
     }
     if (rowValue != null && mappedStatement.isResultOrdered() && shouldProcessMoreRows(resultContext, rowBounds)) {
+      // 结果集已经读完，交出最后一个根对象并丢弃其嵌套对象的记录。游标不会调用cleanUpAfterHandlingResultSet，需要在这里释放
+      nestedResultObjects.clear();
       storeObject(resultHandler, resultContext, rowValue, parentMapping, resultSet);
       previousRowValue = null;
     } else if (rowValue != null) {
@@ -1112,15 +1437,22 @@ public class DefaultResultSetHandler implements ResultSetHandler {
     if (notNullColumns != null && !notNullColumns.isEmpty()) {
       ResultSet rs = rsw.getResultSet();
       for (String column : notNullColumns) {
-        rs.getObject(prependPrefix(column, columnPrefix));
+        final String prefixedColumn = prependPrefix(column, columnPrefix);
+        final int columnIndex = rsw.getColumnIndex(prefixedColumn);
+        if (columnIndex > 0) {
+          rs.getObject(columnIndex);
+        } else {
+          rs.getObject(prefixedColumn);
+        }
         if (!rs.wasNull()) {
           return true;
         }
       }
       return false;
     } else if (columnPrefix != null) {
-      for (String columnName : rsw.getColumnNames()) {
-        if (columnName.toUpperCase().startsWith(columnPrefix.toUpperCase())) {
+      final String upperColumnPrefix = columnPrefix.toUpperCase(Locale.ENGLISH);
+      for (String upperColumnName : rsw.getUpperColumnNames()) {
+        if (upperColumnName.startsWith(upperColumnPrefix)) {
           return true;
         }
       }
@@ -1192,7 +1524,7 @@ public class DefaultResultSetHandler implements ResultSetHandler {
         List<String> mappedColumnNames = rsw.getMappedColumnNames(resultMap, columnPrefix);
         // Issue #114
         if (column != null && mappedColumnNames.contains(column.toUpperCase(Locale.ENGLISH))) {
-          final Object value = th.getResult(rsw.getResultSet(), column);
+          final Object value = rsw.getResult(th, column);
           if (value != null || configuration.isReturnInstanceForEmptyRow()) {
             cacheKey.update(column);
             cacheKey.update(value);
@@ -1216,7 +1548,7 @@ public class DefaultResultSetHandler implements ResultSetHandler {
         }
       }
       if (metaType.findProperty(property, configuration.isMapUnderscoreToCamelCase()) != null) {
-        String value = rsw.getResultSet().getString(column);
+        String value = getString(rsw, column);
         if (value != null) {
           cacheKey.update(column);
           cacheKey.update(value);
@@ -1228,7 +1560,7 @@ public class DefaultResultSetHandler implements ResultSetHandler {
   private void createRowKeyForMap(ResultSetWrapper rsw, CacheKey cacheKey) throws SQLException {
     List<String> columnNames = rsw.getColumnNames();
     for (String columnName : columnNames) {
-      final String value = rsw.getResultSet().getString(columnName);
+      final String value = getString(rsw, columnName);
       if (value != null) {
         cacheKey.update(columnName);
         cacheKey.update(value);
@@ -1236,6 +1568,11 @@ public class DefaultResultSetHandler implements ResultSetHandler {
     }
   }
 
+  private String getString(ResultSetWrapper rsw, String columnName) throws SQLException {
+    final int columnIndex = rsw.getColumnIndex(columnName);
+    return columnIndex > 0 ? rsw.getResultSet().getString(columnIndex) : rsw.getResultSet().getString(columnName);
+  }
+
   private void linkObjects(MetaObject metaObject, ResultMapping resultMapping, Object rowValue) {
     final Object collectionProperty = instantiateCollectionPropertyIfAppropriate(resultMapping, metaObject);
     if (collectionProperty != null) {
@@ -0,0 +1,308 @@
+/**
+ *    Copyright 2009-2019 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor.resultset;
+
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.ibatis.io.Resources;
+import org.apache.ibatis.mapping.ResultMap;
+import org.apache.ibatis.type.JdbcType;
+import org.apache.ibatis.type.ObjectTypeHandler;
+import org.apache.ibatis.type.TypeHandler;
+import org.apache.ibatis.type.TypeHandlerRegistry;
+import org.apache.ibatis.type.UnknownTypeHandler;
+
+/**
+ * The columns of a result set as read from its metadata, together with everything derived from them.
+ * <p>
+ * A layout does not reference the result set it was read from. The result sets of a statement usually have the
+ * same columns every time it runs, so the layout is kept in the configuration and reused by later executions whose
+ * metadata {@link #matches(ResultSetMetaData, boolean) matches}. The derived lookups are filled lazily and may be
+ * used by several threads at once. Compiled row mappers are kept here as well, since they read the columns by index:
+ * when the columns of a statement change, the new layout replaces the old one and its row mappers go with it.
+ *
+ * @see ResultSetWrapper
+ */
+public final class ResultSetLayout {
+
+  // 类型处理器注册表
+  private final TypeHandlerRegistry typeHandlerRegistry;
+  // 读取列名称时是否使用列标签
+  private final boolean useColumnLabel;
+  // 各个列对应的列名列表
+  private final List<String> columnNames;
+  // 各个列的标签，驱动按名称读取列时使用标签。使用列标签作为列名称时与columnNames相同
+  private final List<String> columnLabels;
+  // 各个列对应的大写列名列表
+  private final List<String> upperColumnNames;
+  // 各个列对应的Java类型名列表
+  private final List<String> classNames;
+  // 各个列对应的JDBC类型列表
+  private final List<JdbcType> jdbcTypes;
+  // 各个列对应的JDBC类型编号，用来判断元数据是否相同
+  private final int[] jdbcTypeCodes;
+  // 列标签与列序号（从1开始）的对应关系，按照读取时使用的写法存放，找不到的列为-1
+  private final Map<String, Integer> columnIndexMap = new ConcurrentHashMap<>();
+  // 类型与类型处理器的映射表。结构为：Map<列名，Map<Java类型，类型处理器>>
+  // 同一个列可以映射给不同类型的属性，因此一个列可能对应多个类型处理器
+  private final Map<String, Map<Class<?>, TypeHandler<?>>> typeHandlerMap = new ConcurrentHashMap<>();
+  // 记录了所有的有映射关系的列。结构为：Map<resultMap的id:列前缀，List<大写的列名>>
+  private final Map<String, List<String>> mappedColumnNamesMap = new ConcurrentHashMap<>();
+  // 记录了所有的无映射关系的列。结构为：Map<resultMap的id:列前缀，List<列名>>
+  private final Map<String, List<String>> unMappedColumnNamesMap = new ConcurrentHashMap<>();
+  // 编译后的行映射器。结构为：Map<resultMap的id:列前缀:结果类型，行映射器>
+  private final Map<String, CompiledRowMapper> compiledRowMappers = new ConcurrentHashMap<>();
+
+  /**
+   * 读取结果集的元数据，生成列的布局
+   * @param metaData 结果集的元数据
+   * @param useColumnLabel 是否使用列标签作为列名称
+   * @param typeHandlerRegistry 类型处理器注册表
+   * @throws SQLException
+   */
+  ResultSetLayout(ResultSetMetaData metaData, boolean useColumnLabel, TypeHandlerRegistry typeHandlerRegistry) throws SQLException {
+    this.typeHandlerRegistry = typeHandlerRegistry;
+    this.useColumnLabel = useColumnLabel;
+    final int columnCount = metaData.getColumnCount();
+    final List<String> columnNames = new ArrayList<>(columnCount);
+    final List<String> columnLabels = useColumnLabel ? columnNames : new ArrayList<>(columnCount);
+    final List<String> upperColumnNames = new ArrayList<>(columnCount);
+    final List<String> classNames = new ArrayList<>(columnCount);
+    final List<JdbcType> jdbcTypes = new ArrayList<>(columnCount);
+    this.jdbcTypeCodes = new int[columnCount];
+    for (int i = 1; i <= columnCount; i++) {
+      final String columnName = getColumnName(metaData, i, useColumnLabel);
+      columnNames.add(columnName);
+      if (!useColumnLabel) {
+        columnLabels.add(metaData.getColumnLabel(i));
+      }
+      upperColumnNames.add(columnName == null ? null : columnName.toUpperCase(Locale.ENGLISH));
+      jdbcTypeCodes[i - 1] = metaData.getColumnType(i);
+      jdbcTypes.add(JdbcType.forCode(jdbcTypeCodes[i - 1]));
+      classNames.add(metaData.getColumnClassName(i));
+    }
+    this.columnNames = Collections.unmodifiableList(columnNames);
+    this.columnLabels = useColumnLabel ? this.columnNames : Collections.unmodifiableList(columnLabels);
+    this.upperColumnNames = Collections.unmodifiableList(upperColumnNames);
+    this.classNames = Collections.unmodifiableList(classNames);
+    this.jdbcTypes = Collections.unmodifiableList(jdbcTypes);
+  }
+
+  /**
+   * 判断结果集的列是否与该布局相同，即列的数目、名称、标签、JDBC类型和Java类型名都相同。
+   * 类型处理器的选择还取决于Java类型名，同一JDBC类型（如OTHER、JAVA_OBJECT、ARRAY）可能对应不同的Java类型，因此一并比较。
+   * 只读取元数据，不创建对象
+   * @param metaData 结果集的元数据
+   * @param useColumnLabel 是否使用列标签作为列名称
+   * @return 是否可以使用该布局
+   * @throws SQLException
+   */
+  boolean matches(ResultSetMetaData metaData, boolean useColumnLabel) throws SQLException {
+    if (this.useColumnLabel != useColumnLabel || metaData.getColumnCount() != columnNames.size()) {
+      return false;
+    }
+    for (int i = 1; i <= jdbcTypeCodes.length; i++) {
+      if (jdbcTypeCodes[i - 1] != metaData.getColumnType(i)
+          || !Objects.equals(columnNames.get(i - 1), getColumnName(metaData, i, useColumnLabel))
+          || !useColumnLabel && !Objects.equals(columnLabels.get(i - 1), metaData.getColumnLabel(i))
+          || !Objects.equals(classNames.get(i - 1), metaData.getColumnClassName(i))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static String getColumnName(ResultSetMetaData metaData, int column, boolean useColumnLabel) throws SQLException {
+    return useColumnLabel ? metaData.getColumnLabel(column) : metaData.getColumnName(column);
+  }
+
+  List<String> getColumnNames() {
+    return columnNames;
+  }
+
+  List<String> getUpperColumnNames() {
+    return upperColumnNames;
+  }
+
+  List<String> getClassNames() {
+    return classNames;
+  }
+
+  List<JdbcType> getJdbcTypes() {
+    return jdbcTypes;
+  }
+
+  JdbcType getJdbcType(String columnName) {
+    for (int i = 0; i < columnNames.size(); i++) {
+      if (columnName != null && columnName.equalsIgnoreCase(columnNames.get(i))) {
+        return jdbcTypes.get(i);
+      }
+    }
+    return null;
+  }
+
+  /**
+   * 获取读取某列时使用的列序号。与驱动按列名称读取时一样按列标签查找并忽略大小写，有多个同名列时取第一个。
+   * 因此未使用列标签作为列名称时，结果与按列名称读取相同。每种写法只查找一次
+   * @param columnName 读取时使用的列名称
+   * @return 列序号，从1开始；没有该列时为-1
+   */
+  int getColumnIndex(String columnName) {
+    if (columnName == null) {
+      return -1;
+    }
+    Integer columnIndex = columnIndexMap.get(columnName);
+    if (columnIndex == null) {
+      columnIndex = -1;
+      for (int i = 0; i < columnLabels.size(); i++) {
+        if (columnName.equalsIgnoreCase(columnLabels.get(i))) {
+          columnIndex = i + 1;
+          break;
+        }
+      }
+      columnIndexMap.put(columnName, columnIndex);
+    }
+    return columnIndex;
+  }
+
+  /**
+   * 获取读取某列给某类型的属性时使用的类型处理器，找到后放入备用
+   * @param propertyType 属性类型
+   * @param columnName 列名称
+   * @return 类型处理器
+   * @see ResultSetWrapper#getTypeHandler(Class, String)
+   */
+  TypeHandler<?> getTypeHandler(Class<?> propertyType, String columnName) {
+    Map<Class<?>, TypeHandler<?>> columnHandlers = typeHandlerMap.get(columnName);
+    if (columnHandlers == null) {
+      columnHandlers = typeHandlerMap.computeIfAbsent(columnName, k -> new ConcurrentHashMap<>());
+    }
+    TypeHandler<?> handler = columnHandlers.get(propertyType);
+    // 如果之前没有，则找到后放入备用。并发时可能重复查找，结果相同
+    if (handler == null) {
+      JdbcType jdbcType = getJdbcType(columnName);
+      // 根据类型去全局寻找对应的handler
+      handler = typeHandlerRegistry.getTypeHandler(propertyType, jdbcType);
+      // Replicate logic of UnknownTypeHandler#resolveTypeHandler
+      // See issue #59 comment 10
+      if (handler == null || handler instanceof UnknownTypeHandler) {
+        final int index = columnNames.indexOf(columnName);
+        final Class<?> javaType = resolveClass(classNames.get(index));
+        if (javaType != null && jdbcType != null) {
+          handler = typeHandlerRegistry.getTypeHandler(javaType, jdbcType);
+        } else if (javaType != null) {
+          handler = typeHandlerRegistry.getTypeHandler(javaType);
+        } else if (jdbcType != null) {
+          handler = typeHandlerRegistry.getTypeHandler(jdbcType);
+        }
+      }
+      if (handler == null || handler instanceof UnknownTypeHandler) {
+        handler = new ObjectTypeHandler();
+      }
+      columnHandlers.put(propertyType, handler);
+    }
+    return handler;
+  }
+
+  private Class<?> resolveClass(String className) {
+    try {
+      // #699 className could be null
+      if (className != null) {
+        return Resources.classForName(className);
+      }
+    } catch (ClassNotFoundException e) {
+      // ignore
+    }
+    return null;
+  }
+
+  List<String> getMappedColumnNames(ResultMap resultMap, String columnPrefix) {
+    final String mapKey = getMapKey(resultMap, columnPrefix);
+    List<String> mappedColumnNames = mappedColumnNamesMap.get(mapKey);
+    if (mappedColumnNames == null) {
+      loadMappedAndUnmappedColumnNames(resultMap, columnPrefix, mapKey);
+      mappedColumnNames = mappedColumnNamesMap.get(mapKey);
+    }
+    return mappedColumnNames;
+  }
+
+  List<String> getUnmappedColumnNames(ResultMap resultMap, String columnPrefix) {
+    final String mapKey = getMapKey(resultMap, columnPrefix);
+    List<String> unMappedColumnNames = unMappedColumnNamesMap.get(mapKey);
+    if (unMappedColumnNames == null) {
+      loadMappedAndUnmappedColumnNames(resultMap, columnPrefix, mapKey);
+      unMappedColumnNames = unMappedColumnNamesMap.get(mapKey);
+    }
+    return unMappedColumnNames;
+  }
+
+  private void loadMappedAndUnmappedColumnNames(ResultMap resultMap, String columnPrefix, String mapKey) {
+    List<String> mappedColumnNames = new ArrayList<>();
+    List<String> unmappedColumnNames = new ArrayList<>();
+    final String upperColumnPrefix = columnPrefix == null ? null : columnPrefix.toUpperCase(Locale.ENGLISH);
+    final Set<String> mappedColumns = prependPrefixes(resultMap.getMappedColumns(), upperColumnPrefix);
+    for (int i = 0; i < columnNames.size(); i++) {
+      final String upperColumnName = upperColumnNames.get(i);
+      if (mappedColumns.contains(upperColumnName)) {
+        mappedColumnNames.add(upperColumnName);
+      } else {
+        unmappedColumnNames.add(columnNames.get(i));
+      }
+    }
+    // 两个列表同时计算，并发时可能重复计算，结果相同
+    mappedColumnNamesMap.put(mapKey, Collections.unmodifiableList(mappedColumnNames));
+    unMappedColumnNamesMap.put(mapKey, Collections.unmodifiableList(unmappedColumnNames));
+  }
+
+  /**
+   * 获取按照该布局编译的行映射器
+   * @param key 由结果映射id、列前缀和结果类型组成的键
+   * @return 行映射器，尚未编译时为null
+   */
+  CompiledRowMapper getCompiledRowMapper(String key) {
+    return compiledRowMappers.get(key);
+  }
+
+  void addCompiledRowMapper(String key, CompiledRowMapper rowMapper) {
+    compiledRowMappers.put(key, rowMapper);
+  }
+
+  private String getMapKey(ResultMap resultMap, String columnPrefix) {
+    return resultMap.getId() + ":" + columnPrefix;
+  }
+
+  private Set<String> prependPrefixes(Set<String> columnNames, String prefix) {
+    if (columnNames == null || columnNames.isEmpty() || prefix == null || prefix.length() == 0) {
+      return columnNames;
+    }
+    final Set<String> prefixed = new HashSet<>();
+    for (String columnName : columnNames) {
+      prefixed.add(prefix + columnName);
+    }
+    return prefixed;
+  }
+
+}
@@ -18,22 +18,12 @@ package org.apache.ibatis.executor.resultset;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Locale;
-import java.util.Map;
-import java.util.Set;
-import org.apache.ibatis.io.Resources;
+
 import org.apache.ibatis.mapping.ResultMap;
 import org.apache.ibatis.session.Configuration;
 import org.apache.ibatis.type.JdbcType;
-import org.apache.ibatis.type.ObjectTypeHandler;
 import org.apache.ibatis.type.TypeHandler;
-import org.apache.ibatis.type.TypeHandlerRegistry;
-import org.apache.ibatis.type.UnknownTypeHandler;
 
 /**
  * @author Iwao AVE!
@@ -41,76 +31,97 @@ import org.apache.ibatis.type.UnknownTypeHandler;
  * ResultSet的封装，包含了ResultSet的一些元数据
  *
  * 类似于装饰器模式，但是比较简单。只是在原有类的外部再封装一些属性、方法
+ * 元数据及由其得出的信息保存在{@link ResultSetLayout}中，同一语句的结果集列相同时共用
  */
 public class ResultSetWrapper {
 
   // 被装饰的resultSet对象
   private final ResultSet resultSet;
-  // 类型处理器注册表
-  private final TypeHandlerRegistry typeHandlerRegistry;
-  // resultSet中各个列对应的列名列表
-  private final List<String> columnNames = new ArrayList<>();
-  // resultSet中各个列对应的Java类型名列表
-  private final List<String> classNames = new ArrayList<>();
-  // resultSet中各个列对应的JDBC类型列表
-  private final List<JdbcType> jdbcTypes = new ArrayList<>();
-  // <列名，< java类型，TypeHandler>>
-  // 这里的数据是不断组建起来的。java类型传入，然后去全局handlerMap索引java类型的handler放入map,然后在赋给列名。
-  // 每个列后面的java类型不应该是唯一的么？不是的
-  //    <resultMap id="userMapFull" type="com.example.demo.UserBean">
-  //        <result property="id" column="id"/>
-  //        <result property="schoolName" column="id"/>
-  //    </resultMap>
-  // 上面就可能不唯一，同一个列可以给不同的java属性
-  // 类型与类型处理器的映射表。结构为：Map<列名，Map<Java类型，类型处理器>>
-  private final Map<String, Map<Class<?>, TypeHandler<?>>> typeHandlerMap = new HashMap<>();
-  // 记录了所有的有映射关系的列。
-  // key为resultMap的id，后面的List为该resultMap中有映射的列的列表
-  // <resultMap的id，List<对象映射的列名>>
-  // 记录了所有的有映射关系的列。结构为：Map<resultMap的id，List<对象映射的列名>>
-  private final Map<String, List<String>> mappedColumnNamesMap = new HashMap<>();
-  // 记录了所有的无映射关系的列。
-  // key为resultMap的id，后面的List为该resultMap中无映射的列的列表
-  //  // <resultMap的id : List<对象映射的列名>>
-  // 记录了所有的无映射关系的列。结构为：Map<resultMap的id，List<对象映射的列名>>
-  private final Map<String, List<String>> unMappedColumnNamesMap = new HashMap<>();
+  // 结果集的列布局，包含列名、类型以及由其得出的类型处理器、映射列等信息
+  private final ResultSetLayout layout;
 
   public ResultSetWrapper(ResultSet rs, Configuration configuration) throws SQLException {
+    this(rs, configuration, null);
+  }
+
+  /**
+   * 封装结果集。指定了布局编号时，先取出该编号下保存的布局，结果集的列与之相同时直接使用，否则读取元数据生成新的布局并保存
+   * @param rs 结果集
+   * @param configuration 配置信息
+   * @param layoutId 布局编号，通常由语句id和结果集序号组成。为null时不共用布局
+   * @throws SQLException
+   */
+  public ResultSetWrapper(ResultSet rs, Configuration configuration, String layoutId) throws SQLException {
     super();
-    this.typeHandlerRegistry = configuration.getTypeHandlerRegistry();
     this.resultSet = rs;
     final ResultSetMetaData metaData = rs.getMetaData();
-    final int columnCount = metaData.getColumnCount();
-    for (int i = 1; i <= columnCount; i++) {
-      columnNames.add(configuration.isUseColumnLabel() ? metaData.getColumnLabel(i) : metaData.getColumnName(i));
-      jdbcTypes.add(JdbcType.forCode(metaData.getColumnType(i)));
-      classNames.add(metaData.getColumnClassName(i));
+    final boolean useColumnLabel = configuration.isUseColumnLabel();
+    ResultSetLayout layout = layoutId == null ? null : configuration.getResultSetLayout(layoutId);
+    if (layout == null || !layout.matches(metaData, useColumnLabel)) {
+      layout = new ResultSetLayout(metaData, useColumnLabel, configuration.getTypeHandlerRegistry());
+      if (layoutId != null) {
+        configuration.addResultSetLayout(layoutId, layout);
+      }
     }
+    this.layout = layout;
   }
 
   public ResultSet getResultSet() {
     return resultSet;
   }
 
+  /**
+   * 获取结果集的列布局，列相同的结果集共用同一个布局
+   * @return 列布局
+   */
+  ResultSetLayout getLayout() {
+    return layout;
+  }
+
   public List<String> getColumnNames() {
-    return this.columnNames;
+    return layout.getColumnNames();
+  }
+
+  /**
+   * 获取大写的列名称列表，与{@link #getColumnNames()}一一对应
+   * @return 大写的列名称列表
+   */
+  public List<String> getUpperColumnNames() {
+    return layout.getUpperColumnNames();
   }
 
   public List<String> getClassNames() {
-    return Collections.unmodifiableList(classNames);
+    return layout.getClassNames();
   }
 
   public List<JdbcType> getJdbcTypes() {
-    return jdbcTypes;
+    return layout.getJdbcTypes();
   }
 
   public JdbcType getJdbcType(String columnName) {
-    for (int i = 0 ; i < columnNames.size(); i++) {
-      if (columnNames.get(i).equalsIgnoreCase(columnName)) {
-        return jdbcTypes.get(i);
-      }
-    }
-    return null;
+    return layout.getJdbcType(columnName);
+  }
+
+  /**
+   * 获取列的序号。与驱动按列名称读取时一样忽略大小写，有多个同名列时取第一个。
+   * 每种写法只查找一次
+   * @param columnName 列名称
+   * @return 列序号，从1开始；结果集中没有该列时为-1
+   */
+  public int getColumnIndex(String columnName) {
+    return layout.getColumnIndex(columnName);
+  }
+
+  /**
+   * 使用类型处理器按列序号读取当前行的一列，结果集中没有该列时按列名称读取，以便驱动给出原有的错误
+   * @param typeHandler 类型处理器
+   * @param columnName 列名称
+   * @return 列的值
+   * @throws SQLException
+   */
+  public Object getResult(TypeHandler<?> typeHandler, String columnName) throws SQLException {
+    final int columnIndex = getColumnIndex(columnName);
+    return columnIndex > 0 ? typeHandler.getResult(resultSet, columnIndex) : typeHandler.getResult(resultSet, columnName);
   }
 
   /**
@@ -128,100 +139,15 @@ public class ResultSetWrapper {
    * @return
    */
   public TypeHandler<?> getTypeHandler(Class<?> propertyType, String columnName) {
-    TypeHandler<?> handler = null;
-    Map<Class<?>, TypeHandler<?>> columnHandlers = typeHandlerMap.get(columnName);
-    if (columnHandlers == null) {
-      columnHandlers = new HashMap<>();
-      typeHandlerMap.put(columnName, columnHandlers);
-    } else {
-      handler = columnHandlers.get(propertyType);
-    }
-    // 如果之前没有，则找到后放入备用
-    if (handler == null) {
-      JdbcType jdbcType = getJdbcType(columnName);
-      // 根据类型去全局寻找对应的handler
-      handler = typeHandlerRegistry.getTypeHandler(propertyType, jdbcType);
-      // Replicate logic of UnknownTypeHandler#resolveTypeHandler
-      // See issue #59 comment 10
-      if (handler == null || handler instanceof UnknownTypeHandler) {
-        final int index = columnNames.indexOf(columnName);
-        final Class<?> javaType = resolveClass(classNames.get(index));
-        if (javaType != null && jdbcType != null) {
-          handler = typeHandlerRegistry.getTypeHandler(javaType, jdbcType);
-        } else if (javaType != null) {
-          handler = typeHandlerRegistry.getTypeHandler(javaType);
-        } else if (jdbcType != null) {
-          handler = typeHandlerRegistry.getTypeHandler(jdbcType);
-        }
-      }
-      if (handler == null || handler instanceof UnknownTypeHandler) {
-        handler = new ObjectTypeHandler();
-      }
-      columnHandlers.put(propertyType, handler);
-    }
-    return handler;
-  }
-
-  private Class<?> resolveClass(String className) {
-    try {
-      // #699 className could be null
-      if (className != null) {
-        return Resources.classForName(className);
-      }
-    } catch (ClassNotFoundException e) {
-      // ignore
-    }
-    return null;
-  }
-
-  private void loadMappedAndUnmappedColumnNames(ResultMap resultMap, String columnPrefix) throws SQLException {
-    List<String> mappedColumnNames = new ArrayList<>();
-    List<String> unmappedColumnNames = new ArrayList<>();
-    final String upperColumnPrefix = columnPrefix == null ? null : columnPrefix.toUpperCase(Locale.ENGLISH);
-    final Set<String> mappedColumns = prependPrefixes(resultMap.getMappedColumns(), upperColumnPrefix);
-    for (String columnName : columnNames) {
-      final String upperColumnName = columnName.toUpperCase(Locale.ENGLISH);
-      if (mappedColumns.contains(upperColumnName)) {
-        mappedColumnNames.add(upperColumnName);
-      } else {
-        unmappedColumnNames.add(columnName);
-      }
-    }
-    mappedColumnNamesMap.put(getMapKey(resultMap, columnPrefix), mappedColumnNames);
-    unMappedColumnNamesMap.put(getMapKey(resultMap, columnPrefix), unmappedColumnNames);
+    return layout.getTypeHandler(propertyType, columnName);
   }
 
   public List<String> getMappedColumnNames(ResultMap resultMap, String columnPrefix) throws SQLException {
-    List<String> mappedColumnNames = mappedColumnNamesMap.get(getMapKey(resultMap, columnPrefix));
-    if (mappedColumnNames == null) {
-      loadMappedAndUnmappedColumnNames(resultMap, columnPrefix);
-      mappedColumnNames = mappedColumnNamesMap.get(getMapKey(resultMap, columnPrefix));
-    }
-    return mappedColumnNames;
+    return layout.getMappedColumnNames(resultMap, columnPrefix);
   }
 
   public List<String> getUnmappedColumnNames(ResultMap resultMap, String columnPrefix) throws SQLException {
-    List<String> unMappedColumnNames = unMappedColumnNamesMap.get(getMapKey(resultMap, columnPrefix));
-    if (unMappedColumnNames == null) {
-      loadMappedAndUnmappedColumnNames(resultMap, columnPrefix);
-      unMappedColumnNames = unMappedColumnNamesMap.get(getMapKey(resultMap, columnPrefix));
-    }
-    return unMappedColumnNames;
-  }
-
-  private String getMapKey(ResultMap resultMap, String columnPrefix) {
-    return resultMap.getId() + ":" + columnPrefix;
-  }
-
-  private Set<String> prependPrefixes(Set<String> columnNames, String prefix) {
-    if (columnNames == null || columnNames.isEmpty() || prefix == null || prefix.length() == 0) {
-      return columnNames;
-    }
-    final Set<String> prefixed = new HashSet<>();
-    for (String columnName : columnNames) {
-      prefixed.add(prefix + columnName);
-    }
-    return prefixed;
+    return layout.getUnmappedColumnNames(resultMap, columnPrefix);
   }
 
 }
@@ -24,13 +24,24 @@ import java.util.Properties;
 import org.apache.ibatis.builder.InitializingObject;
 import org.apache.ibatis.cache.Cache;
 import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.cache.CacheStatistics;
+import org.apache.ibatis.cache.CacheWeigher;
+import org.apache.ibatis.cache.ThreadSafeCache;
 import org.apache.ibatis.cache.decorators.BlockingCache;
+import org.apache.ibatis.cache.decorators.ExpiringCache;
 import org.apache.ibatis.cache.decorators.LoggingCache;
 import org.apache.ibatis.cache.decorators.LruCache;
 import org.apache.ibatis.cache.decorators.ScheduledCache;
 import org.apache.ibatis.cache.decorators.SerializedCache;
+import org.apache.ibatis.cache.decorators.SingleFlightCache;
+import org.apache.ibatis.cache.decorators.StatisticsCache;
 import org.apache.ibatis.cache.decorators.SynchronizedCache;
+import org.apache.ibatis.cache.decorators.TaggedCache;
+import org.apache.ibatis.cache.impl.ConcurrentPerpetualCache;
+import org.apache.ibatis.cache.impl.OffHeapCache;
 import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.LogFactory;
 import org.apache.ibatis.reflection.MetaObject;
 import org.apache.ibatis.reflection.SystemMetaObject;
 
@@ -39,6 +50,8 @@ import org.apache.ibatis.reflection.SystemMetaObject;
  * 缓存建造者
  */
 public class CacheBuilder {
+
+  private static final Log log = LogFactory.getLog(CacheBuilder.class);
   // Cache的编号
   private final String id;
   // Cache的实现类
@@ -47,14 +60,26 @@ public class CacheBuilder {
   private final List<Class<? extends Cache>> decorators;
   // Cache的大小
   private Integer size;
+  // Cache数据的权重计算器，用于按权重限制容量的缓存
+  private CacheWeigher weigher;
   // Cache的清理间隔
   private Long clearInterval;
+  // Cache中每条数据写入后的过期时间
+  private Long expireAfterWrite;
+  // Cache中每条数据最后一次读取后的过期时间
+  private Long expireAfterAccess;
   // Cache是否可读写
   private boolean readWrite;
   // Cache的配置信息
   private Properties properties;
   // Cache是否阻塞
   private boolean blocking;
+  // Cache是否合并并发的未命中加载
+  private boolean singleFlight;
+  // Cache是否按标签失效
+  private boolean tagInvalidation;
+  // Cache的统计信息，为null时不统计
+  private CacheStatistics statistics;
 
   public CacheBuilder(String id) {
     this.id = id;
@@ -78,11 +103,26 @@ public class CacheBuilder {
     return this;
   }
 
+  public CacheBuilder weigher(CacheWeigher weigher) {
+    this.weigher = weigher;
+    return this;
+  }
+
   public CacheBuilder clearInterval(Long clearInterval) {
     this.clearInterval = clearInterval;
     return this;
   }
 
+  public CacheBuilder expireAfterWrite(Long expireAfterWrite) {
+    this.expireAfterWrite = expireAfterWrite;
+    return this;
+  }
+
+  public CacheBuilder expireAfterAccess(Long expireAfterAccess) {
+    this.expireAfterAccess = expireAfterAccess;
+    return this;
+  }
+
   public CacheBuilder readWrite(boolean readWrite) {
     this.readWrite = readWrite;
     return this;
@@ -93,6 +133,21 @@ public class CacheBuilder {
     return this;
   }
 
+  public CacheBuilder singleFlight(boolean singleFlight) {
+    this.singleFlight = singleFlight;
+    return this;
+  }
+
+  public CacheBuilder tagInvalidation(boolean tagInvalidation) {
+    this.tagInvalidation = tagInvalidation;
+    return this;
+  }
+
+  public CacheBuilder statistics(CacheStatistics statistics) {
+    this.statistics = statistics;
+    return this;
+  }
+
   public CacheBuilder properties(Properties properties) {
     this.properties = properties;
     return this;
@@ -106,27 +161,53 @@ public class CacheBuilder {
     // 设置缓存的默认实现、默认装饰器（仅设置，并未装配）
     setDefaultImplementations();
     // 创建默认的缓存
-    Cache cache = newBaseCacheInstance(implementation, id);
-    // 设置缓存的属性
+    Cache cache = newBaseCacheInstance(resolveBaseImplementation(), id);
+    // 设置缓存的权重计算器和属性
+    setWeigher(cache);
     setCacheProperties(cache);
-    if (PerpetualCache.class.equals(cache.getClass())) { // 缓存实现是PerpetualCache，即不是用户自定义的缓存实现
+    // 缓存实现及其装饰器是否都是线程安全的
+    boolean threadSafe = cache instanceof ThreadSafeCache && isDecoratorsThreadSafe(cache);
+    if (PerpetualCache.class.equals(cache.getClass()) || cache instanceof ThreadSafeCache) { // 缓存实现是PerpetualCache或线程安全的缓存实现
       // 为缓存逐级嵌套自定义的装饰器
       for (Class<? extends Cache> decorator : decorators) {
         // 生成装饰器实例，并装配。入参依次是装饰器类、被装饰的缓存
         cache = newCacheDecoratorInstance(decorator, cache);
-        // 为装饰器设置属性
+        // 为装饰器设置权重计算器和属性
+        setWeigher(cache);
         setCacheProperties(cache);
       }
       // 为缓存增加标准的装饰器
-      cache = setStandardDecorators(cache);
-    } else if (!LoggingCache.class.isAssignableFrom(cache.getClass())) {
-      // 增加日志装饰器
-      cache = new LoggingCache(cache);
+      cache = setStandardDecorators(cache, threadSafe);
+    } else {
+      if (!LoggingCache.class.isAssignableFrom(cache.getClass())) {
+        // 增加日志装饰器
+        cache = new LoggingCache(cache);
+      }
+      if (statistics != null) {
+        // 增加统计装饰器
+        cache = new StatisticsCache(cache, statistics);
+      }
     }
     // 返回被包装好的缓存
     return cache;
   }
 
+  /**
+   * 判断装饰器是否都是线程安全的。线程安全的缓存实现配置了需要外部同步的装饰器时，整个缓存改为加锁使用
+   * @param cache 线程安全的缓存实现
+   * @return 装饰器是否都是线程安全的
+   */
+  private boolean isDecoratorsThreadSafe(Cache cache) {
+    for (Class<? extends Cache> decorator : decorators) {
+      if (!ThreadSafeCache.class.isAssignableFrom(decorator)) {
+        log.warn("Cache '" + id + "' uses the thread-safe implementation " + cache.getClass().getName()
+            + " but its decorator " + decorator.getName() + " is not thread-safe. The cache will be synchronized as a whole.");
+        return false;
+      }
+    }
+    return true;
+  }
+
   /**
    * 设置缓存的默认实现和默认装饰器
    */
@@ -140,34 +221,73 @@ public class CacheBuilder {
   }
 
   /**
-   * 为缓存增加标准的装饰器
+   * 确定缓存的实现类。默认的PerpetualCache只配合线程安全的装饰器时，换用并发的实现，以免使用同步装饰器
+   * @return 缓存的实现类
+   */
+  private Class<? extends Cache> resolveBaseImplementation() {
+    if (PerpetualCache.class.equals(implementation) && !decorators.isEmpty()
+        && decorators.stream().allMatch(ThreadSafeCache.class::isAssignableFrom)) {
+      return ConcurrentPerpetualCache.class;
+    }
+    return implementation;
+  }
+
+  /**
+   * 为缓存增加标准的装饰器。同步装饰器之外的标准装饰器都可以并发使用，线程安全的缓存实现不需要再加锁
    * @param cache 被装饰的缓存
+   * @param threadSafe 缓存实现是否是线程安全的
    * @return 装饰结束的缓存
    */
-  private Cache setStandardDecorators(Cache cache) {
+  private Cache setStandardDecorators(Cache cache, boolean threadSafe) {
     try {
       MetaObject metaCache = SystemMetaObject.forObject(cache);
       // 设置缓存大小
       if (size != null && metaCache.hasSetter("size")) {
         metaCache.setValue("size", size);
       }
+      // 如果定义了每条数据的过期时间，则使用过期装饰器装饰缓存
+      if (expireAfterWrite != null || expireAfterAccess != null) {
+        ExpiringCache expiringCache = new ExpiringCache(cache);
+        if (expireAfterWrite != null) {
+          expiringCache.setExpireAfterWrite(expireAfterWrite);
+        }
+        if (expireAfterAccess != null) {
+          expiringCache.setExpireAfterAccess(expireAfterAccess);
+        }
+        cache = expiringCache;
+        setCacheProperties(cache);
+      }
       // 如果定义了清理间隔，则使用定时清理装饰器装饰缓存
       if (clearInterval != null) {
         cache = new ScheduledCache(cache);
         ((ScheduledCache) cache).setClearInterval(clearInterval);
       }
-      // 如果允许读写，则使用序列化装饰器装饰缓存
-      if (readWrite) {
+      // 如果允许读写，则使用序列化装饰器装饰缓存。堆外缓存每次读取都会解码出新的副本，不需要再序列化
+      if (readWrite && !(cache instanceof OffHeapCache)) {
         cache = new SerializedCache(cache);
       }
       // 使用日志装饰器装饰缓存
       cache = new LoggingCache(cache);
-      // 使用同步装饰器装饰缓存
-      cache = new SynchronizedCache(cache);
-      // 如果启用了阻塞功能，则使用阻塞装饰器装饰缓存
-      if (blocking) {
+      if (statistics != null) {
+        // 如果需要统计，则使用统计装饰器装饰缓存
+        cache = new StatisticsCache(cache, statistics);
+      }
+      if (!threadSafe) {
+        // 使用同步装饰器装饰缓存
+        cache = new SynchronizedCache(cache);
+      }
+      if (singleFlight) {
+        // 如果启用了合并加载功能，则使用合并加载装饰器装饰缓存
+        cache = new SingleFlightCache(cache);
+        setCacheProperties(cache);
+      } else if (blocking) {
+        // 如果启用了阻塞功能，则使用阻塞装饰器装饰缓存
         cache = new BlockingCache(cache);
       }
+      // 如果启用了按标签失效，则使用标签装饰器装饰缓存。它必须在最外层，以便执行器按标签失效
+      if (tagInvalidation) {
+        cache = new TaggedCache(cache);
+      }
       // 返回被层层装饰的缓存
       return cache;
     } catch (Exception e) {
@@ -175,6 +295,19 @@ public class CacheBuilder {
     }
   }
 
+  /**
+   * 为按权重限制容量的缓存设置权重计算器，属性中的weigherType会覆盖它
+   * @param cache 缓存
+   */
+  private void setWeigher(Cache cache) {
+    if (weigher != null) {
+      MetaObject metaCache = SystemMetaObject.forObject(cache);
+      if (metaCache.hasSetter("weigher") && CacheWeigher.class.isAssignableFrom(metaCache.getSetterType("weigher"))) {
+        metaCache.setValue("weigher", weigher);
+      }
+    }
+  }
+
   private void setCacheProperties(Cache cache) {
     if (properties != null) {
       MetaObject metaCache = SystemMetaObject.forObject(cache);
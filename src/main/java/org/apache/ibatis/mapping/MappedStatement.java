@@ -16,8 +16,14 @@
 package org.apache.ibatis.mapping;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.apache.ibatis.cache.Cache;
 import org.apache.ibatis.executor.keygen.Jdbc3KeyGenerator;
@@ -77,6 +83,16 @@ public final class MappedStatement {
   private Log statementLog;
   private LanguageDriver lang;
   private String[] resultSets;
+  // 语句涉及的缓存标签，用于按标签失效二级缓存
+  private String[] cacheTags;
+  // 缓存标签是否由映射的类型推断得到，而不是明确设置的
+  private boolean cacheTagsInferred;
+  // 能否只按标签失效二级缓存，首次清除缓存时判断
+  private volatile Boolean cacheTagInvalidationSafe;
+  // 批量执行时是否作为分组的边界，之前打开的分组不再接收之后的语句
+  private boolean batchBarrier;
+  // 批量执行时自动执行批次的语句数目，为null时使用全局设置
+  private Integer batchSize;
 
   MappedStatement() {
     // constructor disabled
@@ -205,14 +221,109 @@ public final class MappedStatement {
       return this;
     }
 
+    /**
+     * 设置语句涉及的缓存标签，未设置时根据语句映射的类型推断
+     * @param cacheTags 以逗号分隔的缓存标签
+     * @return 建造者
+     */
+    public Builder cacheTags(String cacheTags) {
+      String[] tags = delimitedStringToArray(cacheTags);
+      if (tags != null) {
+        for (int i = 0; i < tags.length; i++) {
+          tags[i] = tags[i].trim();
+        }
+      }
+      mappedStatement.cacheTags = tags;
+      return this;
+    }
+
+    /**
+     * 设置批量执行时语句是否作为分组的边界
+     * @param batchBarrier 是否作为分组的边界
+     * @return 建造者
+     */
+    public Builder batchBarrier(boolean batchBarrier) {
+      mappedStatement.batchBarrier = batchBarrier;
+      return this;
+    }
+
+    /**
+     * 设置批量执行时自动执行批次的语句数目
+     * @param batchSize 语句数目，为null时使用全局设置
+     * @return 建造者
+     */
+    public Builder batchSize(Integer batchSize) {
+      mappedStatement.batchSize = batchSize;
+      return this;
+    }
+
     public MappedStatement build() {
       assert mappedStatement.configuration != null;
       assert mappedStatement.id != null;
       assert mappedStatement.sqlSource != null;
       assert mappedStatement.lang != null;
       mappedStatement.resultMaps = Collections.unmodifiableList(mappedStatement.resultMaps);
+      if (mappedStatement.cacheTags == null) {
+        mappedStatement.cacheTags = inferCacheTags();
+        mappedStatement.cacheTagsInferred = mappedStatement.cacheTags != null;
+      }
       return mappedStatement;
     }
+
+    /**
+     * 推断语句涉及的缓存标签。查询语句使用结果映射的类型名，包括嵌套结果映射、鉴别器分支和已经解析的嵌套查询的类型，
+     * 其他语句使用参数的类型名。简单类型、Map和集合无法对应到具体的数据，不产生标签
+     * @return 缓存标签，无法推断时为null
+     */
+    private String[] inferCacheTags() {
+      Set<String> tags = new LinkedHashSet<>();
+      if (mappedStatement.sqlCommandType == SqlCommandType.SELECT) {
+        Set<String> visitedResultMaps = new HashSet<>();
+        for (ResultMap resultMap : mappedStatement.resultMaps) {
+          addResultMapTags(tags, resultMap, visitedResultMaps);
+        }
+      } else if (mappedStatement.parameterMap != null) {
+        addTypeTag(tags, mappedStatement.parameterMap.getType());
+      }
+      return tags.isEmpty() ? null : tags.toArray(new String[0]);
+    }
+
+    private void addResultMapTags(Set<String> tags, ResultMap resultMap, Set<String> visitedResultMaps) {
+      if (!visitedResultMaps.add(resultMap.getId())) {
+        return;
+      }
+      addTypeTag(tags, resultMap.getType());
+      final Configuration configuration = mappedStatement.configuration;
+      Set<String> nestedResultMapIds = new LinkedHashSet<>();
+      for (ResultMapping resultMapping : resultMap.getResultMappings()) {
+        if (resultMapping.getNestedResultMapId() != null) {
+          nestedResultMapIds.add(resultMapping.getNestedResultMapId());
+        }
+        if (resultMapping.getNestedQueryId() != null && configuration.hasStatement(resultMapping.getNestedQueryId(), false)) {
+          for (ResultMap nestedQueryResultMap : configuration.getMappedStatement(resultMapping.getNestedQueryId(), false).getResultMaps()) {
+            addResultMapTags(tags, nestedQueryResultMap, visitedResultMaps);
+          }
+        }
+      }
+      if (resultMap.getDiscriminator() != null) {
+        nestedResultMapIds.addAll(resultMap.getDiscriminator().getDiscriminatorMap().values());
+      }
+      for (String nestedResultMapId : nestedResultMapIds) {
+        if (configuration.hasResultMap(nestedResultMapId)) {
+          addResultMapTags(tags, configuration.getResultMap(nestedResultMapId), visitedResultMaps);
+        }
+      }
+    }
+
+    private void addTypeTag(Set<String> tags, Class<?> type) {
+      if (type == null || type.isArray()
+          || Map.class.isAssignableFrom(type)
+          || Collection.class.isAssignableFrom(type)
+          || mappedStatement.configuration.getTypeHandlerRegistry().hasTypeHandler(type)) {
+        return;
+      }
+      tags.add(type.getName());
+    }
   }
 
   public KeyGenerator getKeyGenerator() {
@@ -307,6 +418,47 @@ public final class MappedStatement {
     return resultSets;
   }
 
+  public String[] getCacheTags() {
+    return cacheTags;
+  }
+
+  /**
+   * 判断执行该语句时能否只按标签失效二级缓存。明确设置的标签总是可以；推断的标签只有全部出现在
+   * 共用该缓存的查询语句的标签中时才可以，否则（例如参数类型与结果类型不同）要清空整个缓存，以免读到旧数据。
+   * 首次调用时判断，此时所有映射文件应当已经解析完毕
+   * @return 能否只按标签失效
+   */
+  public boolean isCacheTagInvalidationSafe() {
+    Boolean safe = cacheTagInvalidationSafe;
+    if (safe == null) {
+      safe = cacheTags != null && (!cacheTagsInferred || selectCacheTagsContainAll(cacheTags));
+      cacheTagInvalidationSafe = safe;
+    }
+    return safe;
+  }
+
+  private boolean selectCacheTagsContainAll(String[] tags) {
+    Set<String> selectTags = new HashSet<>();
+    // 短名称有歧义时，值可能不是MappedStatement
+    for (Object value : configuration.getMappedStatements()) {
+      if (value instanceof MappedStatement) {
+        MappedStatement statement = (MappedStatement) value;
+        if (statement.cache == cache && statement.sqlCommandType == SqlCommandType.SELECT && statement.cacheTags != null) {
+          selectTags.addAll(Arrays.asList(statement.cacheTags));
+        }
+      }
+    }
+    return selectTags.containsAll(Arrays.asList(tags));
+  }
+
+  public boolean isBatchBarrier() {
+    return batchBarrier;
+  }
+
+  public Integer getBatchSize() {
+    return batchSize;
+  }
+
   /**
    * @deprecated Use {@link #getResultSets()}
    */
@@ -45,6 +45,8 @@ public class ResultMapping {
   private String resultSet;
   private String foreignColumn;
   private boolean lazy;
+  private int batchFetchSize;
+  private String batchFetchKey;
 
   ResultMapping() {
   }
@@ -132,6 +134,16 @@ public class ResultMapping {
       return this;
     }
 
+    public Builder batchFetchSize(int batchFetchSize) {
+      resultMapping.batchFetchSize = batchFetchSize;
+      return this;
+    }
+
+    public Builder batchFetchKey(String batchFetchKey) {
+      resultMapping.batchFetchKey = batchFetchKey;
+      return this;
+    }
+
     public ResultMapping build() {
       // lock down collections
       resultMapping.flags = Collections.unmodifiableList(resultMapping.flags);
@@ -167,6 +179,17 @@ public class ResultMapping {
           throw new IllegalStateException("There should be the same number of columns and foreignColumns in property " + resultMapping.property);
         }
       }
+      if (resultMapping.batchFetchSize > 1) {
+        if (resultMapping.nestedQueryId == null) {
+          throw new IllegalStateException("batchFetchSize requires a nested select in property " + resultMapping.property);
+        }
+        if (resultMapping.batchFetchKey == null) {
+          throw new IllegalStateException("batchFetchSize requires a batchFetchKey in property " + resultMapping.property);
+        }
+        if (!resultMapping.composites.isEmpty()) {
+          throw new IllegalStateException("batchFetchSize cannot be used with a composite column in property " + resultMapping.property);
+        }
+      }
     }
 
     private void resolveTypeHandler() {
@@ -251,6 +274,26 @@ public class ResultMapping {
     this.lazy = lazy;
   }
 
+  /**
+   * 获取批量执行嵌套查询时每次查询的最大键数目
+   * @return 每次查询的最大键数目，小于2表示不批量执行
+   */
+  public int getBatchFetchSize() {
+    return batchFetchSize;
+  }
+
+  /**
+   * 获取嵌套查询结果对象中保存父对象键的属性，用来将批量查询的结果分配给各个父对象
+   * @return 属性名
+   */
+  public String getBatchFetchKey() {
+    return batchFetchKey;
+  }
+
+  public boolean isBatchFetch() {
+    return batchFetchSize > 1;
+  }
+
   @Override
   public boolean equals(Object o) {
     if (this == o) {
@@ -298,6 +341,8 @@ public class ResultMapping {
     sb.append(", resultSet='").append(resultSet).append('\'');
     sb.append(", foreignColumn='").append(foreignColumn).append('\'');
     sb.append(", lazy=").append(lazy);
+    sb.append(", batchFetchSize=").append(batchFetchSize);
+    sb.append(", batchFetchKey='").append(batchFetchKey).append('\'');
     sb.append('}');
     return sb.toString();
   }
@@ -63,4 +63,8 @@ public class MethodInvoker implements Invoker {
   public Class<?> getType() {
     return type;
   }
+
+  public Method getMethod() {
+    return method;
+  }
 }
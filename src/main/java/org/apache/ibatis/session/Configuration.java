@@ -15,6 +15,7 @@
  */
 package org.apache.ibatis.session;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
@@ -25,6 +26,10 @@ import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.BiFunction;
 
 import org.apache.ibatis.binding.MapperRegistry;
@@ -34,10 +39,18 @@ import org.apache.ibatis.builder.ResultMapResolver;
 import org.apache.ibatis.builder.annotation.MethodResolver;
 import org.apache.ibatis.builder.xml.XMLStatementBuilder;
 import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheStatistics;
+import org.apache.ibatis.cache.CacheWeigher;
+import org.apache.ibatis.cache.decorators.ClockCache;
 import org.apache.ibatis.cache.decorators.FifoCache;
 import org.apache.ibatis.cache.decorators.LruCache;
 import org.apache.ibatis.cache.decorators.SoftCache;
+import org.apache.ibatis.cache.decorators.StatisticsCache;
 import org.apache.ibatis.cache.decorators.WeakCache;
+import org.apache.ibatis.cache.decorators.WeightedCache;
+import org.apache.ibatis.cache.impl.ConcurrentCache;
+import org.apache.ibatis.cache.impl.ConcurrentPerpetualCache;
+import org.apache.ibatis.cache.impl.OffHeapCache;
 import org.apache.ibatis.cache.impl.PerpetualCache;
 import org.apache.ibatis.datasource.jndi.JndiDataSourceFactory;
 import org.apache.ibatis.datasource.pooled.PooledDataSourceFactory;
@@ -54,6 +67,7 @@ import org.apache.ibatis.executor.loader.javassist.JavassistProxyFactory;
 import org.apache.ibatis.executor.parameter.ParameterHandler;
 import org.apache.ibatis.executor.resultset.DefaultResultSetHandler;
 import org.apache.ibatis.executor.resultset.ResultSetHandler;
+import org.apache.ibatis.executor.resultset.ResultSetLayout;
 import org.apache.ibatis.executor.statement.RoutingStatementHandler;
 import org.apache.ibatis.executor.statement.StatementHandler;
 import org.apache.ibatis.io.VFS;
@@ -110,6 +124,9 @@ import org.apache.ibatis.type.TypeHandlerRegistry;
 
 public class Configuration {
 
+  // 已创建的配置数目，用来生成配置的名称
+  private static final AtomicInteger INSTANCE_COUNTER = new AtomicInteger();
+
   // <environment>节点的信息
   protected Environment environment;
 
@@ -122,9 +139,13 @@ public class Configuration {
   protected boolean useGeneratedKeys;
   protected boolean useColumnLabel = true;
   protected boolean cacheEnabled = true;
+  protected boolean cacheStatisticsEnabled;
+  protected boolean batchGroupingEnabled;
+  protected boolean lightweightBatchResults;
   protected boolean callSettersOnNulls;
   protected boolean useActualParamName = true;
   protected boolean returnInstanceForEmptyRow;
+  protected boolean useCompiledRowMappers;
 
   protected String logPrefix;
   protected Class<? extends Log> logImpl;
@@ -134,6 +155,15 @@ public class Configuration {
   protected Set<String> lazyLoadTriggerMethods = new HashSet<>(Arrays.asList("equals", "clone", "hashCode", "toString"));
   protected Integer defaultStatementTimeout;
   protected Integer defaultFetchSize;
+  protected Integer defaultBatchSize;
+  protected Integer asyncBatchFlushDepth;
+  protected boolean threadSafeConnections;
+  protected Integer nestedQueryParallelism;
+  protected Integer asyncQueryParallelism;
+  protected Integer localCacheSize;
+  protected Long localCacheMaxWeight;
+  protected CacheWeigher localCacheWeigher;
+  protected Integer autoMappingPlanCacheSize;
   protected ResultSetType defaultResultSetType;
   protected ExecutorType defaultExecutorType = ExecutorType.SIMPLE;
   protected AutoMappingBehavior autoMappingBehavior = AutoMappingBehavior.PARTIAL;
@@ -172,6 +202,26 @@ public class Configuration {
           ". please check " + savedValue.getResource() + " and " + targetValue.getResource());
   // 缓存
   protected final Map<String, Cache> caches = new StrictMap<>("Caches collection");
+  // 缓存的统计信息，仅在启用缓存统计时存在
+  protected final Map<String, CacheStatistics> cacheStatistics = new HashMap<>();
+  // 并发执行嵌套查询的线程池，未启用时为null
+  protected volatile ExecutorService nestedQueryExecutorService;
+  // MyBatis自己创建的线程池，调用shutdown时关闭。应用设置的线程池由应用负责关闭
+  protected final List<ExecutorService> createdExecutorServices = new ArrayList<>();
+  // 执行异步查询的线程池
+  protected volatile ExecutorService asyncQueryExecutorService;
+  // 所有批量执行器共用的后台执行批次的线程池
+  protected volatile ExecutorService batchFlushExecutorService;
+  // 所有会话的一级缓存共用的统计信息，仅在启用缓存统计时存在
+  protected CacheStatistics localCacheStatistics;
+  // 自动映射方案缓存的统计信息，仅在启用缓存统计时存在
+  protected CacheStatistics autoMappingPlanStatistics;
+  // 配置的名称，用作统计信息MBean名称的一部分，以区分同一JVM中的多个配置
+  protected final String instanceName = "configuration-" + INSTANCE_COUNTER.incrementAndGet();
+  // 所有查询共用的自动映射方案缓存，首次使用时创建
+  protected volatile Cache autoMappingPlanCache;
+  // 各语句结果集的列布局，键为语句id，第二个及之后的结果集再加上结果集序号
+  protected final Map<String, ResultSetLayout> resultSetLayouts = new ConcurrentHashMap<>();
   // 结果映射，即所有的<resultMap>节点
   protected final Map<String, ResultMap> resultMaps = new StrictMap<>("Result Maps collection");
   // 参数映射，即所有的<parameterMap>节点
@@ -211,8 +261,12 @@ public class Configuration {
     typeAliasRegistry.registerAlias("PERPETUAL", PerpetualCache.class);
     typeAliasRegistry.registerAlias("FIFO", FifoCache.class);
     typeAliasRegistry.registerAlias("LRU", LruCache.class);
+    typeAliasRegistry.registerAlias("CLOCK", ClockCache.class);
     typeAliasRegistry.registerAlias("SOFT", SoftCache.class);
     typeAliasRegistry.registerAlias("WEAK", WeakCache.class);
+    typeAliasRegistry.registerAlias("WEIGHTED", WeightedCache.class);
+    typeAliasRegistry.registerAlias("CONCURRENT", ConcurrentCache.class);
+    typeAliasRegistry.registerAlias("OFF_HEAP", OffHeapCache.class);
 
     typeAliasRegistry.registerAlias("DB_VENDOR", VendorDatabaseIdProvider.class);
 
@@ -288,6 +342,20 @@ public class Configuration {
     this.returnInstanceForEmptyRow = returnEmptyInstance;
   }
 
+  public boolean isUseCompiledRowMappers() {
+    return useCompiledRowMappers;
+  }
+
+  /**
+   * Maps the rows of flat result maps and auto-mappings through precompiled row mappers, instead of
+   * going through a MetaObject for every column. Nested, discriminated and nested select result maps
+   * keep using the regular mapping.
+   * @param useCompiledRowMappers whether to compile row mappers, false by default
+   */
+  public void setUseCompiledRowMappers(boolean useCompiledRowMappers) {
+    this.useCompiledRowMappers = useCompiledRowMappers;
+  }
+
   public String getDatabaseId() {
     return databaseId;
   }
@@ -433,6 +501,243 @@ public class Configuration {
     this.cacheEnabled = cacheEnabled;
   }
 
+  public boolean isBatchGroupingEnabled() {
+    return batchGroupingEnabled;
+  }
+
+  public void setBatchGroupingEnabled(boolean batchGroupingEnabled) {
+    this.batchGroupingEnabled = batchGroupingEnabled;
+  }
+
+  public boolean isLightweightBatchResults() {
+    return lightweightBatchResults;
+  }
+
+  public void setLightweightBatchResults(boolean lightweightBatchResults) {
+    this.lightweightBatchResults = lightweightBatchResults;
+  }
+
+  public boolean isCacheStatisticsEnabled() {
+    return cacheStatisticsEnabled;
+  }
+
+  public void setCacheStatisticsEnabled(boolean cacheStatisticsEnabled) {
+    this.cacheStatisticsEnabled = cacheStatisticsEnabled;
+  }
+
+  public Integer getNestedQueryParallelism() {
+    return nestedQueryParallelism;
+  }
+
+  /**
+   * Sets the number of threads running nested selects concurrently, when no executor service was set.
+   * <p>
+   * Each concurrent nested select runs on its own executor and its own connection, which cannot see the uncommitted
+   * changes of the session. Nested selects are therefore only run concurrently for sessions whose connection is in
+   * auto-commit mode, like <code>openSession(true)</code>. The default <code>openSession()</code> is not, so its
+   * nested selects keep running one by one on the calling thread.
+   *
+   * @param nestedQueryParallelism the number of threads, null or 0 to run nested selects on the calling thread
+   */
+  public void setNestedQueryParallelism(Integer nestedQueryParallelism) {
+    this.nestedQueryParallelism = nestedQueryParallelism;
+  }
+
+  /**
+   * 获取并发执行嵌套查询的线程池，未设置线程池但配置了并发数时创建一个守护线程池，由{@link #shutdown()}关闭。
+   * 每次查询都会调用，已经存在线程池时不加锁
+   * @return 线程池，未启用嵌套查询并发执行时为null
+   */
+  public ExecutorService getNestedQueryExecutorService() {
+    ExecutorService executorService = nestedQueryExecutorService;
+    if (executorService == null && nestedQueryParallelism != null && nestedQueryParallelism > 0) {
+      synchronized (this) {
+        executorService = nestedQueryExecutorService;
+        if (executorService == null) {
+          executorService = newDaemonThreadPool(nestedQueryParallelism, "mybatis-nested-query-");
+          nestedQueryExecutorService = executorService;
+        }
+      }
+    }
+    return executorService;
+  }
+
+  /**
+   * Sets the executor service running nested selects concurrently, it is not shut down by MyBatis.
+   * <p>
+   * Each concurrent nested select runs on its own executor and its own connection, which cannot see the uncommitted
+   * changes of the session. Nested selects are therefore only run concurrently for sessions whose connection is in
+   * auto-commit mode, like <code>openSession(true)</code>. The default <code>openSession()</code> is not, so its
+   * nested selects keep running one by one on the calling thread.
+   *
+   * @param nestedQueryExecutorService the executor service, null to run nested selects on the calling thread
+   */
+  public synchronized void setNestedQueryExecutorService(ExecutorService nestedQueryExecutorService) {
+    this.nestedQueryExecutorService = nestedQueryExecutorService;
+  }
+
+  public Integer getAsyncQueryParallelism() {
+    return asyncQueryParallelism;
+  }
+
+  /**
+   * Sets the number of platform threads running asynchronous queries, used only when virtual threads are not
+   * available and no executor service was set.
+   *
+   * @param asyncQueryParallelism the number of threads, 10 by default
+   */
+  public void setAsyncQueryParallelism(Integer asyncQueryParallelism) {
+    this.asyncQueryParallelism = asyncQueryParallelism;
+  }
+
+  /**
+   * 获取执行异步查询的线程池。未设置时，虚拟线程可用则每个查询使用一个虚拟线程，否则创建一个守护线程池，由{@link #shutdown()}关闭。
+   * 已经存在线程池时不加锁
+   * @return 线程池
+   */
+  public ExecutorService getAsyncQueryExecutorService() {
+    ExecutorService executorService = asyncQueryExecutorService;
+    if (executorService == null) {
+      synchronized (this) {
+        executorService = asyncQueryExecutorService;
+        if (executorService == null) {
+          executorService = newVirtualThreadPerTaskExecutor();
+          if (executorService != null) {
+            createdExecutorServices.add(executorService);
+          } else {
+            int threads = asyncQueryParallelism != null && asyncQueryParallelism > 0 ? asyncQueryParallelism : 10;
+            executorService = newDaemonThreadPool(threads, "mybatis-async-query-");
+          }
+          asyncQueryExecutorService = executorService;
+        }
+      }
+    }
+    return executorService;
+  }
+
+  /**
+   * Sets the executor service running asynchronous queries, it is not shut down by MyBatis.
+   *
+   * @param asyncQueryExecutorService the executor service
+   */
+  public synchronized void setAsyncQueryExecutorService(ExecutorService asyncQueryExecutorService) {
+    this.asyncQueryExecutorService = asyncQueryExecutorService;
+  }
+
+  /**
+   * 创建一个固定大小的守护线程池，并记录下来以便在shutdown时关闭。调用者需要持有this的锁
+   * @param threads 线程数
+   * @param threadNamePrefix 线程名称的前缀
+   * @return 线程池
+   */
+  private ExecutorService newDaemonThreadPool(int threads, String threadNamePrefix) {
+    AtomicInteger threadNumber = new AtomicInteger();
+    ExecutorService executorService = Executors.newFixedThreadPool(threads, runnable -> {
+      Thread thread = new Thread(runnable, threadNamePrefix + threadNumber.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+    createdExecutorServices.add(executorService);
+    return executorService;
+  }
+
+  /**
+   * Releases the resources MyBatis created for this configuration: the thread pools it started for nested
+   * queries, asynchronous queries and background batches are shut down. Executor services set by the application are left running.
+   * The cache statistics MBeans are unregistered, so the MBeanServer no longer keeps the caches reachable.
+   * Call it when the session factory built on this configuration is discarded, e.g. on redeploy. Tasks already
+   * submitted are completed, a later use of the configuration creates new pools.
+   */
+  public synchronized void shutdown() {
+    for (CacheStatistics statistics : cacheStatistics.values()) {
+      statistics.unregisterMBean();
+    }
+    if (localCacheStatistics != null) {
+      localCacheStatistics.unregisterMBean();
+    }
+    if (autoMappingPlanStatistics != null) {
+      autoMappingPlanStatistics.unregisterMBean();
+    }
+    for (ExecutorService executorService : createdExecutorServices) {
+      executorService.shutdown();
+      if (executorService == nestedQueryExecutorService) {
+        nestedQueryExecutorService = null;
+      }
+      if (executorService == asyncQueryExecutorService) {
+        asyncQueryExecutorService = null;
+      }
+      if (executorService == batchFlushExecutorService) {
+        batchFlushExecutorService = null;
+      }
+    }
+    createdExecutorServices.clear();
+  }
+
+  /**
+   * 通过反射创建虚拟线程的线程池，以便在Java 8上也能编译和运行
+   * @return 虚拟线程的线程池，当前JVM不支持虚拟线程时为null
+   */
+  private static ExecutorService newVirtualThreadPerTaskExecutor() {
+    try {
+      return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    } catch (ReflectiveOperationException e) {
+      return null;
+    }
+  }
+
+  public Integer getLocalCacheSize() {
+    return localCacheSize;
+  }
+
+  /**
+   * Sets the maximum number of entries in the local (session) cache.
+   *
+   * @param localCacheSize the maximum number of entries, null or 0 for no limit
+   */
+  public void setLocalCacheSize(Integer localCacheSize) {
+    this.localCacheSize = localCacheSize;
+  }
+
+  public Integer getAutoMappingPlanCacheSize() {
+    return autoMappingPlanCacheSize;
+  }
+
+  /**
+   * Sets the maximum number of automatic mapping plans shared by all the queries.
+   *
+   * @param autoMappingPlanCacheSize the maximum number of plans, null for 1024, 0 to compute plans for every query
+   */
+  public void setAutoMappingPlanCacheSize(Integer autoMappingPlanCacheSize) {
+    this.autoMappingPlanCacheSize = autoMappingPlanCacheSize;
+  }
+
+  public Long getLocalCacheMaxWeight() {
+    return localCacheMaxWeight;
+  }
+
+  /**
+   * Sets the maximum weight of the local (session) cache, as computed by the local cache weigher.
+   *
+   * @param localCacheMaxWeight the maximum weight (estimated bytes by default), null or 0 for no limit
+   */
+  public void setLocalCacheMaxWeight(Long localCacheMaxWeight) {
+    this.localCacheMaxWeight = localCacheMaxWeight;
+  }
+
+  public CacheWeigher getLocalCacheWeigher() {
+    return localCacheWeigher;
+  }
+
+  /**
+   * Sets the weigher used to bound the local cache by weight, a {@link org.apache.ibatis.cache.impl.SampledSizeWeigher}
+   * is used when none is set.
+   *
+   * @param localCacheWeigher the weigher
+   */
+  public void setLocalCacheWeigher(CacheWeigher localCacheWeigher) {
+    this.localCacheWeigher = localCacheWeigher;
+  }
+
   public Integer getDefaultStatementTimeout() {
     return defaultStatementTimeout;
   }
@@ -455,6 +760,72 @@ public class Configuration {
     this.defaultFetchSize = defaultFetchSize;
   }
 
+  public Integer getDefaultBatchSize() {
+    return defaultBatchSize;
+  }
+
+  public void setDefaultBatchSize(Integer defaultBatchSize) {
+    this.defaultBatchSize = defaultBatchSize;
+  }
+
+  public Integer getAsyncBatchFlushDepth() {
+    return asyncBatchFlushDepth;
+  }
+
+  /**
+   * Sets the number of auto-flushed batches a batch executor may hand to a background thread while the caller
+   * binds the next ones. It has no effect unless {@link #setThreadSafeConnections(boolean) threadSafeConnections}
+   * is on, as the batches run on the connection the caller keeps using.
+   *
+   * @param asyncBatchFlushDepth the number of pending batches, null or 0 to execute them on the calling thread
+   */
+  public void setAsyncBatchFlushDepth(Integer asyncBatchFlushDepth) {
+    this.asyncBatchFlushDepth = asyncBatchFlushDepth;
+  }
+
+  public boolean isThreadSafeConnections() {
+    return threadSafeConnections;
+  }
+
+  /**
+   * Declares that the JDBC driver supports using one connection from two threads at once. JDBC does not require
+   * it: some drivers serialize all the calls on a connection, others corrupt their protocol state. Only turn it
+   * on when the driver documents it.
+   *
+   * @param threadSafeConnections whether connections may be used concurrently, false by default
+   */
+  public void setThreadSafeConnections(boolean threadSafeConnections) {
+    this.threadSafeConnections = threadSafeConnections;
+  }
+
+  /**
+   * 获取后台执行批次的线程池，所有批量执行器共用。未设置时创建一个与处理器数目相同的守护线程池，由{@link #shutdown()}关闭
+   * @return 线程池
+   */
+  public ExecutorService getBatchFlushExecutorService() {
+    ExecutorService executorService = batchFlushExecutorService;
+    if (executorService == null) {
+      synchronized (this) {
+        executorService = batchFlushExecutorService;
+        if (executorService == null) {
+          executorService = newDaemonThreadPool(Runtime.getRuntime().availableProcessors(), "mybatis-batch-flush-");
+          batchFlushExecutorService = executorService;
+        }
+      }
+    }
+    return executorService;
+  }
+
+  /**
+   * Sets the executor service running the background batches of all batch executors, it is not shut down by
+   * MyBatis. The batches of one executor are still executed one at a time and in order.
+   *
+   * @param batchFlushExecutorService the executor service
+   */
+  public synchronized void setBatchFlushExecutorService(ExecutorService batchFlushExecutorService) {
+    this.batchFlushExecutorService = batchFlushExecutorService;
+  }
+
     /**
    * @since 3.5.2
    */
@@ -652,7 +1023,7 @@ public class Configuration {
     // 根据配置文件中settings节点cacheEnabled配置项确定是否启用缓存
     if (cacheEnabled) { // 如果配置启用缓存
       // 使用CachingExecutor装饰实际执行器
-      executor = new CachingExecutor(executor);
+      executor = new CachingExecutor(executor, this);
     }
     // 为执行器增加拦截器（插件），以启用各个拦截器的功能
     executor = (Executor) interceptorChain.pluginAll(executor);
@@ -699,6 +1070,87 @@ public class Configuration {
     return caches.containsKey(id);
   }
 
+  /**
+   * 保存缓存的统计信息，并将其注册为MBean
+   * @param statistics 缓存的统计信息
+   */
+  public void addCacheStatistics(CacheStatistics statistics) {
+    cacheStatistics.put(statistics.getId(), statistics);
+    statistics.registerMBean(instanceName);
+  }
+
+  /**
+   * 获取配置的名称，统计信息的MBean名称中包含该名称
+   * @return 配置的名称，在同一JVM中唯一
+   */
+  public String getInstanceName() {
+    return instanceName;
+  }
+
+  public Collection<CacheStatistics> getCacheStatistics() {
+    return cacheStatistics.values();
+  }
+
+  /**
+   * 获取缓存的统计信息
+   * @param id 缓存id
+   * @return 缓存的统计信息，未启用缓存统计时为null
+   */
+  public CacheStatistics getCacheStatistics(String id) {
+    return cacheStatistics.get(id);
+  }
+
+  /**
+   * 获取所有会话的一级缓存共用的统计信息，首次调用时创建并注册为MBean，不包含在{@link #getCacheStatistics()}中
+   * @return 一级缓存的统计信息
+   */
+  public synchronized CacheStatistics getLocalCacheStatistics() {
+    if (localCacheStatistics == null) {
+      localCacheStatistics = new CacheStatistics("LocalCache", true);
+      localCacheStatistics.registerMBean(instanceName);
+    }
+    return localCacheStatistics;
+  }
+
+  /**
+   * 获取所有查询共用的自动映射方案缓存，首次调用时创建。启用缓存统计时，方案的复用情况以内部统计信息"AutoMappingPlans"注册为MBean，不包含在{@link #getCacheStatistics()}中。
+   * 每次自动映射的查询都会调用，已经存在缓存时不加锁
+   * @return 自动映射方案缓存，缓存大小设为0时为null
+   */
+  public Cache getAutoMappingPlanCache() {
+    Cache cache = autoMappingPlanCache;
+    if (cache == null && (autoMappingPlanCacheSize == null || autoMappingPlanCacheSize > 0)) {
+      synchronized (this) {
+        cache = autoMappingPlanCache;
+        if (cache == null) {
+          ClockCache clockCache = new ClockCache(new ConcurrentPerpetualCache("AutoMappingPlans"));
+          clockCache.setSize(autoMappingPlanCacheSize == null ? 1024 : autoMappingPlanCacheSize);
+          cache = clockCache;
+          if (cacheStatisticsEnabled) {
+            autoMappingPlanStatistics = new CacheStatistics(clockCache.getId(), true);
+            autoMappingPlanStatistics.registerMBean(instanceName);
+            cache = new StatisticsCache(clockCache, autoMappingPlanStatistics);
+          }
+          autoMappingPlanCache = cache;
+        }
+      }
+    }
+    return cache;
+  }
+
+  public ResultSetLayout getResultSetLayout(String id) {
+    return resultSetLayouts.get(id);
+  }
+
+  /**
+   * 保存结果集的列布局，同一编号下只保留最近一次的布局
+   * @param id 布局编号
+   * @param layout 列布局
+   */
+  public void addResultSetLayout(String id, ResultSetLayout layout) {
+    resultSetLayouts.put(id, layout);
+  }
+
   public void addResultMap(ResultMap rm) {
     resultMaps.put(rm.getId(), rm);
     checkLocallyForDiscriminatedNestedResultMaps(rm);
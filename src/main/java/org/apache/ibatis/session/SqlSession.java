@@ -19,8 +19,10 @@ import java.io.Closeable;
 import java.sql.Connection;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 import org.apache.ibatis.cursor.Cursor;
+import org.apache.ibatis.cursor.Publisher;
 import org.apache.ibatis.executor.BatchResult;
 
 /**
@@ -77,6 +79,41 @@ public interface SqlSession extends Closeable {
    */
   <E> List<E> selectList(String statement, Object parameter, RowBounds rowBounds);
 
+  /**
+   * Retrieve a list of mapped objects asynchronously.
+   * @param <E> the returned list element type
+   * @param statement Unique identifier matching the statement to use.
+   * @return Future of the list of mapped objects
+   * @see #selectListAsync(String, Object, RowBounds)
+   */
+  default <E> CompletableFuture<List<E>> selectListAsync(String statement) {
+    return selectListAsync(statement, null, RowBounds.DEFAULT);
+  }
+
+  /**
+   * Retrieve a list of mapped objects asynchronously.
+   * @param <E> the returned list element type
+   * @param statement Unique identifier matching the statement to use.
+   * @param parameter A parameter object to pass to the statement.
+   * @return Future of the list of mapped objects
+   * @see #selectListAsync(String, Object, RowBounds)
+   */
+  <E> CompletableFuture<List<E>> selectListAsync(String statement, Object parameter);
+
+  /**
+   * Retrieve a list of mapped objects asynchronously, on the async query executor service of the configuration.
+   * <p>
+   * The default implementation runs every call in a new auto-commit session with its own connection, so it does
+   * not see the uncommitted changes of this session, and this session may be closed before the future completes.
+   * Session wrappers delegate to the session they wrap.
+   * @param <E> the returned list element type
+   * @param statement Unique identifier matching the statement to use.
+   * @param parameter A parameter object to pass to the statement.
+   * @param rowBounds  Bounds to limit object retrieval
+   * @return Future of the list of mapped objects
+   */
+  <E> CompletableFuture<List<E>> selectListAsync(String statement, Object parameter, RowBounds rowBounds);
+
   /**
    * The selectMap is a special case in that it is designed to convert a list
    * of results into a Map based on one of the properties in the resulting
@@ -144,6 +181,40 @@ public interface SqlSession extends Closeable {
    */
   <T> Cursor<T> selectCursor(String statement, Object parameter, RowBounds rowBounds);
 
+  /**
+   * A Publisher streams the same results as a Cursor, reading rows only as the subscriber requests them.
+   * @param <T> the published element type.
+   * @param statement Unique identifier matching the statement to use.
+   * @return Publisher of mapped objects
+   * @see #selectPublisher(String, Object, RowBounds)
+   */
+  <T> Publisher<T> selectPublisher(String statement);
+
+  /**
+   * A Publisher streams the same results as a Cursor, reading rows only as the subscriber requests them.
+   * @param <T> the published element type.
+   * @param statement Unique identifier matching the statement to use.
+   * @param parameter A parameter object to pass to the statement.
+   * @return Publisher of mapped objects
+   * @see #selectPublisher(String, Object, RowBounds)
+   */
+  <T> Publisher<T> selectPublisher(String statement, Object parameter);
+
+  /**
+   * A Publisher streams the same results as a Cursor, reading rows only as the subscriber requests them.
+   * <p>
+   * Nothing is executed until a subscriber requests items. In the default implementation every subscription then
+   * runs the select in a new auto-commit session on the async query executor service of the configuration, and
+   * closes the cursor and that session on completion, error or cancel. This session may therefore be closed while
+   * rows are streamed. Session wrappers delegate to the session they wrap.
+   * @param <T> the published element type.
+   * @param statement Unique identifier matching the statement to use.
+   * @param parameter A parameter object to pass to the statement.
+   * @param rowBounds  Bounds to limit object retrieval
+   * @return Publisher of mapped objects
+   */
+  <T> Publisher<T> selectPublisher(String statement, Object parameter, RowBounds rowBounds);
+
   /**
    * Retrieve a single row mapped from the statement key and parameter
    * using a {@code ResultHandler}.
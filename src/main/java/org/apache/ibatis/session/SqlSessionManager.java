@@ -24,8 +24,10 @@ import java.sql.Connection;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
 
 import org.apache.ibatis.cursor.Cursor;
+import org.apache.ibatis.cursor.Publisher;
 import org.apache.ibatis.executor.BatchResult;
 import org.apache.ibatis.reflection.ExceptionUtil;
 
@@ -187,6 +189,16 @@ public class SqlSessionManager implements SqlSessionFactory, SqlSession {
     return sqlSessionProxy.selectMap(statement, parameter, mapKey, rowBounds);
   }
 
+  @Override
+  public <E> CompletableFuture<List<E>> selectListAsync(String statement, Object parameter) {
+    return sqlSessionProxy.selectListAsync(statement, parameter);
+  }
+
+  @Override
+  public <E> CompletableFuture<List<E>> selectListAsync(String statement, Object parameter, RowBounds rowBounds) {
+    return sqlSessionProxy.selectListAsync(statement, parameter, rowBounds);
+  }
+
   @Override
   public <T> Cursor<T> selectCursor(String statement) {
     return sqlSessionProxy.selectCursor(statement);
@@ -202,6 +214,21 @@ public class SqlSessionManager implements SqlSessionFactory, SqlSession {
     return sqlSessionProxy.selectCursor(statement, parameter, rowBounds);
   }
 
+  @Override
+  public <T> Publisher<T> selectPublisher(String statement) {
+    return sqlSessionProxy.selectPublisher(statement);
+  }
+
+  @Override
+  public <T> Publisher<T> selectPublisher(String statement, Object parameter) {
+    return sqlSessionProxy.selectPublisher(statement, parameter);
+  }
+
+  @Override
+  public <T> Publisher<T> selectPublisher(String statement, Object parameter, RowBounds rowBounds) {
+    return sqlSessionProxy.selectPublisher(statement, parameter, rowBounds);
+  }
+
   @Override
   public <E> List<E> selectList(String statement) {
     return sqlSessionProxy.selectList(statement);
@@ -23,9 +23,12 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 import org.apache.ibatis.binding.BindingException;
 import org.apache.ibatis.cursor.Cursor;
+import org.apache.ibatis.cursor.Publisher;
+import org.apache.ibatis.cursor.defaults.CursorPublisher;
 import org.apache.ibatis.exceptions.ExceptionFactory;
 import org.apache.ibatis.exceptions.TooManyResultsException;
 import org.apache.ibatis.executor.BatchResult;
@@ -110,6 +113,28 @@ public class DefaultSqlSession implements SqlSession {
     return mapResultHandler.getMappedResults();
   }
 
+  @Override
+  public <E> CompletableFuture<List<E>> selectListAsync(String statement, Object parameter) {
+    return selectListAsync(statement, parameter, RowBounds.DEFAULT);
+  }
+
+  /**
+   * 在异步查询线程池中查询结果列表，每次调用使用一个新的自动提交会话，因此看不到当前会话中未提交的修改
+   * @param <E> 返回的列表元素的类型
+   * @param statement SQL语句
+   * @param parameter 参数对象
+   * @param rowBounds 翻页限制条件
+   * @return 结果对象列表的CompletableFuture
+   */
+  @Override
+  public <E> CompletableFuture<List<E>> selectListAsync(String statement, Object parameter, RowBounds rowBounds) {
+    return CompletableFuture.supplyAsync(() -> {
+      try (SqlSession session = new DefaultSqlSessionFactory(configuration).openSession(true)) {
+        return session.selectList(statement, parameter, rowBounds);
+      }
+    }, configuration.getAsyncQueryExecutorService());
+  }
+
   @Override
   public <T> Cursor<T> selectCursor(String statement) {
     return selectCursor(statement, null);
@@ -134,6 +159,29 @@ public class DefaultSqlSession implements SqlSession {
     }
   }
 
+  @Override
+  public <T> Publisher<T> selectPublisher(String statement) {
+    return selectPublisher(statement, null);
+  }
+
+  @Override
+  public <T> Publisher<T> selectPublisher(String statement, Object parameter) {
+    return selectPublisher(statement, parameter, RowBounds.DEFAULT);
+  }
+
+  /**
+   * 创建按需读取结果的Publisher，每次订阅在异步查询线程池中使用一个新的自动提交会话通过游标读取
+   * @param <T> 结果对象的类型
+   * @param statement SQL语句
+   * @param parameter 参数对象
+   * @param rowBounds 翻页限制条件
+   * @return 结果对象的Publisher
+   */
+  @Override
+  public <T> Publisher<T> selectPublisher(String statement, Object parameter, RowBounds rowBounds) {
+    return new CursorPublisher<>(configuration, statement, parameter, rowBounds);
+  }
+
   @Override
   public <E> List<E> selectList(String statement) {
     return this.selectList(statement, null);